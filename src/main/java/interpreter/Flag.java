@@ -16,15 +16,69 @@ package interpreter;
  * <p>
  * {@code -s} can be specified to enable the following argument to be an
  * evaluation separator.
+ * <p>
+ * {@code -p} reads the whole program up front, and lexes and parses it on
+ * every core before evaluation begins. This pays off for batch files with
+ * very many top-level forms.
+ * <p>
+ * {@code -cache} followed by a directory keeps the parsed form of each
+ * program in that directory, keyed by a hash of its source, and skips parsing
+ * whenever the same program is run again. {@code -recache} ignores and
+ * rewrites any existing entry.
+ * <p>
+ * {@code -arena} keeps lists in a compact arena of primitive arrays rather
+ * than as an object per cell, which is collected between statements. This
+ * pays off for programs which hold very large lists.
+ * <p>
+ * {@code -compile} compiles the body of each function into a tree of
+ * executable nodes on its first call, rather than interpreting it anew on
+ * every call. This pays off for programs which spend their time in deeply
+ * recursive functions.
+ * <p>
+ * {@code -jit} also compiles each function which has been called many times
+ * to JVM bytecode, which HotSpot may then inline into its callers.
+ * <p>
+ * {@code -vm} compiles each statement, and the body of each function, into a
+ * compact bytecode which runs on a virtual machine with its own stack, rather
+ * than on the Java stack.
+ * <p>
+ * {@code -stack} evaluates each statement with its continuations on a stack
+ * in the heap rather than on the Java stack, so that deeply recursive
+ * functions are bounded only by the size of the heap.
+ * <p>
+ * {@code -O} optimizes each statement before it is evaluated, folding calls
+ * of pure primitives whose arguments are constants, and pruning the branches
+ * of if and cond which are never taken. {@code -print-optimized} also prints
+ * the optimized form of each statement to standard error.
+ * <p>
+ * {@code -hashcons} shares a single instance between all structurally equal
+ * atoms and lists, which saves memory on programs with much repeated data.
+ * <p>
+ * {@code -print-length} and {@code -print-depth}, each followed by a number,
+ * truncate large results to that many elements of each list, and that many
+ * levels of nested lists, respectively.
  * 
  * @author Anand
  *
  */
 public enum Flag {
+	ARENA("-arena"),
+	CACHE("-c(ache)?", 1),
+	COMPILE("-compile"),
 	DEBUG("-d"),
+	HASH_CONS("-hashcons"),
 	INPUT_FILE("-i(n)?", 1),
+	JIT("-jit"),
+	OPTIMIZE("-O"),
 	OUTPUT_FILE("-o(ut)?", 1),
-	SEP("-s", 1);
+	PARALLEL("-p"),
+	PRINT_DEPTH("-print-depth", 1),
+	PRINT_LENGTH("-print-length", 1),
+	PRINT_OPTIMIZED("-print-optimized"),
+	RECACHE("-recache"),
+	SEP("-s", 1),
+	STACK("-stack"),
+	VM("-vm");
 
 	private String regex;
 	private int argsNeeded;
@@ -3,12 +3,26 @@
  */
 package interpreter;
 
-import interpreter.lexer.Lexer;
+import interpreter.lexer.TokenStream;
+import interpreter.parser.AstCache;
+import interpreter.parser.ConsHeap;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.ParallelFrontEnd;
 import interpreter.parser.Parser;
+import interpreter.parser.Printer;
+import interpreter.parser.StackEvaluator;
+import interpreter.parser.compile.Compiler;
+import interpreter.parser.compile.Jit;
+import interpreter.parser.compile.Machine;
+import interpreter.parser.compile.Optimizer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Anand
@@ -18,29 +32,71 @@ public class Lispreter {
 
 	public static void main(String[] args) {
 		try {
-			Lexer lexer;
+			TokenStream stream = null;
+			String program = null;
+			NodeFactory.setHashConsing(Flag.HASH_CONS.containsFlag(args));
+			Machine.setEnabled(Flag.VM.containsFlag(args));
+			Jit.setEnabled(Flag.JIT.containsFlag(args));
+			Compiler.setEnabled(Jit.isEnabled()
+					|| Flag.COMPILE.containsFlag(args));
+			if (Flag.PRINT_OPTIMIZED.containsFlag(args)) {
+				Optimizer.setListing(System.err);
+			}
+			Optimizer.setEnabled(Optimizer.getListing() != null
+					|| Flag.OPTIMIZE.containsFlag(args));
+			if (Flag.ARENA.containsFlag(args)) {
+				NodeFactory.setHeap(new ConsHeap());
+			}
 
-			if (Flag.INPUT_FILE.containsFlag(args)) {
-				lexer = new Lexer(new FileInputStream(
-						Flag.INPUT_FILE.getParts(args)[0]));
+			if (Flag.PARALLEL.containsFlag(args)
+					|| Flag.CACHE.containsFlag(args)) {
+				program = read(Flag.INPUT_FILE.containsFlag(args)
+						? new FileInputStream(Flag.INPUT_FILE.getParts(args)[0])
+						: System.in);
+			} else if (Flag.INPUT_FILE.containsFlag(args)) {
+				stream = TokenStream.map(new FileInputStream(
+						Flag.INPUT_FILE.getParts(args)[0]).getChannel());
 			} else {
-				lexer = new Lexer(System.in);
+				stream = new TokenStream(System.in);
 			}
 
-			Parser parser;
+			Appendable output = System.out;
 			FileWriter writer = null;
 			if (Flag.OUTPUT_FILE.containsFlag(args)) {
-				writer = new FileWriter(getOutputFile(Flag.OUTPUT_FILE.getParts(args)[0]));
-				parser = new Parser(lexer.getTokens(), writer);
+				output = writer = new FileWriter(getOutputFile(Flag.OUTPUT_FILE.getParts(args)[0]));
+			}
+			ParallelFrontEnd frontEnd = Flag.PARALLEL.containsFlag(args)
+					? new ParallelFrontEnd() : null;
+			Parser parser;
+			if (Flag.CACHE.containsFlag(args)) {
+				AstCache cache = new AstCache(new File(
+						Flag.CACHE.getParts(args)[0]),
+						Flag.RECACHE.containsFlag(args), frontEnd);
+				parser = cache.parse(program, output);
+			} else if (frontEnd != null) {
+				parser = frontEnd.parse(program, output);
 			} else {
-				parser = new Parser(lexer.getTokens());
+				parser = new Parser(stream, output);
 			}
 			
 			String sep = "\n";
 			if (Flag.SEP.containsFlag(args)) {
 				sep = Flag.SEP.getParts(args)[0];
 			}
+			if (Flag.STACK.containsFlag(args)) {
+				parser.setEvaluator(new StackEvaluator());
+			}
+			parser.setPrinter(new Printer(
+					Flag.PRINT_LENGTH.containsFlag(args) ? Integer
+							.parseInt(Flag.PRINT_LENGTH.getParts(args)[0])
+							: Printer.UNLIMITED,
+					Flag.PRINT_DEPTH.containsFlag(args) ? Integer
+							.parseInt(Flag.PRINT_DEPTH.getParts(args)[0])
+							: Printer.UNLIMITED));
 			parser.eval(sep);
+			if (stream != null) {
+				stream.close();
+			}
 			if (writer != null) {
 				writer.close();
 			}
@@ -56,6 +112,17 @@ public class Lispreter {
 		}
 	}
 	
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) >= 0) {
+			bytes.write(chunk, 0, read);
+		}
+		in.close();
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
 	private static File getOutputFile(String path) {
 		File file = new File(path);
 		long counter = 0;
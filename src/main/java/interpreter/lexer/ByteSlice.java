@@ -0,0 +1,79 @@
+/**
+ * ByteSlice.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The text of a token which still lives in a byte buffer, typically a slice of
+ * a memory-mapped file. The bytes are only decoded when the text is required
+ * as a String, and pure ASCII text takes a single byte-per-char fast path.
+ * 
+ * @author Anand
+ *
+ */
+final class ByteSlice implements CharSequence {
+
+	private final ByteBuffer bytes;
+	private String text;
+	private Boolean ascii;
+
+	/**
+	 * Wraps a buffer, whose remaining bytes are the UTF-8 encoded text.
+	 * 
+	 * @param bytes
+	 *            the byte buffer.
+	 */
+	ByteSlice(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	@Override
+	public int length() {
+		return text != null || !isAscii() ? toString().length() : bytes
+				.remaining();
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (text != null || !isAscii()) {
+			return toString().charAt(index);
+		}
+		return (char) bytes.get(bytes.position() + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		if (text == null) {
+			text = (isAscii() ? StandardCharsets.US_ASCII
+					: StandardCharsets.UTF_8).decode(bytes.duplicate())
+					.toString();
+		}
+		return text;
+	}
+
+	/**
+	 * Checks, once, whether every byte of the slice is plain ASCII.
+	 * 
+	 * @return true if no byte has its high bit set.
+	 */
+	private boolean isAscii() {
+		if (ascii == null) {
+			ascii = Boolean.TRUE;
+			for (int i = bytes.position(); i < bytes.limit(); i++) {
+				if (bytes.get(i) < 0) {
+					ascii = Boolean.FALSE;
+					break;
+				}
+			}
+		}
+		return ascii;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * CharClass.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+/**
+ * Precomputed character classification table for the Lexer. Every ASCII
+ * character is mapped to a class once, so that scanning a program is a single
+ * array lookup per character rather than a regular expression match. Any
+ * character outside of the table is treated as whitespace, which is how the
+ * Lexer has always ignored unknown input.
+ * 
+ * @author Anand
+ *
+ */
+final class CharClass {
+
+	static final byte SKIP = 0;
+	static final byte LETTER = 1;
+	static final byte DIGIT = 2;
+	static final byte OPEN = 3;
+	static final byte CLOSE = 4;
+	static final byte DOT = 5;
+	static final byte QUOTE = 6;
+	static final byte OPERATOR = 7;
+	static final byte STRING = 8;
+	static final byte COMMENT = 9;
+
+	private static final byte[] TABLE = new byte[128];
+	private static final String[] TEXT = new String[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			TABLE[c] = LETTER;
+			TABLE[Character.toUpperCase(c)] = LETTER;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			TABLE[c] = DIGIT;
+		}
+		for (char c : "({[".toCharArray()) {
+			TABLE[c] = OPEN;
+		}
+		for (char c : ")}]".toCharArray()) {
+			TABLE[c] = CLOSE;
+		}
+		for (char c : "+-*/=^<>".toCharArray()) {
+			TABLE[c] = OPERATOR;
+		}
+		TABLE['.'] = DOT;
+		TABLE['\''] = QUOTE;
+		TABLE['"'] = STRING;
+		TABLE[';'] = COMMENT;
+		TABLE['#'] = COMMENT;
+		TABLE['|'] = COMMENT;
+
+		for (char c = 0; c < TEXT.length; c++) {
+			TEXT[c] = String.valueOf(c).intern();
+		}
+	}
+
+	private CharClass() {
+		throw new AssertionError("Cannot init util constructor");
+	}
+
+	/**
+	 * Grabs the class of a character.
+	 * 
+	 * @param c
+	 *            the character to classify.
+	 * @return one of the class constants, {@link #SKIP} if unknown.
+	 */
+	static byte of(int c) {
+		return c < TABLE.length && c >= 0 ? TABLE[c] : SKIP;
+	}
+
+	/**
+	 * Is the given character part of an alphanumeric literal?
+	 * 
+	 * @param c
+	 *            the character to classify.
+	 * @return true if the character is a letter or a digit.
+	 */
+	static boolean isLiteral(int c) {
+		byte cls = of(c);
+		return cls == LETTER || cls == DIGIT;
+	}
+
+	/**
+	 * Grabs a shared single character string for an ASCII character, so that
+	 * parentheses and operators do not allocate a new String per token.
+	 * 
+	 * @param c
+	 *            an ASCII character.
+	 * @return the character as a String.
+	 */
+	static String text(int c) {
+		return c < TEXT.length ? TEXT[c] : String.valueOf((char) c);
+	}
+}
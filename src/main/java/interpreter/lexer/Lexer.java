@@ -3,15 +3,13 @@
  */
 package interpreter.lexer;
 
-import interpreter.exception.MalformedTextException;
-import interpreter.util.Pat;
-
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Lexer for the Lisp class. Deconstructs meaningful symbols and expression in a
@@ -22,8 +20,7 @@ import java.util.Scanner;
  */
 public final class Lexer {
 
-	private final String prog;
-	private List<String> tokens = new ArrayList<>();
+	private final TokenBuffer tokens;
 
 	/**
 	 * Creates a lexical analyzer object with an input stream, which is then
@@ -35,46 +32,7 @@ public final class Lexer {
 	 *             if the input stream could not be read.
 	 */
 	public Lexer(InputStream stream) throws IOException {
-		StringBuffer buffy = new StringBuffer();
-		Scanner scan = new Scanner(stream);
-		boolean blockCommentMode = false;
-		while (scan.hasNextLine()) {
-			String line = scan.nextLine();
-			if (line.contains("#|")) {
-				if (!blockCommentMode) {
-					blockCommentMode = true;
-				}
-				continue;
-			} else if (line.contains("|#")) {
-				if (!blockCommentMode) {
-					scan.close();
-					throw new MalformedTextException(
-							"There is no beginning block comment");
-				}
-				blockCommentMode = false;
-				buffy.append(line.substring(line.indexOf("|#") + 2,
-						line.length()));
-				continue;
-			}
-			if (blockCommentMode) {
-				continue;
-			}
-			int commentIndex = line.indexOf(';');
-			if (commentIndex < 0) {
-				commentIndex = line.length();
-			}
-			buffy.append(line.substring(0, commentIndex));
-		}
-		prog = buffy.toString();
-		scan.close();
-		// ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-		// byte[] buffer = new byte[1024];
-		// int length = 0;
-		// while ((length = stream.read(buffer)) != -1) {
-		// byteStream.write(buffer, 0, length);
-		// }
-		// prog = byteStream.toString("UTF-8");
-		tokenize();
+		this(read(stream));
 	}
 
 	/**
@@ -84,58 +42,68 @@ public final class Lexer {
 	 *            a String.
 	 */
 	public Lexer(String input) {
-		prog = input;
-		tokenize();
+		tokens = TokenBuffer.lex(input);
 	}
 
 	/**
-	 * Grabs a read-only copy of the token list.
+	 * Grabs a read-only view of the token list, as the literal text of each
+	 * token. The view is a slice of the token buffer, so handing it to the
+	 * Parser does not copy it.
 	 * 
 	 * @return a list of tokens.
 	 */
 	public List<String> getTokens() {
-		return Collections.unmodifiableList(tokens);
+		return tokens.slice();
 	}
 
 	/**
-	 * Splits the program string into semantically defined parts, as defined by
-	 * the Pattern matcher.
+	 * Grabs the compact buffer of every token in the program.
 	 * 
-	 * @see Pat#matches(String)
-	 * @see Pat#matches(char)
+	 * @return the TokenBuffer.
 	 */
-	private void tokenize() {
-		if (prog.length() == 1) {
-			tokens.add(prog);
-		} else {
-			int counter = 0;
-			while (counter < prog.length()) {
-				int next = counter + 1;
-				char c = prog.charAt(counter);
+	public TokenBuffer getBuffer() {
+		return tokens;
+	}
 
-				if (Pat.LETTER.matches(c) || Pat.ATOM_NUM.matches(c)) {
-					while (Pat.LITERAL.matches(prog
-							.substring(counter, next + 1))
-							|| Pat.ATOM_NUM.matches(prog.substring(counter,
-									next + 1))) {
-						next++;
-					}
-					tokens.add(prog.substring(counter, next));
-				} else if (Pat.SYMBOL.matches(c)) {
-					if (counter + 1 < prog.length()
-							&& Pat.RELATIONAL_OP.matches(prog.substring(
-									counter, counter + 2))) {
-						tokens.add(prog.substring(counter, counter + 2));
-						next++;
-					} else {
-						tokens.add("" + c);
-					}
-				} else if (Pat.STRING_ID.matches(c)) {
-					next = prog.indexOf("\"", counter + 1) + 1;
-					tokens.add(prog.substring(counter, next));
-				}
-				counter = next;
+	/**
+	 * Grabs a read-only view of the typed token list. Each Token is rebuilt
+	 * from the token buffer as it is asked for.
+	 * 
+	 * @return a list of Tokens.
+	 */
+	public List<Token> getTypedTokens() {
+		return new AbstractList<Token>() {
+
+			@Override
+			public Token get(int index) {
+				return tokens.token(index);
 			}
+
+			@Override
+			public int size() {
+				return tokens.size();
+			}
+		};
+	}
+
+	/**
+	 * Reads a whole UTF-8 byte stream into a String, as the token buffer keeps
+	 * offsets into its source rather than a copy of each token.
+	 * 
+	 * @param stream
+	 *            a valid input stream.
+	 * @return the decoded program.
+	 * @throws IOException
+	 *             if the input stream could not be read.
+	 */
+	private static String read(InputStream stream) throws IOException {
+		Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+		StringBuilder builder = new StringBuilder();
+		char[] chunk = new char[8192];
+		int read;
+		while ((read = reader.read(chunk)) >= 0) {
+			builder.append(chunk, 0, read);
 		}
+		return builder.toString();
 	}
 }
@@ -0,0 +1,76 @@
+/**
+ * MappedWindow.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Window over a memory-mapped file. The bytes of the file are scanned in
+ * place, and nothing is copied or decoded until a token's text is asked for.
+ * Files larger than a single mapping are walked through successive mappings,
+ * each starting at the pending token.
+ * <p>
+ * Scanning raw bytes is safe for UTF-8 input, since every byte of a multi-byte
+ * sequence lies outside of the ASCII range, and so is never mistaken for a
+ * delimiter.
+ * 
+ * @author Anand
+ *
+ */
+final class MappedWindow extends Window {
+
+	private static final int MAPPING_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer buffer;
+
+	MappedWindow(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+	}
+
+	@Override
+	int get(int index) {
+		return buffer.get(index) & 0xFF;
+	}
+
+	@Override
+	CharSequence slice(int start, int length) {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.position(start).limit(start + length);
+		return new ByteSlice(bytes.slice());
+	}
+
+	@Override
+	boolean fill(int keep) throws IOException {
+		offset += keep;
+		limit -= keep;
+		long remaining = size - offset;
+		if (remaining <= limit) {
+			if (keep > 0) {
+				buffer = map(limit);
+			}
+			return false;
+		}
+		long wanted = Math.max(MAPPING_SIZE, 2L * limit);
+		buffer = map((int) Math.min(remaining,
+				Math.min(wanted, Integer.MAX_VALUE)));
+		limit = buffer.limit();
+		return true;
+	}
+
+	private MappedByteBuffer map(int length) throws IOException {
+		return channel.map(MapMode.READ_ONLY, offset, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * ReaderWindow.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Window over a character stream. Characters are read into a fixed size buffer
+ * which is compacted on every refill, and which only grows when a single token
+ * does not fit in it.
+ * 
+ * @author Anand
+ *
+ */
+final class ReaderWindow extends Window {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;
+	private char[] buffer = new char[BUFFER_SIZE];
+	private boolean eof;
+
+	ReaderWindow(Reader reader) {
+		this.reader = reader;
+	}
+
+	@Override
+	int get(int index) {
+		return buffer[index];
+	}
+
+	@Override
+	CharSequence slice(int start, int length) {
+		return new String(buffer, start, length);
+	}
+
+	@Override
+	boolean fill(int keep) throws IOException {
+		if (keep > 0) {
+			System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+			offset += keep;
+			limit -= keep;
+		}
+		if (eof) {
+			return false;
+		}
+		if (limit == buffer.length) {
+			char[] grown = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+		int read = reader.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Token.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import interpreter.parser.Symbol;
+
+/**
+ * A single lexical unit of a Lisp program. Each token knows its category and
+ * the span of the program it was taken from, where {@code start} is inclusive
+ * and {@code end} is exclusive. The text of a token may still be a slice of its
+ * source, in which case it only becomes a String once it is asked for, and an
+ * identifier may be interned only once its Symbol is asked for.
+ * 
+ * @author Anand
+ *
+ */
+public final class Token {
+
+	private final TokenType type;
+	private final CharSequence text;
+	private Symbol symbol;
+	private final long start, end;
+
+	/**
+	 * Constructs a token of the given category over a span of the program.
+	 * 
+	 * @param type
+	 *            the lexical category.
+	 * @param text
+	 *            the literal text of the token.
+	 * @param symbol
+	 *            the interned identifier, or null if the token is not one, or
+	 *            is to be interned when it is first asked for.
+	 * @param start
+	 *            the offset of the first character, inclusive.
+	 * @param end
+	 *            the offset after the last character, exclusive.
+	 */
+	public Token(TokenType type, CharSequence text, Symbol symbol,
+			long start, long end) {
+		this.type = type;
+		this.text = text;
+		this.symbol = symbol;
+		this.start = start;
+		this.end = end;
+	}
+
+	public TokenType getType() {
+		return type;
+	}
+
+	/**
+	 * Grabs the literal text of this token as a String, decoding it first if
+	 * the token is still a slice of its source.
+	 * 
+	 * @return the token text.
+	 */
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * Grabs the literal text of this token without forcing it into a String.
+	 * 
+	 * @return the token text.
+	 */
+	public CharSequence getChars() {
+		return text;
+	}
+
+	/**
+	 * Grabs the identifier this token was interned as, interning it first if
+	 * the lexer has not.
+	 * 
+	 * @return the Symbol, or null if this token is not an identifier.
+	 */
+	public Symbol getSymbol() {
+		if (symbol == null && (type == TokenType.SYMBOL
+				|| type == TokenType.RELATIONAL_OP)) {
+			symbol = Symbol.intern(getText());
+		}
+		return symbol;
+	}
+
+	/**
+	 * Parses the value of an integer literal straight from the text of this
+	 * token, without forcing the text into a String.
+	 * 
+	 * @return the value.
+	 * @throws NumberFormatException
+	 *             if the token is not an integer literal, or its value does
+	 *             not fit in a long.
+	 */
+	public long longValue() {
+		if (type != TokenType.INTEGER) {
+			throw new NumberFormatException("Not an integer : " + this);
+		}
+		long value = 0;
+		for (int i = 0, length = text.length(); i < length; i++) {
+			int digit = text.charAt(i) - '0';
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				throw new NumberFormatException("Integer literal out of range : "
+						+ this);
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return getText();
+	}
+}
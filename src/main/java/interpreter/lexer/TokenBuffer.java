@@ -0,0 +1,475 @@
+/**
+ * TokenBuffer.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import interpreter.parser.Symbol;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Compact, columnar storage for the tokens of a program. Rather than keeping a
+ * Token or a String per token, each column is a primitive array: the kind of
+ * every token is a {@code byte}, its span of the source is an offset and a
+ * length, and its value is a {@code long}. The value of an integer is the
+ * integer itself, the value of an identifier is its symbol id, and the value
+ * of a punctuation token is its character.
+ * <p>
+ * Token text is only cut out of the source when it is asked for, and
+ * {@link Slice}s and {@link Cursor}s over the buffer never copy it.
+ * 
+ * @author Anand
+ *
+ */
+public final class TokenBuffer {
+
+	private static final TokenType[] TYPES = TokenType.values();
+
+	private final CharSequence source;
+	private byte[] kinds;
+	private int[] offsets;
+	private int[] lengths;
+	private long[] values;
+	private int size;
+
+	/**
+	 * Creates an empty buffer over a program source. Tokens added to the
+	 * buffer must have been scanned from this source.
+	 * 
+	 * @param source
+	 *            the program text.
+	 */
+	public TokenBuffer(CharSequence source) {
+		this.source = source;
+		this.kinds = new byte[16];
+		this.offsets = new int[16];
+		this.lengths = new int[16];
+		this.values = new long[16];
+	}
+
+	/**
+	 * Lexes a whole program string into a new buffer.
+	 * 
+	 * @param source
+	 *            the program text.
+	 * @return a filled TokenBuffer.
+	 */
+	public static TokenBuffer lex(String source) {
+		TokenBuffer buffer = new TokenBuffer(source);
+		TokenStream stream = new TokenStream(source);
+		while (stream.hasNext()) {
+			buffer.add(stream.next());
+		}
+		return buffer;
+	}
+
+	/**
+	 * Builds a buffer from token strings which did not come from the Lexer.
+	 * The tokens are joined into a synthetic source, and each one is
+	 * classified by its text alone.
+	 * 
+	 * @param tokens
+	 *            a List of token strings.
+	 * @return a filled TokenBuffer.
+	 */
+	public static TokenBuffer of(List<String> tokens) {
+		StringBuilder source = new StringBuilder();
+		for (String token : tokens) {
+			source.append(token).append(' ');
+		}
+		TokenBuffer buffer = new TokenBuffer(source);
+		int offset = 0;
+		for (String token : tokens) {
+			TokenType type = classify(token);
+			buffer.add(type, offset, token.length(), valueOf(type, token));
+			offset += token.length() + 1;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Appends a token which was scanned from the source of this buffer.
+	 * 
+	 * @param token
+	 *            a Token with offsets into the source.
+	 * @throws IllegalArgumentException
+	 *             if the token lies outside of the source.
+	 */
+	public void add(Token token) {
+		if (token.getEnd() > source.length()) {
+			throw new IllegalArgumentException("The token " + token
+					+ " is not part of the buffer source");
+		}
+		int offset = (int) token.getStart();
+		int length = (int) (token.getEnd() - token.getStart());
+		TokenType type = token.getType();
+		long value;
+		if (token.getSymbol() != null) {
+			value = token.getSymbol().getId();
+		} else {
+			value = valueOf(type, token.getChars());
+		}
+		add(type, offset, length, value);
+	}
+
+	private void add(TokenType type, int offset, int length, long value) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		kinds[size] = (byte) type.ordinal();
+		offsets[size] = offset;
+		lengths[size] = length;
+		values[size] = value;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Grabs the kind of a token.
+	 * 
+	 * @param index
+	 *            the index of the token in this buffer.
+	 * @return the TokenType.
+	 */
+	public TokenType type(int index) {
+		checkIndex(index);
+		return TYPES[kinds[index]];
+	}
+
+	/**
+	 * Grabs the pre-parsed value of a token: the integer for an integer, the
+	 * symbol id for an identifier and the character for punctuation. Integers
+	 * too large for a long, and strings, have a value of 0.
+	 * 
+	 * @param index
+	 *            the index of the token in this buffer.
+	 * @return the token value.
+	 */
+	public long value(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	/**
+	 * Grabs the literal text of a token. Punctuation shares a single String
+	 * per character, everything else is cut out of the source.
+	 * 
+	 * @param index
+	 *            the index of the token in this buffer.
+	 * @return the token text.
+	 */
+	public String text(int index) {
+		checkIndex(index);
+		if (isPunctuation(TYPES[kinds[index]])) {
+			return CharClass.text((int) values[index]);
+		}
+		int offset = offsets[index];
+		return source.subSequence(offset, offset + lengths[index]).toString();
+	}
+
+	/**
+	 * Rebuilds a Token object for one entry of the buffer.
+	 * 
+	 * @param index
+	 *            the index of the token in this buffer.
+	 * @return a new Token.
+	 */
+	public Token token(int index) {
+		TokenType type = type(index);
+		Symbol symbol = null;
+		if (type == TokenType.SYMBOL || type == TokenType.RELATIONAL_OP) {
+			symbol = Symbol.forId((int) values[index]);
+		}
+		return new Token(type, text(index), symbol, offsets[index],
+				offsets[index] + lengths[index]);
+	}
+
+	/**
+	 * Grabs a view of every token in the buffer.
+	 * 
+	 * @return a Slice of the whole buffer.
+	 */
+	public Slice slice() {
+		return new Slice(this, 0, size);
+	}
+
+	/**
+	 * Grabs a view of a range of the buffer, without copying it.
+	 * 
+	 * @param from
+	 *            the first token, inclusive.
+	 * @param to
+	 *            the last token, exclusive.
+	 * @return a Slice of the buffer.
+	 */
+	public Slice slice(int from, int to) {
+		if (from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException("Invalid slice [" + from
+					+ ", " + to + ") of " + size + " tokens");
+		}
+		return new Slice(this, from, to);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		}
+	}
+
+	private static boolean isPunctuation(TokenType type) {
+		return type == TokenType.PAREN_OPEN || type == TokenType.PAREN_CLOSE
+				|| type == TokenType.DOT || type == TokenType.QUOTE;
+	}
+
+	/**
+	 * Works out the kind of a token from its text, the same way the Lexer
+	 * would have categorized it.
+	 */
+	private static TokenType classify(String token) {
+		if (token.isEmpty()) {
+			return TokenType.SYMBOL;
+		}
+		char c = token.charAt(0);
+		switch (CharClass.of(c)) {
+		case CharClass.OPEN:
+			return token.length() == 1 ? TokenType.PAREN_OPEN
+					: TokenType.SYMBOL;
+		case CharClass.CLOSE:
+			return token.length() == 1 ? TokenType.PAREN_CLOSE
+					: TokenType.SYMBOL;
+		case CharClass.DOT:
+			return token.length() == 1 ? TokenType.DOT : TokenType.SYMBOL;
+		case CharClass.QUOTE:
+			return token.length() == 1 ? TokenType.QUOTE : TokenType.SYMBOL;
+		case CharClass.STRING:
+			return TokenType.STRING;
+		default:
+			break;
+		}
+		if (token.equals("<=") || token.equals(">=")) {
+			return TokenType.RELATIONAL_OP;
+		}
+		int i = c == '+' || c == '-' ? 1 : 0;
+		if (i == token.length()) {
+			return TokenType.SYMBOL;
+		}
+		for (; i < token.length(); i++) {
+			if (CharClass.of(token.charAt(i)) != CharClass.DIGIT) {
+				return TokenType.SYMBOL;
+			}
+		}
+		return TokenType.INTEGER;
+	}
+
+	/**
+	 * Pre-parses the value column entry for a token.
+	 */
+	private static long valueOf(TokenType type, CharSequence text) {
+		switch (type) {
+		case PAREN_OPEN:
+		case PAREN_CLOSE:
+		case DOT:
+		case QUOTE:
+			return text.charAt(0);
+		case SYMBOL:
+		case RELATIONAL_OP:
+			return Symbol.intern(text.toString()).getId();
+		case INTEGER:
+			try {
+				return Long.parseLong(text.toString());
+			}
+			catch (NumberFormatException e) {
+				return 0;
+			}
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * A read-only window onto a range of a TokenBuffer. A slice is a list of
+	 * token strings, so it can be handed to anything which expects the token
+	 * list of old, but sub-lists and kind lookups never copy the buffer.
+	 * 
+	 * @author Anand
+	 *
+	 */
+	public static final class Slice extends AbstractList<String> implements
+			RandomAccess {
+
+		private final TokenBuffer buffer;
+		private final int from, to;
+
+		private Slice(TokenBuffer buffer, int from, int to) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public String get(int index) {
+			return buffer.text(position(index));
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		@Override
+		public Slice subList(int fromIndex, int toIndex) {
+			if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+				throw new IndexOutOfBoundsException("Invalid sub list ["
+						+ fromIndex + ", " + toIndex + ") of " + size());
+			}
+			return new Slice(buffer, from + fromIndex, from + toIndex);
+		}
+
+		/**
+		 * Grabs the kind of a token in this slice.
+		 * 
+		 * @param index
+		 *            the index of the token in this slice.
+		 * @return the TokenType.
+		 */
+		public TokenType type(int index) {
+			return buffer.type(position(index));
+		}
+
+		/**
+		 * Grabs the pre-parsed value of a token in this slice.
+		 * 
+		 * @param index
+		 *            the index of the token in this slice.
+		 * @return the token value.
+		 * @see TokenBuffer#value(int)
+		 */
+		public long value(int index) {
+			return buffer.value(position(index));
+		}
+
+		/**
+		 * Grabs the buffer this slice is a view of.
+		 * 
+		 * @return the TokenBuffer.
+		 */
+		public TokenBuffer getBuffer() {
+			return buffer;
+		}
+
+		/**
+		 * Grabs the index in the buffer of the first token of this slice.
+		 * 
+		 * @return the buffer index.
+		 */
+		public int getOffset() {
+			return from;
+		}
+
+		/**
+		 * Creates a cursor over the tokens of this slice.
+		 * 
+		 * @return a new Cursor, positioned before the first token.
+		 */
+		public Cursor cursor() {
+			return new Cursor(buffer, from, to);
+		}
+
+		private int position(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + size());
+			}
+			return from + index;
+		}
+	}
+
+	/**
+	 * A forward-only position over a range of a TokenBuffer, which reads the
+	 * columns of the current token without materializing it.
+	 * 
+	 * @author Anand
+	 *
+	 */
+	public static final class Cursor {
+
+		private final TokenBuffer buffer;
+		private final int from, to;
+		private int index;
+
+		private Cursor(TokenBuffer buffer, int from, int to) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.index = from - 1;
+		}
+
+		public boolean hasNext() {
+			return index + 1 < to;
+		}
+
+		/**
+		 * Moves onto the next token.
+		 * 
+		 * @return the kind of the new current token.
+		 * @throws NoSuchElementException
+		 *             if there are no tokens left.
+		 */
+		public TokenType next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("The cursor is exhausted");
+			}
+			return TYPES[buffer.kinds[++index]];
+		}
+
+		/**
+		 * Grabs the kind of the current token.
+		 * 
+		 * @return the TokenType.
+		 */
+		public TokenType type() {
+			return buffer.type(index);
+		}
+
+		/**
+		 * Grabs the text of the current token.
+		 * 
+		 * @return the token text.
+		 */
+		public String text() {
+			return buffer.text(index);
+		}
+
+		/**
+		 * Grabs the pre-parsed value of the current token.
+		 * 
+		 * @return the token value.
+		 * @see TokenBuffer#value(int)
+		 */
+		public long value() {
+			return buffer.value(index);
+		}
+
+		/**
+		 * Grabs the position of the current token, relative to the start of
+		 * the range this cursor was created over.
+		 * 
+		 * @return the relative index, or -1 before the first token.
+		 */
+		public int index() {
+			return index - from;
+		}
+	}
+}
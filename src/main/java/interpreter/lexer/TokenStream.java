@@ -0,0 +1,327 @@
+/**
+ * TokenStream.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import interpreter.exception.MalformedTextException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Pull-based lexer over a character source. Tokens are scanned only when they
+ * are asked for, so a program of any length can be consumed one top-level form
+ * at a time. Line comments ({@code ;}) and block comments ({@code #| |#}) are
+ * skipped as they are encountered.
+ * <p>
+ * Characters are read through a sliding window which only grows when a single
+ * token does not fit in it, so memory is bounded by the largest token and the
+ * largest form a caller chooses to collect.
+ * 
+ * @author Anand
+ *
+ */
+public final class TokenStream implements Iterator<Token>, Closeable {
+
+	private final Window window;
+	private int pos;
+	private Token peeked;
+
+	/**
+	 * Creates a token stream reading from a character source.
+	 * 
+	 * @param reader
+	 *            a valid Reader.
+	 */
+	public TokenStream(Reader reader) {
+		this(new ReaderWindow(reader));
+	}
+
+	private TokenStream(Window window) {
+		this.window = window;
+	}
+
+	/**
+	 * Creates a token stream decoding a UTF-8 byte stream.
+	 * 
+	 * @param stream
+	 *            a valid input stream.
+	 */
+	public TokenStream(InputStream stream) {
+		this(new InputStreamReader(stream, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a token stream decoding a UTF-8 byte channel.
+	 * 
+	 * @param channel
+	 *            a readable channel.
+	 */
+	public TokenStream(ReadableByteChannel channel) {
+		this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(),
+				-1));
+	}
+
+	/**
+	 * Creates a token stream over a program string.
+	 * 
+	 * @param input
+	 *            a String.
+	 */
+	public TokenStream(String input) {
+		this(new StringReader(input));
+	}
+
+	/**
+	 * Creates a token stream which lexes a file in place through a memory
+	 * mapping, rather than decoding it into characters first. The file is
+	 * expected to be UTF-8 encoded. Token text stays a slice of the mapping
+	 * until it is first asked for as a String, and token offsets are byte
+	 * offsets into the file.
+	 * 
+	 * @param channel
+	 *            an open channel to the file.
+	 * @return a new TokenStream.
+	 * @throws IOException
+	 *             if the size of the file could not be read.
+	 * @see Token#getChars()
+	 */
+	public static TokenStream map(FileChannel channel) throws IOException {
+		return new TokenStream(new MappedWindow(channel));
+	}
+
+	/**
+	 * Is there another token in the stream? This may block until the source
+	 * has supplied enough characters to decide.
+	 * 
+	 * @throws UncheckedIOException
+	 *             if the source could not be read.
+	 * @throws MalformedTextException
+	 *             if the source is not lexically well-formed.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (peeked == null) {
+			peeked = scan();
+		}
+		return peeked != null;
+	}
+
+	@Override
+	public Token next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("The token stream is exhausted");
+		}
+		Token token = peeked;
+		peeked = null;
+		return token;
+	}
+
+	/**
+	 * Grabs the next token without consuming it.
+	 * 
+	 * @return the next Token, or null if the stream is exhausted.
+	 */
+	public Token peek() {
+		return hasNext() ? peeked : null;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Tokens cannot be removed");
+	}
+
+	/**
+	 * Collects the tokens of the next top-level statement. A statement is
+	 * either a balanced clause, or the run of tokens up to the next opening
+	 * parenthesis, which is how the Parser has always split a program. Every
+	 * token is decoded into a String; the Parser reads statements from the
+	 * stream token by token instead.
+	 * 
+	 * @return the statement tokens, or null if the stream is exhausted.
+	 * @throws IllegalArgumentException
+	 *             if the stream ends inside a clause.
+	 */
+	public List<String> nextForm() {
+		if (!hasNext()) {
+			return null;
+		}
+		List<String> form = new ArrayList<>();
+		Token token = next();
+		form.add(token.getText());
+		if (token.getType() == TokenType.PAREN_OPEN) {
+			int opens = 1;
+			while (opens > 0) {
+				if (!hasNext()) {
+					throw new IllegalArgumentException("Imbalanced parens");
+				}
+				token = next();
+				if (token.getType() == TokenType.PAREN_OPEN) {
+					opens++;
+				} else if (token.getType() == TokenType.PAREN_CLOSE) {
+					opens--;
+				}
+				form.add(token.getText());
+			}
+		} else {
+			while (hasNext() && peeked.getType() != TokenType.PAREN_OPEN) {
+				form.add(next().getText());
+			}
+		}
+		return form;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window.close();
+	}
+
+	/**
+	 * Scans the next token from the window, skipping whitespace and comments.
+	 * 
+	 * @return the next Token, or null at the end of the source.
+	 */
+	private Token scan() {
+		for (;;) {
+			int c = charAt(0);
+			if (c < 0) {
+				return null;
+			}
+
+			switch (CharClass.of(c)) {
+			case CharClass.LETTER:
+			case CharClass.DIGIT:
+				boolean numeric = CharClass.of(c) == CharClass.DIGIT;
+				int length = 1;
+				while (CharClass.isLiteral(c = charAt(length))) {
+					numeric &= CharClass.of(c) == CharClass.DIGIT;
+					length++;
+				}
+				return take(numeric ? TokenType.INTEGER : TokenType.SYMBOL,
+						length);
+			case CharClass.OPERATOR:
+				if ((c == '<' || c == '>') && charAt(1) == '=') {
+					return take(TokenType.RELATIONAL_OP, 2);
+				}
+				return take(TokenType.SYMBOL, 1);
+			case CharClass.OPEN:
+				return take(TokenType.PAREN_OPEN, 1);
+			case CharClass.CLOSE:
+				return take(TokenType.PAREN_CLOSE, 1);
+			case CharClass.DOT:
+				return take(TokenType.DOT, 1);
+			case CharClass.QUOTE:
+				return take(TokenType.QUOTE, 1);
+			case CharClass.STRING:
+				int end = 1;
+				while ((c = charAt(end)) != '"') {
+					if (c < 0) {
+						throw new MalformedTextException(
+								"There is no closing quote for a string");
+					}
+					end++;
+				}
+				return take(TokenType.STRING, end + 1);
+			case CharClass.COMMENT:
+				skipComment(c);
+				break;
+			default:
+				pos++;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Skips a line comment or a (possibly nested) block comment starting at the
+	 * current position.
+	 * 
+	 * @param c
+	 *            the character at the current position.
+	 * @throws MalformedTextException
+	 *             if a block comment is closed without being opened, or is
+	 *             never closed.
+	 */
+	private void skipComment(int c) {
+		if (c == ';') {
+			while ((c = charAt(0)) >= 0 && c != '\n') {
+				pos++;
+			}
+		} else if (c == '|' && charAt(1) == '#') {
+			throw new MalformedTextException(
+					"There is no beginning block comment");
+		} else if (c == '#' && charAt(1) == '|') {
+			int depth = 1;
+			pos += 2;
+			while (depth > 0) {
+				c = charAt(0);
+				if (c < 0) {
+					throw new MalformedTextException(
+							"There is no ending block comment");
+				} else if (c == '|' && charAt(1) == '#') {
+					depth--;
+					pos += 2;
+				} else if (c == '#' && charAt(1) == '|') {
+					depth++;
+					pos += 2;
+				} else {
+					pos++;
+				}
+			}
+		} else {
+			pos++;
+		}
+	}
+
+	/**
+	 * Cuts a token of the given length out of the window at the current
+	 * position, and moves past it. Nothing is decoded on the way: identifiers
+	 * are only interned once their Symbol is asked for.
+	 */
+	private Token take(TokenType type, int length) {
+		CharSequence text = length == 1 ? CharClass.text(window.get(pos))
+				: window.slice(pos, length);
+		long start = window.offset() + pos;
+		Token token = new Token(type, text, null, start, start + length);
+		pos += length;
+		return token;
+	}
+
+	/**
+	 * Grabs the character a given distance ahead of the current position,
+	 * reading more of the source if required.
+	 * 
+	 * @param ahead
+	 *            the distance from the current position.
+	 * @return the character, or -1 if the source ends before it.
+	 */
+	private int charAt(int ahead) {
+		while (pos + ahead >= window.limit()) {
+			boolean more;
+			try {
+				more = window.fill(pos);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			pos = 0;
+			if (!more) {
+				return -1;
+			}
+		}
+		return window.get(pos + ahead);
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * TokenType.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+/**
+ * Enumeration of the lexical categories a {@link Token} may belong to. The
+ * categories mirror the patterns in {@link interpreter.util.Pat}, but are
+ * decided once by the Lexer so that later stages need not re-run any regular
+ * expressions.
+ * 
+ * @author Anand
+ *
+ */
+public enum TokenType {
+
+	/** One of {@code ( [ \{}. */
+	PAREN_OPEN,
+	/** One of {@code ) ] \}}. */
+	PAREN_CLOSE,
+	/** The dot separating the address and data of a pair. */
+	DOT,
+	/** The quote shorthand {@code '}. */
+	QUOTE,
+	/** An alphanumeric literal or a single operator character. */
+	SYMBOL,
+	/** A literal consisting strictly of decimal digits. */
+	INTEGER,
+	/** A double quoted string, quotes included. */
+	STRING,
+	/** One of {@code <=} or {@code >=}. */
+	RELATIONAL_OP;
+}
@@ -0,0 +1,74 @@
+/**
+ * Window.java is a part of Lispreter. 
+ */
+package interpreter.lexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sliding view over the characters of a program source, as seen by a
+ * {@link TokenStream}. Only the characters from the start of the pending token
+ * onwards need to stay available, so a window may discard everything before
+ * that point whenever it reads more of the source.
+ * 
+ * @author Anand
+ *
+ */
+abstract class Window implements Closeable {
+
+	protected long offset;
+	protected int limit;
+
+	/**
+	 * Grabs the character at an index of the window. Characters outside of the
+	 * ASCII range may be reported as any value which is not classified by
+	 * {@link CharClass}.
+	 * 
+	 * @param index
+	 *            an index below {@link #limit()}.
+	 * @return the character.
+	 */
+	abstract int get(int index);
+
+	/**
+	 * Cuts the text of a token out of the window.
+	 * 
+	 * @param start
+	 *            the index of the first character.
+	 * @param length
+	 *            the number of characters.
+	 * @return the token text.
+	 */
+	abstract CharSequence slice(int start, int length);
+
+	/**
+	 * Discards the characters before {@code keep}, so that {@code keep} becomes
+	 * index 0, and then makes more of the source available.
+	 * 
+	 * @param keep
+	 *            the first index which must be retained.
+	 * @return false if the source is exhausted.
+	 * @throws IOException
+	 *             if the source could not be read.
+	 */
+	abstract boolean fill(int keep) throws IOException;
+
+	/**
+	 * Grabs the number of characters currently available.
+	 * 
+	 * @return the window limit.
+	 */
+	int limit() {
+		return limit;
+	}
+
+	/**
+	 * Grabs the source offset of index 0 of the window.
+	 * 
+	 * @return the source offset.
+	 */
+	long offset() {
+		return offset;
+	}
+}
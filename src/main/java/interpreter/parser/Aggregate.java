@@ -0,0 +1,60 @@
+/**
+ * Aggregate.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+/**
+ * An immutable collection of Nodes which is not a list, such as a
+ * {@link PersistentVector} or a {@link PersistentHashMap}. Aggregates are
+ * atoms to the evaluator: they evaluate to themselves, and are built and taken
+ * apart by primitives.
+ * <p>
+ * Updating an aggregate makes a new one which shares most of its structure
+ * with the old, so an aggregate may be handed to other threads without
+ * copying or locking.
+ * 
+ * @author Anand
+ *
+ */
+public abstract class Aggregate extends Atom {
+
+	// the structural hash, computed when it is first asked for. Zero until
+	// then; racing threads compute the same value.
+	private int hash;
+
+	/**
+	 * Grabs the number of elements, or of entries, of this aggregate.
+	 * 
+	 * @return the count.
+	 */
+	public abstract int count();
+
+	/**
+	 * Grabs every Node held by this aggregate, so that they may be reached
+	 * by anything which walks a graph of Nodes.
+	 * 
+	 * @return the Nodes, in no particular order.
+	 */
+	public abstract Iterable<Node> nodes();
+
+	/**
+	 * Grabs the contents of this aggregate as a list.
+	 * 
+	 * @return a list, or NIL if this aggregate is empty.
+	 */
+	public abstract Node seq();
+
+	/**
+	 * Computes the structural hash of this aggregate.
+	 */
+	protected abstract int computeHash();
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			hash = h = computeHash();
+		}
+		return h;
+	}
+}
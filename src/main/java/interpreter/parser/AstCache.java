@@ -0,0 +1,294 @@
+/**
+ * AstCache.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import interpreter.exception.NodeInitException;
+import interpreter.lexer.TokenBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of parsed programs. A program is keyed by the SHA-256 hash of
+ * its source, and its statements are stored in a compact binary form, so that
+ * a program which has been run before skips lexing and parsing entirely.
+ * <p>
+ * An entry holds a table of the atom spellings of the program, a pool of its
+ * integer constants, and then each statement. A list is written as its
+ * length, its elements and its tail, so a long list is neither written nor
+ * read recursively. Atoms are shared between every use of the same spelling
+ * when an entry is loaded.
+ * 
+ * @author Anand
+ *
+ */
+public final class AstCache {
+
+	private static final int MAGIC = 0x4C495350;
+	private static final int VERSION = 2;
+
+	private static final int LIST = 0;
+	private static final int SPELLING = 1;
+	private static final int INTEGER = 2;
+
+	private final File directory;
+	private final boolean refresh;
+	private final ParallelFrontEnd frontEnd;
+
+	/**
+	 * Creates a cache in the given directory, which is created if it does not
+	 * exist yet.
+	 * 
+	 * @param directory
+	 *            the directory of the cache entries.
+	 * @param refresh
+	 *            whether existing entries should be ignored and rewritten.
+	 * @param frontEnd
+	 *            the front end to parse programs with on a miss, or null to
+	 *            parse them on the calling thread.
+	 */
+	public AstCache(File directory, boolean refresh,
+			ParallelFrontEnd frontEnd) {
+		this.directory = directory;
+		this.refresh = refresh;
+		this.frontEnd = frontEnd;
+	}
+
+	/**
+	 * Builds a Parser for a whole program, loading its statements from the
+	 * cache if the program has been cached before, or parsing and caching
+	 * them otherwise. A program which does not parse is not cached, and is
+	 * handed to an on-demand Parser so that its errors surface as usual.
+	 * 
+	 * @param program
+	 *            the program text.
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @return a Parser for the program.
+	 * @throws IOException
+	 *             if a new cache entry could not be written.
+	 */
+	public Parser parse(String program, Appendable output)
+			throws IOException {
+		File entry = new File(directory, hash(program) + ".ast");
+		if (!refresh && entry.isFile()) {
+			try {
+				return new Parser(output, read(entry));
+			}
+			catch (IOException | NodeInitException e) {
+				// a corrupt or stale entry is rewritten below
+			}
+		}
+
+		List<Tree> statements;
+		try {
+			statements = frontEnd != null ? frontEnd.statements(program)
+					: Parser.split(TokenBuffer.lex(program).slice());
+		}
+		catch (IllegalArgumentException | NodeInitException e) {
+			return new Parser(TokenBuffer.lex(program), output);
+		}
+		write(entry, statements);
+		return new Parser(output, statements);
+	}
+
+	/**
+	 * Grabs the key of a program: the hex SHA-256 of its UTF-8 encoding.
+	 * 
+	 * @param program
+	 *            the program text.
+	 * @return the cache key.
+	 */
+	static String hash(String program) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+					program.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+						Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-256 is always available", e);
+		}
+	}
+
+	/**
+	 * Writes the statements of a program into a cache entry. The entry is
+	 * written beside its final name and then moved into place, so that a
+	 * reader never sees half an entry.
+	 */
+	void write(File entry, List<Tree> statements) throws IOException {
+		Map<String, Integer> spellings = new HashMap<>();
+		Map<Long, Integer> integers = new HashMap<>();
+		List<String> spellingTable = new ArrayList<>();
+		List<Long> integerPool = new ArrayList<>();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bytes);
+		writeVarInt(body, statements.size());
+		for (Tree statement : statements) {
+			writeNode(body, statement.getRoot(), spellings, spellingTable,
+					integers, integerPool);
+		}
+		body.flush();
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create the cache directory "
+					+ directory);
+		}
+		File tmp = File.createTempFile("entry", ".tmp", directory);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeVarInt(out, spellingTable.size());
+			for (String spelling : spellingTable) {
+				out.writeUTF(spelling);
+			}
+			writeVarInt(out, integerPool.size());
+			for (long i : integerPool) {
+				out.writeLong(i);
+			}
+			bytes.writeTo(out);
+		}
+		if (!tmp.renameTo(entry)) {
+			entry.delete();
+			if (!tmp.renameTo(entry)) {
+				tmp.delete();
+				throw new IOException("Could not write the cache entry "
+						+ entry);
+			}
+		}
+	}
+
+	/**
+	 * Reads the statements of a program out of a cache entry.
+	 */
+	List<Tree> read(File entry) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(entry)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unknown cache format in " + entry);
+			}
+			Node[] atoms = new Node[readVarInt(in)];
+			for (int i = 0; i < atoms.length; i++) {
+				atoms[i] = NodeFactory.makeNode(in.readUTF());
+			}
+			Node[] integers = new Node[readVarInt(in)];
+			for (int i = 0; i < integers.length; i++) {
+				integers[i] = NodeFactory.makeNode(in.readLong());
+			}
+			int count = readVarInt(in);
+			List<Tree> statements = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				statements.add(new Tree(readNode(in, atoms, integers)));
+			}
+			return statements;
+		}
+		catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Corrupt cache entry " + entry, e);
+		}
+	}
+
+	private static void writeNode(DataOutputStream out, Node node,
+			Map<String, Integer> spellings, List<String> spellingTable,
+			Map<Long, Integer> integers, List<Long> integerPool)
+			throws IOException {
+		if (node instanceof SExpression) {
+			List<Node> elements = new ArrayList<>();
+			while (node instanceof SExpression) {
+				SExpression sexp = (SExpression) node;
+				elements.add(sexp.getAddr());
+				node = sexp.getData();
+			}
+			out.writeByte(LIST);
+			writeVarInt(out, elements.size());
+			for (Node element : elements) {
+				writeNode(out, element, spellings, spellingTable, integers,
+						integerPool);
+			}
+		}
+
+		if (node instanceof Fixnum) {
+			long value = ((Fixnum) node).longValue();
+			Integer index = integers.get(value);
+			if (index == null) {
+				integers.put(value, index = integerPool.size());
+				integerPool.add(value);
+			}
+			out.writeByte(INTEGER);
+			writeVarInt(out, index);
+		} else {
+			String lit = node.toString();
+			Integer index = spellings.get(lit);
+			if (index == null) {
+				spellings.put(lit, index = spellingTable.size());
+				spellingTable.add(lit);
+			}
+			out.writeByte(SPELLING);
+			writeVarInt(out, index);
+		}
+	}
+
+	private static Node readNode(DataInputStream in, Node[] atoms,
+			Node[] integers) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case LIST:
+			Node[] elements = new Node[readVarInt(in)];
+			for (int i = 0; i < elements.length; i++) {
+				elements[i] = readNode(in, atoms, integers);
+			}
+			Node node = readNode(in, atoms, integers);
+			for (int i = elements.length - 1; i >= 0; i--) {
+				node = NodeFactory.makeNode(elements[i], node);
+			}
+			return node;
+		case SPELLING:
+			return atoms[readVarInt(in)];
+		case INTEGER:
+			return integers[readVarInt(in)];
+		default:
+			throw new IOException("Unknown node tag " + tag);
+		}
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+}
@@ -3,83 +3,35 @@
  */
 package interpreter.parser;
 
-import interpreter.exception.EnvironmentException;
-import interpreter.exception.NodeInitException;
-import interpreter.util.Pat;
-
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Atoms are elements of a Lisp program which are strictly alphanumeric
- * literals. If a string is alphanumeric, it must be formed with a leading
- * alphabetic character. If the leading character is numeric, the entire literal
- * must be strictly numeric.
+ * Atoms are elements of a Lisp program which are not S-Expressions. Each kind
+ * of atom has its own class, which holds its value in the form it is used in:
+ * a {@link Fixnum} holds a primitive integer, a {@link SymbolAtom} holds its
+ * interned {@link Symbol}, and a {@link StringAtom} holds its text.
  * <p>
- * The Patterns class allows us to access common regular expressions to
- * appropriately assign well-formed atoms.
+ * Atoms are created by the {@link NodeFactory}, which decides the kind of an
+ * atom once, when it is read. The T and NIL atoms are canonical, so that they
+ * may be compared by identity.
  * 
  * @author Anand
  *
  */
-public class Atom extends Node {
-
-	private final String lit;
-
-	/**
-	 * Creates an an atom from a well-formed string.
-	 * 
-	 * @param lit
-	 *            the literal string to make the atom.
-	 * @throws NodeInitException
-	 *             if the string is not well formed.
-	 */
-	protected Atom(String lit) {
-		if (!(Pat.LITERAL.matches(lit)
-				|| Pat.ATOM_NUM.matches(lit)
-				|| Pat.SYMBOL.matches(lit)
-				|| (Pat.STRING_ID.matches(lit.charAt(0)) && Pat.STRING_ID
-						.matches(lit.charAt(lit.length() - 1))) || Pat.RELATIONAL_OP
-					.matches(lit))) {
-			throw new NodeInitException("Invalid atom specified");
-		}
-		tokens.add(this.lit = lit);
-	}
-
-	/**
-	 * Constructs a T or NIL atom from a predicate.
-	 * 
-	 * @param bool
-	 *            the boolean flag.
-	 */
-	protected Atom(boolean bool) {
-		tokens.add(lit = bool ? "T" : "NIL");
-	}
-
-	/**
-	 * Constructs an atom from a primitive integer. The integer is just
-	 * converted to a string for its literal representation.
-	 * 
-	 * @param i
-	 */
-	protected Atom(int i) {
-		tokens.add(lit = Integer.toString(i));
-	}
+public abstract class Atom extends Node {
 
 	@Override
 	public boolean isList() {
-		return NodeFactory.FALSE.equals(this);
+		return this == NodeFactory.FALSE;
 	}
 
+	/**
+	 * Evaluates this atom. Atoms other than symbols evaluate to themselves.
+	 */
 	@Override
 	public Node eval() {
-		Environment env = Environment.getInstance();
-		if (env == null) {
-			throw new EnvironmentException(
-					"The node specified has no environment");
-		}
-		if (env.isDefinedV(lit)) {
-			return env.getVariableValue(lit);
-		}
 		return this;
 	}
 
@@ -89,42 +41,35 @@ public class Atom extends Node {
 	}
 
 	@Override
-	public Node eval(boolean literal, Map<String, Node> env) {
+	public Node eval(boolean literal, Map<Symbol, Node> env) {
 		return eval();
 	}
 
 	@Override
-	public Node eval(Map<String, Node> env) {
+	public Node eval(Map<Symbol, Node> env) {
 		return eval();
 	}
 
 	/**
-	 * Grabs the atomic literal. Removes positive redundance (arabic numbers can
-	 * be expressed without preceding '+' signs).
+	 * Grabs the interned identifier of this atom.
+	 * 
+	 * @return the Symbol, or null for numeric and string atoms.
 	 */
-	@Override
-	public String toString() {
-		if (Pat.ATOM_NUM.matches(lit)) {
-			return lit.replaceAll("\\A\\+", "");
-		}
-		return lit;
+	public Symbol getSymbol() {
+		return null;
 	}
 
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = super.hashCode();
-		result = prime * result + ((lit == null) ? 0 : lit.hashCode());
-		return result;
+	/**
+	 * Is this atom an integer literal?
+	 * 
+	 * @return true if this is a Fixnum.
+	 */
+	public boolean isNumeric() {
+		return false;
 	}
 
 	@Override
-	public boolean equals(Object obj) {
-		if (this == obj) return true;
-		if (!super.equals(obj)) return false;
-		if (getClass() != obj.getClass()) return false;
-		Atom other = (Atom) obj;
-		if (lit == null && other.lit != null) return false;
-		return lit.equals(other.lit);
+	protected List<String> tokens() {
+		return Collections.singletonList(toString());
 	}
 }
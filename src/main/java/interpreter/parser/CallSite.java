@@ -0,0 +1,26 @@
+/**
+ * CallSite.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import interpreter.parser.func.Function;
+
+/**
+ * The inline cache of the calls headed by a {@link SymbolAtom}: the function
+ * or the index of the primitive the head resolved to, which is valid while
+ * the definition version of the {@link Environment} is the one it was cached
+ * at. What a symbol calls depends on nothing but its name and the version, so
+ * an atom shared between several calls may share the cache too.
+ * <p>
+ * A cache is only made once its atom heads a call, so that cons cells, and
+ * atoms which are never called, carry no more than they did without it.
+ * 
+ * @author Anand
+ *
+ */
+final class CallSite {
+
+	Function target;
+	int primitive;
+	int stamp;
+}
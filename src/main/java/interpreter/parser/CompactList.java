@@ -0,0 +1,106 @@
+/**
+ * CompactList.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+/**
+ * A CDR-coded proper list. The elements of the list are kept in one array,
+ * and a CompactList is a view of the array from some offset onwards. The cdr
+ * of a CompactList is the view from the next offset, so taking the cdr does
+ * not copy any cells, and the n-th element of the list is found in constant
+ * time. A view keeps its address, length and hash in the fields of a cons
+ * cell, and adds only the two shared arrays, so the view made by a cdr is
+ * about the size of a cell and costs no more to make.
+ * <p>
+ * A CompactList is an S-Expression in every other respect: it prints, hashes
+ * and compares like the chain of cons cells with the same elements, and the
+ * structural hash of every suffix is computed once, when the list is built.
+ * Nodes are never modified, so consing onto a CompactList, or sharing one of
+ * its tails, simply makes ordinary cons cells which point into it.
+ * 
+ * @author Anand
+ *
+ */
+public final class CompactList extends SExpression {
+
+	private final Node[] elements;
+	private final int[] hashes;
+
+	/**
+	 * Creates a list of elements. The array is not copied, and must not be
+	 * modified afterwards.
+	 * 
+	 * @param elements
+	 *            at least one element.
+	 * @throws IllegalArgumentException
+	 *             if there are no elements.
+	 */
+	CompactList(Node[] elements) {
+		this(elements, suffixHashes(elements), 0);
+	}
+
+	private CompactList(Node[] elements, int[] hashes, int offset) {
+		super(elements[offset], elements.length - offset, hashes[offset]);
+		this.elements = elements;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Computes the structural hash of every suffix of the elements.
+	 */
+	private static int[] suffixHashes(Node[] elements) {
+		if (elements.length == 0) {
+			throw new IllegalArgumentException(
+					"A compact list needs at least one element");
+		}
+		int[] hashes = new int[elements.length];
+		int hash = NodeFactory.FALSE.hashCode();
+		for (int i = elements.length - 1; i >= 0; i--) {
+			hash = 31 * (31 + elements[i].hashCode()) + hash;
+			hashes[i] = hash;
+		}
+		return hashes;
+	}
+
+	/**
+	 * Grabs the offset of this view into the elements.
+	 */
+	private int offset() {
+		return elements.length - length();
+	}
+
+	/**
+	 * Grabs the rest of this list, as a view of the same elements.
+	 */
+	@Override
+	public Node getData() {
+		int next = offset() + 1;
+		if (next == elements.length) {
+			return NodeFactory.FALSE;
+		}
+		return new CompactList(elements, hashes, next);
+	}
+
+	@Override
+	public Node nth(int index) {
+		if (index < 0) {
+			throw new IndexOutOfBoundsException("Negative list index : "
+					+ index);
+		}
+		return index < length() ? elements[offset() + index]
+				: NodeFactory.FALSE;
+	}
+
+	/**
+	 * Compares views of the same elements by their lengths, which fix their
+	 * offsets, and anything else by structure.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof CompactList
+				&& ((CompactList) obj).elements == elements) {
+			return ((CompactList) obj).length() == length();
+		}
+		return super.equals(obj);
+	}
+}
@@ -0,0 +1,541 @@
+/**
+ * ConsHeap.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arena storage for cons cells, for programs which build very large lists. A
+ * cell is not an object of its own, but a slot in a few paged primitive
+ * arrays: its address and data as tagged pointers, and the length and hash
+ * which an {@link SExpression} would otherwise keep in fields. Primitives see
+ * a cell through a lightweight SExpression view, which is made whenever a
+ * pointer to it is read.
+ * <p>
+ * A tagged pointer is a long whose low two bits tell what it points to: a
+ * cell, a fixnum held in the pointer itself, an atom in the heap's table of
+ * atoms, or NIL. Fixnums which do not fit in the remaining bits, symbols and
+ * strings are kept in the atom table, as are {@link Aggregate}s, which may
+ * themselves hold views of cells.
+ * <p>
+ * The heap has its own copying collector, which compacts the cells which are
+ * reachable from a set of roots into fresh pages. Views which are reachable
+ * from the roots are moved along with their cells. Any other view is stale
+ * once its cell has been collected, and using it is an error, so the
+ * collector is only run between top-level statements, when nothing but the
+ * Environment and the statements still to be evaluated hold on to any data.
+ * 
+ * @author Anand
+ *
+ */
+public final class ConsHeap {
+
+	private static final int PAGE_BITS = 16;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private static final int TAG_BITS = 2;
+	private static final long TAG_MASK = (1 << TAG_BITS) - 1;
+	private static final long CONS = 0;
+	private static final long FIXNUM = 1;
+	private static final long ATOM = 2;
+	private static final long NIL = 3;
+
+	private static final long FIXNUM_MIN = Long.MIN_VALUE >> TAG_BITS;
+	private static final long FIXNUM_MAX = Long.MAX_VALUE >> TAG_BITS;
+
+	/**
+	 * The least number of cells allocated between two collections.
+	 */
+	private static final int MIN_GROWTH = 1 << 20;
+
+	private long[][] cars = new long[0][];
+	private long[][] cdrs = new long[0][];
+	private int[][] lengths = new int[0][];
+	private int[][] hashes = new int[0][];
+	private int size;
+
+	private final List<Node> atoms = new ArrayList<>();
+	private final Map<String, Integer> atomIds = new HashMap<>();
+
+	private int epoch;
+	private int live;
+
+	/**
+	 * Conses an address onto data in the heap. Lists which are not in the heap
+	 * yet are copied into it.
+	 * 
+	 * @param addr
+	 *            the address Node.
+	 * @param data
+	 *            the data Node.
+	 * @return a view of the new cell.
+	 */
+	public synchronized SExpression cons(Node addr, Node data) {
+		long car = encode(addr);
+		long cdr = encode(data);
+		return view(link(allocate(car), cdr));
+	}
+
+	/**
+	 * Starts a list which is built front to back, so that reading a long list
+	 * needs no more than an int per element on the side.
+	 * 
+	 * @return a new ListBuilder.
+	 */
+	public ListBuilder newList() {
+		return new ListBuilder();
+	}
+
+	/**
+	 * Grabs the number of cells allocated in the heap, live or not.
+	 * 
+	 * @return the cell count.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Have enough cells been allocated since the last collection to collect
+	 * again? That is, has the heap at least doubled, and grown by a million
+	 * cells?
+	 * 
+	 * @return true if a collection is due.
+	 */
+	public synchronized boolean isCollectionDue() {
+		return size - live >= Math.max(live, MIN_GROWTH);
+	}
+
+	/**
+	 * Compacts every cell which can be reached from the roots into fresh
+	 * pages, and drops the rest, along with any atoms only they referred to.
+	 * Views reachable from the roots are moved to the new cells.
+	 * 
+	 * @param roots
+	 *            every Node through which data may still be reached.
+	 */
+	public synchronized void collect(Iterable<? extends Node> roots) {
+		List<Cell> views = findViews(roots);
+
+		long[][] oldCars = cars, oldCdrs = cdrs;
+		int[][] oldLengths = lengths, oldHashes = hashes;
+		List<Node> oldAtoms = new ArrayList<>(atoms);
+		int[][] forward = new int[oldCars.length][];
+		int[] atomForward = new int[oldAtoms.size()];
+
+		cars = new long[0][];
+		cdrs = new long[0][];
+		lengths = new int[0][];
+		hashes = new int[0][];
+		size = 0;
+		atoms.clear();
+		atomIds.clear();
+
+		Evacuator evacuator = new Evacuator(oldCars, oldCdrs, oldLengths,
+				oldHashes, oldAtoms, forward, atomForward);
+		int[] moved = new int[views.size()];
+		for (int i = 0; i < moved.length; i++) {
+			moved[i] = (int) (evacuator.copy(pointer(views.get(i).cell))
+					>>> TAG_BITS);
+		}
+		int scan = 0, scanned = 0;
+		while (true) {
+			for (; scan < size; scan++) {
+				long[] carPage = cars[scan >>> PAGE_BITS];
+				long[] cdrPage = cdrs[scan >>> PAGE_BITS];
+				int slot = scan & PAGE_MASK;
+				carPage[slot] = evacuator.copy(carPage[slot]);
+				cdrPage[slot] = evacuator.copy(cdrPage[slot]);
+			}
+			if (scanned == evacuator.aggregates.size()) {
+				break;
+			}
+			// an aggregate which was copied along with the cells may hold
+			// views of cells which nothing else reaches
+			Aggregate aggregate = evacuator.aggregates.get(scanned++);
+			List<Cell> held = findViews(aggregate.nodes());
+			moved = Arrays.copyOf(moved, moved.length + held.size());
+			for (Cell view : held) {
+				moved[views.size()] = (int) (evacuator.copy(pointer(view.cell))
+						>>> TAG_BITS);
+				views.add(view);
+			}
+		}
+
+		epoch++;
+		for (int i = 0; i < moved.length; i++) {
+			views.get(i).cell = moved[i];
+			views.get(i).epoch = epoch;
+		}
+		live = size;
+	}
+
+	/**
+	 * Finds every view of this heap which is reachable from the roots,
+	 * looking through any S-Expressions and aggregates outside of the heap.
+	 */
+	private List<Cell> findViews(Iterable<? extends Node> roots) {
+		List<Cell> views = new ArrayList<>();
+		Deque<Node> pending = new ArrayDeque<>();
+		for (Node root : roots) {
+			if (root != null) {
+				pending.push(root);
+			}
+		}
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			if (node instanceof Cell) {
+				Cell view = (Cell) node;
+				if (view.heap() == this && view.epoch == epoch) {
+					views.add(view);
+				}
+			} else if (node instanceof SExpression) {
+				SExpression sexp = (SExpression) node;
+				pending.push(sexp.getAddr());
+				pending.push(sexp.getData());
+			} else if (node instanceof Aggregate) {
+				for (Node held : ((Aggregate) node).nodes()) {
+					pending.push(held);
+				}
+			}
+		}
+		return views;
+	}
+
+	/**
+	 * Turns a Node into a tagged pointer, copying S-Expressions from outside
+	 * of the heap into it.
+	 */
+	private long encode(Node node) {
+		if (node == NodeFactory.FALSE) {
+			return NIL;
+		} else if (node instanceof Fixnum) {
+			long value = ((Fixnum) node).longValue();
+			if (value >= FIXNUM_MIN && value <= FIXNUM_MAX) {
+				return (value << TAG_BITS) | FIXNUM;
+			}
+		} else if (node instanceof Cell && ((Cell) node).heap() == this) {
+			return pointer(((Cell) node).cell());
+		} else if (node instanceof SExpression) {
+			return encodeList((SExpression) node);
+		}
+		return atom(node);
+	}
+
+	/**
+	 * Copies a list from outside of the heap into it, walking its cdr chain
+	 * iteratively.
+	 */
+	private long encodeList(SExpression sexp) {
+		List<Integer> cells = new ArrayList<>();
+		Node node = sexp;
+		while (node instanceof SExpression
+				&& !(node instanceof Cell && ((Cell) node).heap() == this)) {
+			SExpression cell = (SExpression) node;
+			cells.add(allocate(encode(cell.getAddr())));
+			node = cell.getData();
+		}
+		long tail = encode(node);
+		for (int i = cells.size() - 1; i >= 0; i--) {
+			tail = pointer(link(cells.get(i), tail));
+		}
+		return tail;
+	}
+
+	/**
+	 * Grabs the tagged pointer of an atom in the atom table, adding the atom
+	 * if it is not there yet. Aggregates are added as they are, rather than
+	 * looked up by their printed form.
+	 */
+	private long atom(Node node) {
+		if (node instanceof Aggregate) {
+			atoms.add(node);
+			return ((long) (atoms.size() - 1) << TAG_BITS) | ATOM;
+		}
+		String key = node.toString();
+		Integer id = atomIds.get(key);
+		if (id == null) {
+			atomIds.put(key, id = atoms.size());
+			atoms.add(node);
+		}
+		return ((long) id << TAG_BITS) | ATOM;
+	}
+
+	/**
+	 * Turns a tagged pointer back into a Node.
+	 */
+	private Node decode(long pointer) {
+		switch ((int) (pointer & TAG_MASK)) {
+		case (int) CONS:
+			return view((int) (pointer >>> TAG_BITS));
+		case (int) FIXNUM:
+			return Fixnum.valueOf(pointer >> TAG_BITS);
+		case (int) ATOM:
+			return atoms.get((int) (pointer >>> TAG_BITS));
+		default:
+			return NodeFactory.FALSE;
+		}
+	}
+
+	private Cell view(int cell) {
+		return new Cell(this, cell, epoch);
+	}
+
+	private static long pointer(int cell) {
+		return ((long) cell << TAG_BITS) | CONS;
+	}
+
+	/**
+	 * Allocates a cell with the given address. Its data is set by
+	 * {@link #link(int, long)}.
+	 */
+	private int allocate(long car) {
+		int cell = size;
+		int page = cell >>> PAGE_BITS;
+		if (page == cars.length) {
+			cars = Arrays.copyOf(cars, page + 1);
+			cdrs = Arrays.copyOf(cdrs, page + 1);
+			lengths = Arrays.copyOf(lengths, page + 1);
+			hashes = Arrays.copyOf(hashes, page + 1);
+			cars[page] = new long[PAGE_SIZE];
+			cdrs[page] = new long[PAGE_SIZE];
+			lengths[page] = new int[PAGE_SIZE];
+			hashes[page] = new int[PAGE_SIZE];
+		}
+		cars[page][cell & PAGE_MASK] = car;
+		size++;
+		return cell;
+	}
+
+	/**
+	 * Sets the data of a cell, and with it the length and hash of the cell.
+	 * 
+	 * @return the cell.
+	 */
+	private int link(int cell, long cdr) {
+		int page = cell >>> PAGE_BITS, slot = cell & PAGE_MASK;
+		cdrs[page][slot] = cdr;
+
+		int length = -1;
+		if (cdr == NIL) {
+			length = 1;
+		} else if ((cdr & TAG_MASK) == CONS) {
+			int rest = (int) (cdr >>> TAG_BITS);
+			int restLength = lengths[rest >>> PAGE_BITS][rest & PAGE_MASK];
+			length = restLength < 0 ? -1 : restLength + 1;
+		}
+		lengths[page][slot] = length;
+		hashes[page][slot] = 31 * (31 + hash(cars[page][slot])) + hash(cdr);
+		return cell;
+	}
+
+	/**
+	 * Grabs the hash of the Node a pointer points to, as that Node's own
+	 * hashCode would.
+	 */
+	private int hash(long pointer) {
+		switch ((int) (pointer & TAG_MASK)) {
+		case (int) CONS:
+			int cell = (int) (pointer >>> TAG_BITS);
+			return hashes[cell >>> PAGE_BITS][cell & PAGE_MASK];
+		case (int) FIXNUM:
+			long value = pointer >> TAG_BITS;
+			return (int) (value ^ (value >>> 32));
+		case (int) ATOM:
+			return atoms.get((int) (pointer >>> TAG_BITS)).hashCode();
+		default:
+			return NodeFactory.FALSE.hashCode();
+		}
+	}
+
+	/**
+	 * Builds a list in the heap from its first element to its last.
+	 */
+	public final class ListBuilder {
+
+		private int[] cells = new int[16];
+		private int count;
+
+		private ListBuilder() {
+		}
+
+		/**
+		 * Appends an element to the list.
+		 * 
+		 * @param element
+		 *            the next element.
+		 */
+		public void add(Node element) {
+			synchronized (ConsHeap.this) {
+				if (count == cells.length) {
+					cells = Arrays.copyOf(cells, count * 2);
+				}
+				cells[count++] = allocate(encode(element));
+			}
+		}
+
+		/**
+		 * Ends the list.
+		 * 
+		 * @param tail
+		 *            the data of the last cell, NIL for a proper list.
+		 * @return the list, or the tail if no element was added.
+		 */
+		public Node build(Node tail) {
+			synchronized (ConsHeap.this) {
+				long node = encode(tail);
+				for (int i = count - 1; i >= 0; i--) {
+					node = pointer(link(cells[i], node));
+				}
+				return decode(node);
+			}
+		}
+	}
+
+	/**
+	 * Copies cells and atoms out of the old pages during a collection. A cell
+	 * which has been copied records its new index, plus one, in its forward
+	 * slot.
+	 */
+	private final class Evacuator {
+
+		private final long[][] oldCars, oldCdrs;
+		private final int[][] oldLengths, oldHashes;
+		private final List<Node> oldAtoms;
+		private final int[][] forward;
+		private final int[] atomForward;
+		private final List<Aggregate> aggregates = new ArrayList<>();
+
+		Evacuator(long[][] oldCars, long[][] oldCdrs, int[][] oldLengths,
+				int[][] oldHashes, List<Node> oldAtoms, int[][] forward,
+				int[] atomForward) {
+			this.oldCars = oldCars;
+			this.oldCdrs = oldCdrs;
+			this.oldLengths = oldLengths;
+			this.oldHashes = oldHashes;
+			this.oldAtoms = oldAtoms;
+			this.forward = forward;
+			this.atomForward = atomForward;
+		}
+
+		/**
+		 * Grabs the new pointer for an old one, copying the cell or atom it
+		 * points to if that has not been done yet. The address and data of a
+		 * copied cell still hold old pointers until the cell is scanned.
+		 */
+		long copy(long pointer) {
+			long tag = pointer & TAG_MASK;
+			if (tag == ATOM) {
+				int old = (int) (pointer >>> TAG_BITS);
+				if (atomForward[old] == 0) {
+					Node atom = oldAtoms.get(old);
+					atomForward[old] = (int) (atom(atom) >>> TAG_BITS) + 1;
+					if (atom instanceof Aggregate) {
+						aggregates.add((Aggregate) atom);
+					}
+				}
+				return ((long) (atomForward[old] - 1) << TAG_BITS) | ATOM;
+			} else if (tag != CONS) {
+				return pointer;
+			}
+
+			int old = (int) (pointer >>> TAG_BITS);
+			int page = old >>> PAGE_BITS, slot = old & PAGE_MASK;
+			if (forward[page] == null) {
+				forward[page] = new int[PAGE_SIZE];
+			}
+			if (forward[page][slot] == 0) {
+				int cell = allocate(oldCars[page][slot]);
+				int newPage = cell >>> PAGE_BITS, newSlot = cell & PAGE_MASK;
+				cdrs[newPage][newSlot] = oldCdrs[page][slot];
+				lengths[newPage][newSlot] = oldLengths[page][slot];
+				hashes[newPage][newSlot] = oldHashes[page][slot];
+				forward[page][slot] = cell + 1;
+			}
+			return pointer(forward[page][slot] - 1);
+		}
+	}
+
+	/**
+	 * A view of a cell in the heap, as an S-Expression. Views are cheap, and
+	 * made whenever a cell is reached; two views of the same cell are equal.
+	 * <p>
+	 * Views read the heap without locking it. Several threads only build on
+	 * a heap while a program is parsed, and the parsed program is handed to
+	 * the evaluating thread afterwards.
+	 */
+	private static final class Cell extends SExpression {
+
+		private final ConsHeap heap;
+		private int cell;
+		private int epoch;
+
+		Cell(ConsHeap heap, int cell, int epoch) {
+			this.heap = heap;
+			this.cell = cell;
+			this.epoch = epoch;
+		}
+
+		ConsHeap heap() {
+			return heap;
+		}
+
+		/**
+		 * Grabs the index of the cell, which must not have been collected.
+		 * 
+		 * @throws IllegalStateException
+		 *             if the heap has been collected since this view was
+		 *             made, and the view was not reachable from the roots.
+		 */
+		int cell() {
+			if (epoch != heap.epoch) {
+				throw new IllegalStateException(
+						"The cons cell of this view has been collected");
+			}
+			return cell;
+		}
+
+		@Override
+		public Node getAddr() {
+			int index = cell();
+			return heap.decode(heap.cars[index >>> PAGE_BITS][index
+					& PAGE_MASK]);
+		}
+
+		@Override
+		public Node getData() {
+			int index = cell();
+			return heap.decode(heap.cdrs[index >>> PAGE_BITS][index
+					& PAGE_MASK]);
+		}
+
+		@Override
+		public int length() {
+			int index = cell();
+			return heap.lengths[index >>> PAGE_BITS][index & PAGE_MASK];
+		}
+
+		@Override
+		public int hashCode() {
+			int index = cell();
+			return heap.hashes[index >>> PAGE_BITS][index & PAGE_MASK];
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Cell && ((Cell) obj).heap == heap
+					&& ((Cell) obj).cell() == cell()) {
+				return true;
+			}
+			return super.equals(obj);
+		}
+	}
+}
@@ -5,29 +5,56 @@ package interpreter.parser;
 
 import interpreter.exception.EnvironmentException;
 import interpreter.exception.FuncDefException;
+import interpreter.parser.compile.Jit;
 import interpreter.parser.func.ClosureState;
 import interpreter.parser.func.Function;
 import interpreter.parser.prim.PrimitiveHandler;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Contains the working 'd-list' of the lisp program. Manages function/var
  * binding within the program context.
+ * <p>
+ * Functions and variables are keyed by interned {@link Symbol}s, and are stored
+ * in arrays indexed by symbol id, so that a lookup never hashes a String.
+ * Anonymous functions are keyed by their interned parameter list, and are
+ * referred to by a dense lambda id once registered.
+ * <p>
+ * Each function call pushes a {@link Frame}, which binds its parameters and
+ * keeps the values they shadowed, and pops it on return. A call costs time in
+ * the number of parameters, however many variables are bound. A call in tail
+ * position reuses the frame of its caller instead of pushing another.
+ * <p>
+ * The environment keeps a definition version, which changes whenever the
+ * target of a call by name may change: when a function is defined, and when
+ * a variable which names a function or a primitive is bound or unbound. Call
+ * sites which cache their target are valid as long as the version is the one
+ * they cached it at.
  * 
  * @author Anand
  *
  */
 public class Environment {
 
-    private Map<String, Function> functions = new HashMap<>();
-    private Map<Node, Function> lambdas = new HashMap<>();
-    private Map<String, Node> variables = new HashMap<>();
+    private Function[] functions = new Function[Symbol.count()];
+    private Node[] variables = new Node[Symbol.count()];
+    private Function[] lambdas = new Function[16];
+    private Map<List<Symbol>, Integer> lambdaIds = new HashMap<>();
 
     private PrimitiveHandler handler;
 
+    // the frame of the innermost function call, or null at the top level.
+    private Frame frame;
+
+    // bumped whenever a call by name may resolve to a different target.
+    private int version = 1;
+
     private static Environment instance;
 
     /**
@@ -65,21 +92,32 @@ public class Environment {
      * @throws EnvironmentException
      *             if the given function name has not been defined.
      */
-    public Node execFunc(String name, Node args) {
+    public Node execFunc(Symbol name, Node args) {
         if (!isDefinedF(name)) {
             throw new EnvironmentException("The function " + name
                     + " is undefined.");
         }
-        return functions.get(name).eval(args);
+        return functions[name.getId()].eval(args);
     }
 
-    public Node execLamb(Node args, Node body) {
-        return lambdas.get(args).eval(body);
+    /**
+     * Executes a registered anonymous function with the given arguments.
+     * 
+     * @param id
+     *            the lambda id handed out on registration.
+     * @param args
+     *            the Node parameter arguments
+     * @return the Node evaluation
+     * @see #registerAnon(Node, Node)
+     */
+    public Node execLamb(int id, Node args) {
+        return lambdas[id].eval(args);
     }
 
     /**
      * Registers a function in the 'd-list' table. If the given name is
-     * 'lambda', an anonymous function is registered.
+     * 'lambda', an anonymous function is registered. Compiled callers of a
+     * previous definition are unlinked from it.
      * 
      * @param name
      *            the identifier tag of the function.
@@ -88,35 +126,51 @@ public class Environment {
      * @param body
      *            the literal or sexp function body.
      */
-    public void registerFunc(String name, Node args, Node body) {
-        if (name.toLowerCase().matches("lambda|λ")) {
+    public void registerFunc(Symbol name, Node args, Node body) {
+        if (name == Symbol.LAMBDA || name == Symbol.LAMBDA_SIGN) {
             throw new FuncDefException(
                     "Use the anonymous function registration to register a lambda expression.");
         }
-        functions.put(name, new Function(name, args, body));
+        functions = ensureCapacity(functions, name.getId());
+        functions[name.getId()] = new Function(name.getName(), args, body);
+        version++;
+        Jit.invalidate(name);
     }
 
     /**
-     * Registers a function in the anonymous table.
+     * Registers a function in the anonymous table. A lambda replaces any
+     * previous lambda with the same parameter list, and its id is handed to
+     * the ClosureState for the upcoming call.
      * 
      * @param args
      *            the formal arguments of the function.
      * @param body
      *            the literal or sexp function body.
+     * @return the lambda id.
      */
-    public void registerAnon(Node args, Node body) {
-        lambdas.put(args, new Function("lambda", args, body));
-        ClosureState.getInstance().setNextNode(args);
+    public int registerAnon(Node args, Node body) {
+        Function lambda = new Function(Symbol.LAMBDA.getName(), args, body);
+        Integer id = lambdaIds.get(lambda.getParams());
+        if (id == null) {
+            id = lambdaIds.size();
+            lambdaIds.put(lambda.getParams(), id);
+            lambdas = ensureCapacity(lambdas, id);
+        }
+        lambdas[id] = lambda;
+        ClosureState.getInstance().setNextLambda(id);
+        return id;
     }
 
     /**
      * Merges in new variable bindings into the working environment.
      * 
      * @param table
-     *            a hashtable of var bindings (String -> Node).
+     *            a hashtable of var bindings (Symbol -> Node).
      */
-    public Map<String, Node> substitute(Map<String, Node> table) {
-        variables.putAll(table);
+    public Node[] substitute(Map<Symbol, Node> table) {
+        for (Map.Entry<Symbol, Node> binding : table.entrySet()) {
+            rebind(binding.getKey(), binding.getValue());
+        }
         return getVariables();
     }
 
@@ -128,12 +182,12 @@ public class Environment {
      * @throws EnvironmentException
      *             if the variable is undefined.
      */
-    public void unbind(String name) {
+    public void unbind(Symbol name) {
         if (!isDefinedV(name)) {
             throw new EnvironmentException("The variable " + name
                     + " is undefined.");
         }
-        variables.remove(name);
+        rebind(name, null);
     }
 
     /**
@@ -145,12 +199,120 @@ public class Environment {
      * @throws EnvironmentException
      *             if any variable is undefined.
      */
-    public void unbindMulti(Set<String> names) {
-        for (String name : names) {
+    public void unbindMulti(Set<Symbol> names) {
+        for (Symbol name : names) {
             unbind(name);
         }
     }
 
+    /**
+     * Grabs a defined function.
+     * 
+     * @param name
+     *            the name of the function.
+     * @return the Function, or null if it is undefined.
+     */
+    public Function getFunction(Symbol name) {
+        return isDefinedF(name) ? functions[name.getId()] : null;
+    }
+
+    /**
+     * Binds a single variable, without touching any other binding.
+     * 
+     * @param name
+     *            the variable name.
+     * @param value
+     *            the new value, or null to unbind the variable.
+     * @return the previous value, or null if the variable was unbound.
+     */
+    public Node rebind(Symbol name, Node value) {
+        variables = ensureCapacity(variables, name.getId());
+        Node previous = variables[name.getId()];
+        variables[name.getId()] = value;
+        if ((previous == null) != (value == null)
+                && (isDefinedF(name) || handler.isRegistered(name))) {
+            // a variable shadows the function of the same name.
+            version++;
+        }
+        return previous;
+    }
+
+    /**
+     * Pushes a frame for a function call, binding each parameter to its
+     * value.
+     * 
+     * @param params
+     *            the interned parameters.
+     * @param values
+     *            the value of each parameter, in order, which may be null to
+     *            leave a parameter unbound.
+     * @return the new Frame.
+     */
+    public Frame push(List<Symbol> params, Node[] values) {
+        Node[] shadowed = new Node[values.length];
+        for (int i = 0; i < values.length; i++) {
+            shadowed[i] = rebind(params.get(i), values[i]);
+        }
+        return frame = new Frame(params, values, shadowed, frame);
+    }
+
+    /**
+     * Reuses the innermost frame for a call in tail position, binding each
+     * parameter of the callee to its value. Parameters the frame has not
+     * bound yet are added to it, so that popping the frame still restores
+     * every variable, and the variables of the caller which the callee does
+     * not rebind stay visible to it.
+     * 
+     * @param params
+     *            the interned parameters of the callee.
+     * @param values
+     *            the value of each parameter, in order.
+     * @return the reused Frame.
+     * @throws EnvironmentException
+     *             if no frame is pushed.
+     */
+    public Frame replace(List<Symbol> params, Node[] values) {
+        if (frame == null) {
+            throw new EnvironmentException("No frame to replace.");
+        }
+        for (int i = 0; i < values.length; i++) {
+            Node previous = rebind(params.get(i), values[i]);
+            if (params != frame.getBound()) {
+                frame.keep(params.get(i), previous);
+            }
+        }
+        frame.reuse(params, values);
+        return frame;
+    }
+
+    /**
+     * Pops the innermost frame, restoring the values its variables
+     * shadowed.
+     * 
+     * @throws EnvironmentException
+     *             if no frame is pushed.
+     */
+    public void pop() {
+        if (frame == null) {
+            throw new EnvironmentException("No frame to pop.");
+        }
+        List<Symbol> bound = frame.getBound();
+        Node[] shadowed = frame.getShadowed();
+        for (int i = shadowed.length - 1; i >= 0; i--) {
+            rebind(bound.get(i), shadowed[i]);
+        }
+        frame = frame.getParent();
+    }
+
+    /**
+     * Grabs the frame of the innermost function call.
+     * 
+     * @return the Frame, or null at the top level.
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
     /**
      * Is the given function name defined?
      * 
@@ -158,8 +320,9 @@ public class Environment {
      *            the name of the function.
      * @return true if the function name is in the hashtable, false otherwise.
      */
-    public boolean isDefinedF(String name) {
-        return functions.containsKey(name);
+    public boolean isDefinedF(Symbol name) {
+        return name.getId() < functions.length
+                && functions[name.getId()] != null;
     }
 
     /**
@@ -167,10 +330,11 @@ public class Environment {
      * 
      * @param name
      *            the name of the variable.
-     * @return true if the variable name is in the hashtable, false otherwise.
+     * @return true if the variable name is in the table, false otherwise.
      */
-    public boolean isDefinedV(String name) {
-        return variables.containsKey(name);
+    public boolean isDefinedV(Symbol name) {
+        return name.getId() < variables.length
+                && variables[name.getId()] != null;
     }
 
     /**
@@ -181,37 +345,70 @@ public class Environment {
      * @return the Node value, if the variable was found.
      * @throws EnvironmentException
      *             if the variable was not defined.
-     * @see #isDefinedV(String)
+     * @see #isDefinedV(Symbol)
      */
-    public Node getVariableValue(String name) {
+    public Node getVariableValue(Symbol name) {
         if (!isDefinedV(name)) {
             throw new EnvironmentException("The variable " + name
                     + " is undefined.");
         }
-        return variables.get(name);
+        return variables[name.getId()];
     }
 
     /**
      * Grabs a copy table of the working variables, to avoid corruption
      * 
-     * @return a table of String -> Node.
+     * @return a table of symbol id -> Node.
      */
-    public Map<String, Node> getVariables() {
-        return new HashMap<String, Node>(variables);
+    public Node[] getVariables() {
+        return Arrays.copyOf(variables, variables.length);
     }
 
-    public Map<Node, Function> getLambdas() {
-        return new HashMap<>(lambdas);
+    /**
+     * Grabs every Node the environment holds on to: the values of bound
+     * variables, and the bodies of defined and anonymous functions, along
+     * with the Nodes their compiled bodies and the bytecode of the Jit refer
+     * to.
+     * 
+     * @return a List of Nodes, which may contain nulls.
+     * @see Function#addLiveNodes(List)
+     * @see Jit#addLiveNodes(List)
+     */
+    public List<Node> getLiveNodes() {
+        List<Node> nodes = new ArrayList<>(Arrays.asList(variables));
+        for (Function function : functions) {
+            if (function != null) {
+                function.addLiveNodes(nodes);
+            }
+        }
+        for (Function lambda : lambdas) {
+            if (lambda != null) {
+                lambda.addLiveNodes(nodes);
+            }
+        }
+        Jit.addLiveNodes(nodes);
+        return nodes;
     }
 
     /**
-     * Sets the variables to the given String -> Node Hashtable.
+     * Sets the variables to the given symbol id -> Node table.
      * 
      * @param values
-     *            a valid Hashtable (String -> Node).
+     *            a valid table (symbol id -> Node).
      */
-    public void setVariables(Map<String, Node> values) {
-        variables = new HashMap<>(values);
+    public void setVariables(Node[] values) {
+        variables = Arrays.copyOf(values, values.length);
+        version++;
+    }
+
+    /**
+     * Grabs the definition version, which changes whenever a call by name
+     * may resolve to a different function or primitive.
+     * 
+     * @return the version.
+     */
+    public int getVersion() {
+        return version;
     }
 
     /**
@@ -223,9 +420,9 @@ public class Environment {
      * @param formals
      *            the Node argument, null for a boolean function
      * @return the Node constructed by invoking the primitive function
-     * @see PrimitiveHandler#callFunc(String, Object...)
+     * @see PrimitiveHandler#callFunc(Symbol, Object...)
      */
-    public Node invokePrim(String name, Node formals) {
+    public Node invokePrim(Symbol name, Node formals) {
         return handler.callFunc(name, formals);
     }
 
@@ -237,4 +434,14 @@ public class Environment {
     public PrimitiveHandler getHandler() {
         return handler;
     }
+
+    /**
+     * Grows a symbol indexed table so that it can hold the given id.
+     */
+    private static <T> T[] ensureCapacity(T[] table, int id) {
+        if (id < table.length) {
+            return table;
+        }
+        return Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+    }
 }
@@ -0,0 +1,81 @@
+/**
+ * Fixnum.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+/**
+ * An integer atom, which holds its value as a primitive long. Literals are
+ * parsed into a Fixnum once, when they are read, so arithmetic never has to
+ * parse text.
+ * <p>
+ * Small values are cached, so that the results of most loop counters and
+ * comparisons do not allocate.
+ * 
+ * @author Anand
+ *
+ */
+public final class Fixnum extends Atom {
+
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final Fixnum[] CACHE = new Fixnum[CACHE_HIGH - CACHE_LOW
+			+ 1];
+
+	static {
+		for (int i = 0; i < CACHE.length; i++) {
+			CACHE[i] = new Fixnum(i + CACHE_LOW);
+		}
+	}
+
+	private final long value;
+
+	private Fixnum(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * Grabs the Fixnum for a value, sharing the cached instance for small
+	 * values.
+	 * 
+	 * @param value
+	 *            the integer value.
+	 * @return a Fixnum.
+	 */
+	public static Fixnum valueOf(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return CACHE[(int) value - CACHE_LOW];
+		}
+		return new Fixnum(value);
+	}
+
+	/**
+	 * Grabs the value of this atom.
+	 * 
+	 * @return the primitive value.
+	 */
+	public long longValue() {
+		return value;
+	}
+
+	@Override
+	public boolean isNumeric() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(value);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (value ^ (value >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof Fixnum)) return false;
+		return value == ((Fixnum) obj).value;
+	}
+}
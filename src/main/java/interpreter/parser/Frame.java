@@ -0,0 +1,103 @@
+/**
+ * Frame.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The bindings of one function call. A frame holds the value of each
+ * parameter in an array, in the order of the parameters, so that compiled
+ * code can load a parameter by its slot rather than by its name. It also
+ * keeps the values the parameters shadowed, which are restored when the
+ * frame is popped, and the frame of the caller.
+ * <p>
+ * Variables remain dynamically scoped: while a frame is pushed, its
+ * parameters are also bound by name in the {@link Environment}, where the
+ * functions it calls may read them. A call in tail position reuses the frame
+ * of its caller, which then also binds the parameters of the callee, so the
+ * variables a frame restores may outnumber the parameters of its function.
+ * 
+ * @author Anand
+ *
+ */
+public final class Frame {
+
+    private List<Symbol> params;
+    private Node[] values;
+
+    // every variable the frame has bound, and the value each one shadowed.
+    private List<Symbol> bound;
+    private Node[] shadowed;
+
+    private final Frame parent;
+
+    Frame(List<Symbol> params, Node[] values, Node[] shadowed, Frame parent) {
+        this.params = params;
+        this.values = values;
+        this.bound = params;
+        this.shadowed = shadowed;
+        this.parent = parent;
+    }
+
+    /**
+     * Grabs the value of a parameter.
+     *
+     * @param slot
+     *            the index of the parameter.
+     * @return the value, or null if the parameter is unbound.
+     */
+    public Node get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Grabs the parameters bound by this frame.
+     *
+     * @return the interned parameters, in order.
+     */
+    public List<Symbol> getParams() {
+        return params;
+    }
+
+    /**
+     * Grabs the frame of the caller.
+     *
+     * @return the parent frame, or null at the top level.
+     */
+    public Frame getParent() {
+        return parent;
+    }
+
+    List<Symbol> getBound() {
+        return bound;
+    }
+
+    Node[] getShadowed() {
+        return shadowed;
+    }
+
+    /**
+     * Records the value a variable shadowed when it was bound by a call in
+     * tail position, unless the frame already restores the variable.
+     */
+    void keep(Symbol name, Node previous) {
+        if (bound.contains(name)) {
+            return;
+        }
+        bound = new ArrayList<>(bound);
+        bound.add(name);
+        shadowed = Arrays.copyOf(shadowed, shadowed.length + 1);
+        shadowed[shadowed.length - 1] = previous;
+    }
+
+    /**
+     * Hands the frame over to the function called in tail position.
+     */
+    void reuse(List<Symbol> params, Node[] values) {
+        this.params = params;
+        this.values = values;
+    }
+}
@@ -5,7 +5,6 @@ package interpreter.parser;
 
 import interpreter.exception.EnvironmentException;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -22,7 +21,7 @@ import java.util.Objects;
  */
 public abstract class Node {
 
-    protected List<String> tokens = new ArrayList<>();
+    protected List<String> tokens;
 
     /**
      * Determines whether this node is part of a list of expressions to be
@@ -59,7 +58,7 @@ public abstract class Node {
      *            a scoped variable environment.
      * @return the evaluation of this Node.
      */
-    public abstract Node eval(boolean literal, Map<String, Node> env);
+    public abstract Node eval(boolean literal, Map<Symbol, Node> env);
 
     /**
      * Evaluates this node.
@@ -68,11 +67,20 @@ public abstract class Node {
      *            a scoped variable enivornment.
      * @return the evaluation of this Node.
      */
-    public abstract Node eval(Map<String, Node> env);
+    public abstract Node eval(Map<Symbol, Node> env);
+
+    /**
+     * Grabs the tokens which make up this node, in dot notation.
+     * 
+     * @return a List of tokens.
+     */
+    protected List<String> tokens() {
+        return tokens;
+    }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tokens);
+        return Objects.hash(tokens());
     }
 
     @Override
@@ -81,9 +89,9 @@ public abstract class Node {
         if (obj == null) return false;
         if (getClass() != obj.getClass()) return false;
         Node other = (Node) obj;
-        if (tokens == null && other.tokens != null) {
+        if (tokens() == null && other.tokens() != null) {
             return false;
         }
-        return tokens.equals(other.tokens);
+        return tokens().equals(other.tokens());
     }
 }
@@ -6,18 +6,41 @@ package interpreter.parser;
 import interpreter.exception.NodeInitException;
 import interpreter.util.Pat;
 
+import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Factory delegation for Nodes.
+ * <p>
+ * The factory may hash-cons the Nodes it makes. In that mode, every atom and
+ * cons it hands out is looked up in a weak table of canonical Nodes first, so
+ * that structurally equal data shares one instance, and comparing such data
+ * is a pointer comparison. Canonical Nodes which are no longer referenced
+ * anywhere else are dropped from the table by the garbage collector.
+ * <p>
+ * The factory may instead make its conses in a {@link ConsHeap}, for programs
+ * whose data is too large to keep as one object per cell. Conses are not
+ * hash-consed while a heap is in use.
+ * <p>
+ * Proper lists whose elements are all known at once are made as a
+ * {@link CompactList}, unless a heap is in use.
  * 
  * @author Anand
  *
  */
 public class NodeFactory {
 
-	public static final Node FALSE = makeNode(false);
-	public static final Node TRUE = makeNode(true);
+	private static final Map<Node, WeakReference<Node>> CANONICAL =
+			new WeakHashMap<>();
+	private static volatile boolean hashConsing = false;
+	private static volatile ConsHeap heap = null;
+
+	public static final Node FALSE = new SymbolAtom(Symbol.NIL.getName(),
+			Symbol.NIL);
+	public static final Node TRUE = new SymbolAtom(Symbol.T.getName(),
+			Symbol.T);
 	public static final Node LAMBDA = makeNode("lambda");
 
 	/**
@@ -33,9 +56,9 @@ public class NodeFactory {
 		if (list.size() > 0) {
 			String first = list.get(0);
 			if (Pat.PAREN_OPEN.matches(first)) {
-				return new SExpression(list);
+				return canonical(new SExpression(list));
 			} else {
-				return new Atom(first);
+				return makeNode(first);
 			}
 		}
 		throw new NodeInitException("Attempted to create a dataless Node");
@@ -46,10 +69,10 @@ public class NodeFactory {
 	 * 
 	 * @param bool
 	 *            the boolean literal.
-	 * @return a new Atom
+	 * @return the canonical T or NIL atom.
 	 */
 	public static Node makeNode(boolean bool) {
-		return new Atom(bool);
+		return bool ? TRUE : FALSE;
 	}
 
 	/**
@@ -76,21 +99,161 @@ public class NodeFactory {
 	 * Adapts the factory pattern appropriately to create an integer atom.
 	 * 
 	 * @param i
-	 *            the integer literal.
-	 * @return a new Atom
+	 *            the integer value.
+	 * @return a Fixnum, shared for small values.
 	 */
-	public static Node makeNode(int i) {
-		return new Atom(i);
+	public static Node makeNode(long i) {
+		return canonical(Fixnum.valueOf(i));
 	}
 
 	/**
-	 * Adapts the factory pattern appropriately to create a String atom.
+	 * Adapts the factory pattern appropriately to create a cons.
 	 * 
-	 * @param i
-	 *            the String literal.
+	 * @param addr
+	 *            the address Node.
+	 * @param data
+	 *            the data Node.
+	 * @return a new S-Expression, which is a view of a heap cell when a heap
+	 *         is in use, or the canonical S-Expression when hash-consing.
+	 */
+	public static Node makeNode(Node addr, Node data) {
+		ConsHeap consHeap = heap;
+		if (consHeap != null) {
+			return consHeap.cons(addr, data);
+		}
+		return canonical(new SExpression(addr, data));
+	}
+
+	/**
+	 * Adapts the factory pattern appropriately to create a whole list at
+	 * once. The array is not copied, and must not be modified afterwards.
+	 * 
+	 * @param elements
+	 *            the elements of the list, in order.
+	 * @param tail
+	 *            the data of the last cell, NIL for a proper list.
+	 * @return a CompactList for a proper list outside of a heap, otherwise a
+	 *         chain of conses, or the tail if there are no elements.
+	 */
+	public static Node makeList(Node[] elements, Node tail) {
+		ConsHeap consHeap = heap;
+		if (elements.length == 0) {
+			return tail;
+		} else if (consHeap != null) {
+			ConsHeap.ListBuilder builder = consHeap.newList();
+			for (Node element : elements) {
+				builder.add(element);
+			}
+			return builder.build(tail);
+		} else if (tail == FALSE) {
+			return canonical(new CompactList(elements));
+		}
+		Node list = tail;
+		for (int i = elements.length - 1; i >= 0; i--) {
+			list = makeNode(elements[i], list);
+		}
+		return list;
+	}
+
+	/**
+	 * Adapts the factory pattern appropriately to create an atom from its
+	 * literal. The kind of the atom is decided here, once: integer literals
+	 * are parsed into a Fixnum, double quoted literals become a StringAtom,
+	 * and anything else is interned as a SymbolAtom. Any spelling of T or NIL
+	 * yields the canonical atom.
+	 * 
+	 * @param str
+	 *            the literal.
 	 * @return a new Atom
+	 * @throws NodeInitException
+	 *             if the literal is not a well-formed atom.
 	 */
 	public static Node makeNode(String str) {
-		return new Atom(str);
+		if (str.isEmpty()) {
+			throw new NodeInitException("Invalid atom specified");
+		}
+		if (str.charAt(0) == '"' && str.charAt(str.length() - 1) == '"') {
+			return canonical(new StringAtom(str));
+		}
+		if (Pat.ATOM_NUM.matches(str)) {
+			try {
+				return makeNode(Long.parseLong(str));
+			}
+			catch (NumberFormatException e) {
+				throw new NodeInitException("Integer literal out of range : "
+						+ str);
+			}
+		}
+		if (!(Pat.LITERAL.matches(str) || Pat.SYMBOL.matches(str)
+				|| Pat.RELATIONAL_OP.matches(str))) {
+			throw new NodeInitException("Invalid atom specified");
+		}
+		Symbol symbol = Symbol.intern(str);
+		if (symbol == Symbol.T) {
+			return TRUE;
+		} else if (symbol == Symbol.NIL) {
+			return FALSE;
+		}
+		return canonical(new SymbolAtom(str, symbol));
+	}
+
+	/**
+	 * Turns hash-consing on or off. Nodes made while it was off are left as
+	 * they are.
+	 * 
+	 * @param enabled
+	 *            whether Nodes should be hash-consed from now on.
+	 */
+	public static void setHashConsing(boolean enabled) {
+		hashConsing = enabled;
+	}
+
+	/**
+	 * Sets the heap which conses are made in from now on.
+	 * 
+	 * @param consHeap
+	 *            a ConsHeap, or null to make conses as plain objects.
+	 */
+	public static void setHeap(ConsHeap consHeap) {
+		heap = consHeap;
+	}
+
+	/**
+	 * Grabs the heap which conses are made in.
+	 * 
+	 * @return the ConsHeap, or null if conses are plain objects.
+	 */
+	public static ConsHeap getHeap() {
+		return heap;
+	}
+
+	/**
+	 * Is the factory hash-consing the Nodes it makes?
+	 * 
+	 * @return true if hash-consing is on.
+	 */
+	public static boolean isHashConsing() {
+		return hashConsing;
+	}
+
+	/**
+	 * Grabs the canonical instance of a Node when hash-consing, registering
+	 * the Node as canonical if no equal Node is yet. Nodes are hashed once
+	 * when they are built, and the children of a canonical cons are canonical
+	 * themselves, so a lookup takes constant time.
+	 */
+	private static Node canonical(Node node) {
+		if (!hashConsing) {
+			return node;
+		}
+		synchronized (CANONICAL) {
+			WeakReference<Node> ref = CANONICAL.get(node);
+			Node existing = ref == null ? null : ref.get();
+			if (existing != null) {
+				return existing;
+			}
+			CANONICAL.put(node, new WeakReference<>(node));
+			return node;
+		}
 	}
 }
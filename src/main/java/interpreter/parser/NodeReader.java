@@ -0,0 +1,269 @@
+/**
+ * NodeReader.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import interpreter.exception.NodeInitException;
+import interpreter.lexer.Token;
+import interpreter.lexer.TokenBuffer;
+import interpreter.lexer.TokenStream;
+import interpreter.lexer.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive-descent reader which builds the Node of a statement in a single
+ * pass over its tokens. Lists are read element by element and consed up from
+ * the right, so list notation never has to be rewritten into dot notation
+ * first. Only nested clauses recurse, so the reader's stack is as deep as the
+ * deepest nesting, not as long as the longest list.
+ * <p>
+ * A clause which closes straight away is NIL, and a dot after the first
+ * element of a clause makes the next element its tail. Anything after the
+ * tail, before the clause closes, is ignored.
+ * <p>
+ * A statement may also be read straight from a {@link TokenStream}, one token
+ * at a time. Integer literals are then parsed from the text of their token,
+ * and only the text of identifiers and strings is decoded.
+ * 
+ * @author Anand
+ *
+ */
+final class NodeReader {
+
+	private final List<String> tokens;
+	private final TokenBuffer.Slice slice;
+	private final TokenStream stream;
+	private int pos;
+
+	private NodeReader(List<String> tokens) {
+		this.tokens = tokens;
+		this.slice = tokens instanceof TokenBuffer.Slice
+				? (TokenBuffer.Slice) tokens : null;
+		this.stream = null;
+	}
+
+	private NodeReader(TokenStream stream) {
+		this.tokens = null;
+		this.slice = null;
+		this.stream = stream;
+	}
+
+	/**
+	 * Reads the Node of a statement. A statement is either a clause, or a run
+	 * of tokens of which only the first is significant.
+	 * 
+	 * @param tokens
+	 *            the tokens of the statement.
+	 * @return the Node of the statement.
+	 * @throws NodeInitException
+	 *             if there are no tokens, or an atom is not well formed.
+	 * @throws IllegalArgumentException
+	 *             if a clause is never closed.
+	 */
+	static Node read(List<String> tokens) {
+		if (tokens.isEmpty()) {
+			throw new NodeInitException("Attempted to create a dataless Node");
+		}
+		return new NodeReader(tokens).datum();
+	}
+
+	/**
+	 * Reads the Node of the next statement of a token stream, and moves past
+	 * the statement. A statement is split off the stream as
+	 * {@link TokenStream#nextForm()} splits it, but no token is turned into a
+	 * String on the way.
+	 * 
+	 * @param stream
+	 *            the token stream.
+	 * @return the Node of the statement, or null if the stream is exhausted.
+	 * @throws NodeInitException
+	 *             if an atom is not well formed.
+	 * @throws IllegalArgumentException
+	 *             if the stream ends inside a clause.
+	 */
+	static Node read(TokenStream stream) {
+		if (!stream.hasNext()) {
+			return null;
+		}
+		boolean clause = stream.peek().getType() == TokenType.PAREN_OPEN;
+		Node node = new NodeReader(stream).datum();
+		if (!clause) {
+			// only the first token of a run is significant.
+			while (stream.hasNext()
+					&& stream.peek().getType() != TokenType.PAREN_OPEN) {
+				stream.next();
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Reads the clause or atom at the current position, and moves past it.
+	 */
+	private Node datum() {
+		TokenType type = type();
+		if (type == TokenType.PAREN_OPEN) {
+			return clause();
+		} else if (stream != null) {
+			return atom(stream.next());
+		} else if (type == TokenType.INTEGER && slice.value(pos) != 0) {
+			// the lexer has already parsed the literal; a zero value may also
+			// stand for a literal which overflowed, so it is parsed again
+			return NodeFactory.makeNode(slice.value(pos++));
+		}
+		return NodeFactory.makeNode(tokens.get(pos++));
+	}
+
+	/**
+	 * Makes the atom of a token read from a stream.
+	 */
+	private static Node atom(Token token) {
+		if (token.getType() == TokenType.INTEGER) {
+			try {
+				return NodeFactory.makeNode(token.longValue());
+			}
+			catch (NumberFormatException e) {
+				// reported as the factory reports any other malformed atom.
+			}
+		}
+		return NodeFactory.makeNode(token.getText());
+	}
+
+	/**
+	 * Reads the clause opening at the current position, and moves past its
+	 * closing parenthesis.
+	 */
+	private Node clause() {
+		ConsHeap heap = NodeFactory.getHeap();
+		if (heap != null) {
+			return heapClause(heap);
+		}
+		List<Node> elements = new ArrayList<>();
+		Node tail = NodeFactory.FALSE;
+		advance();
+		for (;;) {
+			TokenType type = type();
+			if (type == TokenType.PAREN_CLOSE) {
+				advance();
+				break;
+			} else if (type == TokenType.DOT && !elements.isEmpty()) {
+				advance();
+				if (type() == TokenType.PAREN_CLOSE) {
+					throw new NodeInitException(
+							"A dotted pair is missing its tail");
+				}
+				tail = datum();
+				skipClause();
+				break;
+			}
+			elements.add(datum());
+		}
+
+		Node node = tail;
+		for (int i = elements.size() - 1; i >= 0; i--) {
+			node = NodeFactory.makeNode(elements.get(i), node);
+		}
+		return node;
+	}
+
+	/**
+	 * Reads the clause opening at the current position straight into a heap,
+	 * front to back, so that a long list is not gathered as Nodes first.
+	 */
+	private Node heapClause(ConsHeap heap) {
+		ConsHeap.ListBuilder list = heap.newList();
+		boolean empty = true;
+		Node tail = NodeFactory.FALSE;
+		advance();
+		for (;;) {
+			TokenType type = type();
+			if (type == TokenType.PAREN_CLOSE) {
+				advance();
+				break;
+			} else if (type == TokenType.DOT && !empty) {
+				advance();
+				if (type() == TokenType.PAREN_CLOSE) {
+					throw new NodeInitException(
+							"A dotted pair is missing its tail");
+				}
+				tail = datum();
+				skipClause();
+				break;
+			}
+			list.add(datum());
+			empty = false;
+		}
+		return list.build(tail);
+	}
+
+	/**
+	 * Moves past the rest of the current clause, including its closing
+	 * parenthesis.
+	 */
+	private void skipClause() {
+		int opens = 1;
+		while (opens > 0) {
+			TokenType type = type();
+			advance();
+			if (type == TokenType.PAREN_OPEN) {
+				opens++;
+			} else if (type == TokenType.PAREN_CLOSE) {
+				opens--;
+			}
+		}
+	}
+
+	/**
+	 * Moves past the token at the current position.
+	 */
+	private void advance() {
+		if (stream != null) {
+			stream.next();
+		} else {
+			pos++;
+		}
+	}
+
+	/**
+	 * Grabs the kind of the token at the current position. Token lists which
+	 * are not slices of a token buffer only have their punctuation told
+	 * apart.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the position is past the last token.
+	 */
+	private TokenType type() {
+		if (stream != null) {
+			if (!stream.hasNext()) {
+				throw new IllegalArgumentException("Imbalanced parens");
+			}
+			return stream.peek().getType();
+		}
+		if (pos >= tokens.size()) {
+			throw new IllegalArgumentException("Imbalanced parens");
+		}
+		if (slice != null) {
+			return slice.type(pos);
+		}
+		String token = tokens.get(pos);
+		if (token.length() == 1) {
+			switch (token.charAt(0)) {
+			case '(':
+			case '[':
+			case '{':
+				return TokenType.PAREN_OPEN;
+			case ')':
+			case ']':
+			case '}':
+				return TokenType.PAREN_CLOSE;
+			case '.':
+				return TokenType.DOT;
+			default:
+				break;
+			}
+		}
+		return TokenType.SYMBOL;
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * ParallelFrontEnd.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import interpreter.lexer.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lexes and parses a large program on a fork/join pool. The program is first
+ * cut into chunks at top-level opening parentheses, by a character scan which
+ * skips over strings and comments. Every such parenthesis begins a statement,
+ * so each chunk holds whole statements and can be lexed and built into Trees
+ * independently of the others. The chunks are joined back together in source
+ * order, so the resulting Parser evaluates exactly as a sequential one would.
+ * 
+ * @author Anand
+ *
+ */
+public final class ParallelFrontEnd {
+
+	/**
+	 * The default number of characters in a chunk. Smaller programs are
+	 * handled on the calling thread.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	/**
+	 * Creates a front end on the common fork/join pool, with the default chunk
+	 * size.
+	 */
+	public ParallelFrontEnd() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a front end on the given pool.
+	 * 
+	 * @param pool
+	 *            the pool to lex and parse chunks on.
+	 * @param chunkSize
+	 *            the least number of characters in a chunk.
+	 * @throws IllegalArgumentException
+	 *             if the chunk size is not positive.
+	 */
+	public ParallelFrontEnd(ForkJoinPool pool, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(
+					"The chunk size must be positive : " + chunkSize);
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Builds a Parser for a whole program.
+	 * 
+	 * @param program
+	 *            the program text.
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @return a Parser holding every statement of the program.
+	 */
+	public Parser parse(CharSequence program, Appendable output) {
+		return new Parser(output, statements(program));
+	}
+
+	/**
+	 * Builds the parse trees of a whole program, in source order.
+	 * 
+	 * @param program
+	 *            the program text.
+	 * @return the statement Trees.
+	 */
+	List<Tree> statements(CharSequence program) {
+		int[] cuts = cut(program, chunkSize);
+		if (cuts.length <= 2) {
+			return parseChunk(program, 0, program.length());
+		}
+		return pool.invoke(new ChunkTask(program, cuts, 0, cuts.length - 1));
+	}
+
+	/**
+	 * Finds the chunk boundaries of a program. Boundaries are only placed on
+	 * an opening parenthesis outside of any clause, string or comment, and at
+	 * least {@code chunkSize} characters after the previous boundary.
+	 * 
+	 * @param program
+	 *            the program text.
+	 * @param chunkSize
+	 *            the least number of characters in a chunk.
+	 * @return the boundaries, starting with 0 and ending with the length.
+	 */
+	static int[] cut(CharSequence program, int chunkSize) {
+		List<Integer> cuts = new ArrayList<>();
+		cuts.add(0);
+		int length = program.length();
+		int depth = 0, last = 0;
+		for (int i = 0; i < length; i++) {
+			char c = program.charAt(i);
+			switch (c) {
+			case '(':
+			case '[':
+			case '{':
+				if (depth == 0 && i - last >= chunkSize) {
+					cuts.add(last = i);
+				}
+				depth++;
+				break;
+			case ')':
+			case ']':
+			case '}':
+				depth = Math.max(depth - 1, 0);
+				break;
+			case '"':
+				i = indexOf(program, '"', i + 1);
+				break;
+			case ';':
+				i = indexOf(program, '\n', i + 1);
+				break;
+			case '#':
+				if (i + 1 < length && program.charAt(i + 1) == '|') {
+					i = skipBlockComment(program, i + 2);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		cuts.add(length);
+
+		int[] result = new int[cuts.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = cuts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Lexes and parses the statements of a single chunk.
+	 */
+	private static List<Tree> parseChunk(CharSequence program, int start,
+			int end) {
+		String chunk = program.subSequence(start, end).toString();
+		return Parser.split(TokenBuffer.lex(chunk).slice());
+	}
+
+	/**
+	 * Grabs the index of the next occurrence of a character, or the end of the
+	 * program if there is none.
+	 */
+	private static int indexOf(CharSequence program, char c, int from) {
+		int i = from;
+		while (i < program.length() && program.charAt(i) != c) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Skips a (possibly nested) block comment, given the index just after its
+	 * opening delimiter.
+	 * 
+	 * @return the index of the last character of the comment.
+	 */
+	private static int skipBlockComment(CharSequence program, int from) {
+		int depth = 1, i = from;
+		for (; i + 1 < program.length() && depth > 0; i++) {
+			char c = program.charAt(i), next = program.charAt(i + 1);
+			if (c == '|' && next == '#') {
+				depth--;
+				i++;
+			} else if (c == '#' && next == '|') {
+				depth++;
+				i++;
+			}
+		}
+		return depth > 0 ? program.length() : i - 1;
+	}
+
+	/**
+	 * Parses a run of chunks, splitting it in half until a single chunk is
+	 * left.
+	 */
+	private static final class ChunkTask extends RecursiveTask<List<Tree>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CharSequence program;
+		private final int[] cuts;
+		private final int from, to;
+
+		ChunkTask(CharSequence program, int[] cuts, int from, int to) {
+			this.program = program;
+			this.cuts = cuts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Tree> compute() {
+			if (to - from == 1) {
+				return parseChunk(program, cuts[from], cuts[to]);
+			}
+			int middle = (from + to) >>> 1;
+			ChunkTask right = new ChunkTask(program, cuts, middle, to);
+			right.fork();
+			List<Tree> statements = new ChunkTask(program, cuts, from, middle)
+					.compute();
+			statements.addAll(right.join());
+			return statements;
+		}
+	}
+}
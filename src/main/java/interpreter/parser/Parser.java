@@ -3,9 +3,12 @@
  */
 package interpreter.parser;
 
+import interpreter.lexer.TokenBuffer;
+import interpreter.lexer.TokenStream;
 import interpreter.parser.func.ClosureState;
 import interpreter.util.ListUtils;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,8 +24,12 @@ import java.util.List;
  */
 public class Parser {
 
-	private List<Tree> statements;
+	private final List<Tree> statements;
+	private final TokenBuffer.Slice tokens;
+	private final TokenStream stream;
 	private final Appendable output;
+	private Printer printer = new Printer();
+	private StackEvaluator evaluator;
 
 	/**
 	 * Default constructor requires a collection of tokens, and passes the
@@ -40,6 +47,11 @@ public class Parser {
 	 * Constructor requires a collection of tokens and an output evaluation
 	 * location. The tokens passed are analyzed and used to construct a Tree of
 	 * parse statements.
+	 * <p>
+	 * Statements are read on demand: each Tree is built just before it is
+	 * evaluated, and dropped once its result has been written. Only one
+	 * statement is ever held at a time, and the first result does not wait
+	 * on the rest of the program being parsed.
 	 * 
 	 * @param tokens
 	 *            a List of program tokens.
@@ -47,26 +59,102 @@ public class Parser {
 	 *            a valid Appendable instance.
 	 */
 	public Parser(List<String> tokens, Appendable output) {
-		this.statements = new ArrayList<>();
+		this(tokens instanceof TokenBuffer.Slice ? (TokenBuffer.Slice) tokens
+				: TokenBuffer.of(tokens).slice(), output);
+	}
+
+	/**
+	 * Constructor requires a buffer of tokens and an output evaluation
+	 * location.
+	 * 
+	 * @param tokens
+	 *            the TokenBuffer of the program.
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @see #Parser(List, Appendable)
+	 */
+	public Parser(TokenBuffer tokens, Appendable output) {
+		this(tokens.slice(), output);
+	}
+
+	private Parser(TokenBuffer.Slice tokens, Appendable output) {
+		this.statements = null;
+		this.tokens = tokens;
+		this.stream = null;
 		this.output = output;
-		List<String> tmp;
-		int i = 0, j = 0, k = 0;
-		while (i < tokens.size() && i > -1) {
-			j = ListUtils
-					.findFirstOpenParen(ListUtils.subList(tokens, i, true)) + i;
-			if (j == i) {
-				k = ListUtils.clauseEnd(ListUtils.subList(tokens, i, true)) + i
-						+ 1;
-			} else if (j > i) {
-				k = j;
-			} else {
-				k = tokens.size();
-			}
-			tmp = ListUtils
-					.inDotNotation(ListUtils.subList(tokens, i, k, true));
-			statements.add(new Tree(tmp));
-			i = k;
+	}
+
+	/**
+	 * Constructor for statements which have already been built, such as by
+	 * the parallel front end.
+	 * 
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @param statements
+	 *            the parse trees of the program, in source order.
+	 */
+	Parser(Appendable output, List<Tree> statements) {
+		this.statements = statements;
+		this.tokens = null;
+		this.stream = null;
+		this.output = output;
+	}
+
+	/**
+	 * Splits a slice of the token buffer into statements. Each statement is a
+	 * view of the buffer, which is read into its Tree without copying it.
+	 * 
+	 * @param tokens
+	 *            a slice of program tokens.
+	 * @return the parse trees of the statements, in source order.
+	 */
+	static List<Tree> split(TokenBuffer.Slice tokens) {
+		List<Tree> statements = new ArrayList<>();
+		for (int i = 0, k; i < tokens.size(); i = k) {
+			k = statementEnd(tokens, i);
+			statements.add(new Tree(tokens.subList(i, k)));
+		}
+		return statements;
+	}
+
+	/**
+	 * Finds where the statement starting at a given token ends. A statement is
+	 * either a balanced clause, or the run of tokens up to the next opening
+	 * parenthesis.
+	 * 
+	 * @param tokens
+	 *            a slice of program tokens.
+	 * @param i
+	 *            the index of the first token of the statement.
+	 * @return the index after the last token of the statement.
+	 */
+	private static int statementEnd(TokenBuffer.Slice tokens, int i) {
+		TokenBuffer.Slice rest = tokens.subList(i, tokens.size());
+		int j = ListUtils.findFirstOpenParen(rest);
+		if (j == 0) {
+			return ListUtils.clauseEnd(rest) + i + 1;
+		} else if (j > 0) {
+			return j + i;
 		}
+		return tokens.size();
+	}
+
+	/**
+	 * Constructor for a streaming parser. Rather than building every statement
+	 * up front, statements are pulled from the token stream one top-level form
+	 * at a time during evaluation, and each result is written to
+	 * {@code output} as soon as it is known.
+	 * 
+	 * @param stream
+	 *            a token source for the program.
+	 * @param output
+	 *            a valid Appendable instance.
+	 */
+	public Parser(TokenStream stream, Appendable output) {
+		this.statements = null;
+		this.tokens = null;
+		this.stream = stream;
+		this.output = output;
 	}
 
 	/**
@@ -79,11 +167,17 @@ public class Parser {
 	 *             if an I/O error occurs from the Appendable object.
 	 */
 	public Appendable eval(String sep) {
+		if (stream != null) {
+			return evalStream(sep);
+		} else if (tokens != null) {
+			return evalTokens(sep);
+		}
 		try {
 			for (int i = 0; i < statements.size(); i++) {
-				output.append(statements.get(i).eval()).append(
-						i == statements.size() - 1 ? "" : sep);
+				statements.get(i).eval(printer, output, evaluator);
+				output.append(i == statements.size() - 1 ? "" : sep);
 				ClosureState.getInstance().reset();
+				collect(i + 1);
 			}
 		}
 		catch (IOException e) {
@@ -92,6 +186,102 @@ public class Parser {
 		return output;
 	}
 
+	/**
+	 * Reads and evaluates the statements of the token buffer one at a time.
+	 * 
+	 * @param sep
+	 *            the separator between individual components.
+	 * @return the Appendable object.
+	 */
+	private Appendable evalTokens(String sep) {
+		try {
+			for (int i = 0, k, size = tokens.size(); i < size; i = k) {
+				k = statementEnd(tokens, i);
+				new Tree(tokens.subList(i, k)).eval(printer, output,
+						evaluator);
+				output.append(k == size ? "" : sep);
+				ClosureState.getInstance().reset();
+				collect(0);
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		return output;
+	}
+
+	/**
+	 * Evaluates each statement of the token stream as soon as it has been
+	 * read, flushing the output after every result so that it is visible
+	 * before the rest of the program arrives.
+	 * 
+	 * @param sep
+	 *            the separator between individual components.
+	 * @return the Appendable object.
+	 */
+	private Appendable evalStream(String sep) {
+		try {
+			Node form;
+			while ((form = NodeReader.read(stream)) != null) {
+				new Tree(form).eval(printer, output, evaluator);
+				ClosureState.getInstance().reset();
+				collect(0);
+				if (output instanceof Flushable) {
+					((Flushable) output).flush();
+				}
+				if (stream.hasNext()) {
+					output.append(sep);
+				}
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		return output;
+	}
+
+	/**
+	 * Collects the cons heap between two statements, if one is in use and a
+	 * collection is due. Everything the Environment holds on to survives, and
+	 * so does every statement which is still to be evaluated.
+	 * 
+	 * @param next
+	 *            the index of the next statement held by this Parser.
+	 */
+	private void collect(int next) {
+		ConsHeap heap = NodeFactory.getHeap();
+		if (heap == null || !heap.isCollectionDue()) {
+			return;
+		}
+		List<Node> roots = Environment.getInstance().getLiveNodes();
+		for (int i = next; statements != null && i < statements.size(); i++) {
+			roots.add(statements.get(i).getRoot());
+		}
+		heap.collect(roots);
+	}
+
+	/**
+	 * Sets the Printer which writes each result to {@code output}, for
+	 * instance to truncate large results.
+	 * 
+	 * @param printer
+	 *            the Printer to use.
+	 */
+	public void setPrinter(Printer printer) {
+		this.printer = printer;
+	}
+
+	/**
+	 * Sets the evaluator of the statements. By default, statements are
+	 * evaluated recursively, on the Java stack.
+	 * 
+	 * @param evaluator
+	 *            the StackEvaluator to use, or null to evaluate recursively.
+	 */
+	public void setEvaluator(StackEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
 	/**
 	 * Convenience method to evaluate the parsing tree and each evaluation
 	 * occurs on a separate line.
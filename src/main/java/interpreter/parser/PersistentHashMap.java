@@ -0,0 +1,623 @@
+/**
+ * PersistentHashMap.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable hash map with structural sharing, from Nodes to Nodes, kept in
+ * a hash array mapped trie. Each level of the trie branches on five bits of
+ * the structural hash of a key, and stores only the branches in use, found
+ * through a bitmap. Keys whose hashes are equal share a collision node.
+ * Lookups and updates take O(log32 n) time, and an update copies only the
+ * path from the root to the changed entry.
+ * <p>
+ * Many entries are best added through a {@link Transient}, which updates the
+ * nodes it has made itself in place.
+ * 
+ * @author Anand
+ *
+ */
+public final class PersistentHashMap extends Aggregate {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** The map with no entries. */
+	public static final PersistentHashMap EMPTY = new PersistentHashMap(0,
+			null);
+
+	private final int count;
+	private final Trie root;
+
+	private PersistentHashMap(int count, Trie root) {
+		this.count = count;
+		this.root = root;
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Grabs the value of a key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the value, or null if the key has no entry.
+	 */
+	public Node get(Node key) {
+		return root == null ? null : root.find(0, key.hashCode(), key);
+	}
+
+	/**
+	 * Makes a map with an entry added or replaced.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the new value of the key.
+	 * @return a new map, or this map if the key already has the value.
+	 */
+	public PersistentHashMap assoc(Node key, Node value) {
+		boolean[] added = new boolean[1];
+		Trie base = root == null ? Bitmap.EMPTY : root;
+		Trie newRoot = base.assoc(null, 0, key.hashCode(), key, value, added);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap(added[0] ? count + 1 : count, newRoot);
+	}
+
+	/**
+	 * Makes a map without the entry of a key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return a new map, or this map if the key has no entry.
+	 */
+	public PersistentHashMap without(Node key) {
+		if (root == null) {
+			return this;
+		}
+		Trie newRoot = root.without(null, 0, key.hashCode(), key,
+				new boolean[1]);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap(count - 1, newRoot);
+	}
+
+	/**
+	 * Makes a transient copy of this map, for adding or removing many
+	 * entries. This map is not changed.
+	 * 
+	 * @return a Transient owned by the calling thread.
+	 */
+	public Transient asTransient() {
+		return new Transient(this);
+	}
+
+	/**
+	 * Grabs the entries of this map, in no particular order.
+	 * 
+	 * @return the entries.
+	 */
+	public Iterable<Map.Entry<Node, Node>> entries() {
+		return new Iterable<Map.Entry<Node, Node>>() {
+
+			@Override
+			public Iterator<Map.Entry<Node, Node>> iterator() {
+				return new EntryIterator(root);
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Node> nodes() {
+		List<Node> nodes = new ArrayList<>(count * 2);
+		for (Map.Entry<Node, Node> entry : entries()) {
+			nodes.add(entry.getKey());
+			nodes.add(entry.getValue());
+		}
+		return nodes;
+	}
+
+	/**
+	 * Grabs the entries of this map as an association list of dotted pairs.
+	 */
+	@Override
+	public Node seq() {
+		Node[] pairs = new Node[count];
+		int i = 0;
+		for (Map.Entry<Node, Node> entry : entries()) {
+			pairs[i++] = NodeFactory.makeNode(entry.getKey(), entry.getValue());
+		}
+		return NodeFactory.makeList(pairs, NodeFactory.FALSE);
+	}
+
+	@Override
+	protected int computeHash() {
+		int result = 0;
+		for (Map.Entry<Node, Node> entry : entries()) {
+			result += entry.getKey().hashCode() ^ entry.getValue().hashCode();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof PersistentHashMap)) return false;
+		PersistentHashMap other = (PersistentHashMap) obj;
+		if (count != other.count || hashCode() != other.hashCode()) {
+			return false;
+		}
+		for (Map.Entry<Node, Node> entry : entries()) {
+			if (!entry.getValue().equals(other.get(entry.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Prints the keys and values between braces.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (Map.Entry<Node, Node> entry : entries()) {
+			if (builder.length() > 1) {
+				builder.append(", ");
+			}
+			builder.append(entry.getKey()).append(' ')
+					.append(entry.getValue());
+		}
+		return builder.append('}').toString();
+	}
+
+	/**
+	 * A map which is updated in place, for building a map from many entries.
+	 * Nodes made by the transient belong to it and are updated in place;
+	 * nodes shared with the map it came from are copied first. A transient
+	 * may only be used by the thread which made it, and not at all once it
+	 * has been made persistent.
+	 */
+	public static final class Transient {
+
+		private final AtomicReference<Thread> edit;
+		private int count;
+		private Trie root;
+
+		private Transient(PersistentHashMap map) {
+			this.edit = new AtomicReference<>(Thread.currentThread());
+			this.count = map.count;
+			this.root = map.root;
+		}
+
+		/**
+		 * Grabs the number of entries.
+		 * 
+		 * @return the count.
+		 */
+		public int count() {
+			ensureEditable();
+			return count;
+		}
+
+		/**
+		 * Grabs the value of a key.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @return the value, or null if the key has no entry.
+		 */
+		public Node get(Node key) {
+			ensureEditable();
+			return root == null ? null : root.find(0, key.hashCode(), key);
+		}
+
+		/**
+		 * Adds or replaces an entry.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @param value
+		 *            the new value of the key.
+		 * @return this transient.
+		 */
+		public Transient assoc(Node key, Node value) {
+			ensureEditable();
+			boolean[] added = new boolean[1];
+			Trie base = root == null ? Bitmap.EMPTY : root;
+			root = base.assoc(edit, 0, key.hashCode(), key, value, added);
+			if (added[0]) {
+				count++;
+			}
+			return this;
+		}
+
+		/**
+		 * Removes the entry of a key, if it has one.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @return this transient.
+		 */
+		public Transient without(Node key) {
+			ensureEditable();
+			if (root != null) {
+				// nodes of the transient are updated in place, so the root
+				// may be the same even though an entry was removed.
+				boolean[] removed = new boolean[1];
+				root = root.without(edit, 0, key.hashCode(), key, removed);
+				if (removed[0]) {
+					count--;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Ends this transient, and makes a map of its entries.
+		 * 
+		 * @return the map.
+		 */
+		public PersistentHashMap persistent() {
+			ensureEditable();
+			edit.set(null);
+			return count == 0 ? EMPTY : new PersistentHashMap(count, root);
+		}
+
+		private void ensureEditable() {
+			Thread owner = edit.get();
+			if (owner == null) {
+				throw new IllegalStateException(
+						"Transient used after it was made persistent");
+			} else if (owner != Thread.currentThread()) {
+				throw new IllegalStateException(
+						"Transient used by a thread which does not own it");
+			}
+		}
+	}
+
+	/**
+	 * A node of the trie. Its array holds keys and values in pairs; a pair
+	 * whose key is null holds a child node instead of a value. A node may be
+	 * updated in place only by the transient whose edit it carries.
+	 */
+	private abstract static class Trie {
+
+		final AtomicReference<Thread> edit;
+		Object[] array;
+
+		Trie(AtomicReference<Thread> edit, Object[] array) {
+			this.edit = edit;
+			this.array = array;
+		}
+
+		/**
+		 * Adds or replaces an entry below this node.
+		 * 
+		 * @return the updated node, or this node if nothing changed.
+		 */
+		abstract Trie assoc(AtomicReference<Thread> edit, int shift,
+				int hash, Node key, Node value, boolean[] added);
+
+		/**
+		 * Removes an entry below this node.
+		 * 
+		 * @return the updated node, this node if there was no such entry, or
+		 *         null if the node is left empty.
+		 */
+		abstract Trie without(AtomicReference<Thread> edit, int shift,
+				int hash, Node key, boolean[] removed);
+
+		abstract Node find(int shift, int hash, Node key);
+
+		/**
+		 * Makes a copy of this node which belongs to a transient.
+		 */
+		abstract Trie copy(AtomicReference<Thread> edit);
+
+		/**
+		 * Grabs this node if the transient may update it, or a copy of it
+		 * which the transient may update. A null edit always copies.
+		 */
+		final Trie editable(AtomicReference<Thread> edit) {
+			if (edit != null && this.edit == edit) {
+				return this;
+			}
+			return copy(edit);
+		}
+
+		final Trie editAndSet(AtomicReference<Thread> edit, int i, Object a) {
+			Trie result = editable(edit);
+			result.array[i] = a;
+			return result;
+		}
+	}
+
+	/**
+	 * A node which branches on five bits of the hash, and stores only the
+	 * branches in use.
+	 */
+	private static final class Bitmap extends Trie {
+
+		static final Bitmap EMPTY = new Bitmap(null, 0, new Object[0]);
+
+		int bitmap;
+
+		Bitmap(AtomicReference<Thread> edit, int bitmap, Object[] array) {
+			super(edit, array);
+			this.bitmap = bitmap;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Trie assoc(AtomicReference<Thread> edit, int shift, int hash,
+				Node key, Node value, boolean[] added) {
+			int bit = bitpos(hash, shift);
+			int idx = index(bit);
+			if ((bitmap & bit) != 0) {
+				Object k = array[2 * idx];
+				Object v = array[2 * idx + 1];
+				if (k == null) {
+					Trie child = ((Trie) v).assoc(edit, shift + BITS, hash,
+							key, value, added);
+					return child == v ? this
+							: editAndSet(edit, 2 * idx + 1, child);
+				} else if (key.equals(k)) {
+					return value == v ? this : editAndSet(edit, 2 * idx + 1,
+							value);
+				}
+				added[0] = true;
+				Trie result = editable(edit);
+				result.array[2 * idx] = null;
+				result.array[2 * idx + 1] = createNode(edit, shift + BITS,
+						(Node) k, (Node) v, hash, key, value);
+				return result;
+			}
+
+			int n = Integer.bitCount(bitmap);
+			Object[] newArray = new Object[2 * (n + 1)];
+			System.arraycopy(array, 0, newArray, 0, 2 * idx);
+			newArray[2 * idx] = key;
+			newArray[2 * idx + 1] = value;
+			System.arraycopy(array, 2 * idx, newArray, 2 * (idx + 1),
+					2 * (n - idx));
+			added[0] = true;
+			return withArray(edit, bitmap | bit, newArray);
+		}
+
+		@Override
+		Trie without(AtomicReference<Thread> edit, int shift, int hash,
+				Node key, boolean[] removed) {
+			int bit = bitpos(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int idx = index(bit);
+			Object k = array[2 * idx];
+			Object v = array[2 * idx + 1];
+			if (k == null) {
+				Trie child = ((Trie) v).without(edit, shift + BITS, hash, key,
+						removed);
+				if (child == v) {
+					return this;
+				} else if (child != null) {
+					return editAndSet(edit, 2 * idx + 1, child);
+				}
+			} else if (key.equals(k)) {
+				removed[0] = true;
+			} else {
+				return this;
+			}
+			if (bitmap == bit) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, 2 * idx);
+			System.arraycopy(array, 2 * (idx + 1), newArray, 2 * idx,
+					newArray.length - 2 * idx);
+			return withArray(edit, bitmap ^ bit, newArray);
+		}
+
+		@Override
+		Node find(int shift, int hash, Node key) {
+			int bit = bitpos(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			int idx = index(bit);
+			Object k = array[2 * idx];
+			Object v = array[2 * idx + 1];
+			if (k == null) {
+				return ((Trie) v).find(shift + BITS, hash, key);
+			}
+			return key.equals(k) ? (Node) v : null;
+		}
+
+		@Override
+		Trie copy(AtomicReference<Thread> edit) {
+			return new Bitmap(edit, bitmap, array.clone());
+		}
+
+		private Trie withArray(AtomicReference<Thread> edit, int newBitmap,
+				Object[] newArray) {
+			if (edit != null && this.edit == edit) {
+				bitmap = newBitmap;
+				array = newArray;
+				return this;
+			}
+			return new Bitmap(edit, newBitmap, newArray);
+		}
+
+		/**
+		 * Makes the node which holds two entries whose hashes agree down to
+		 * the given shift.
+		 */
+		private static Trie createNode(AtomicReference<Thread> edit,
+				int shift, Node key1, Node value1, int hash2, Node key2,
+				Node value2) {
+			int hash1 = key1.hashCode();
+			if (hash1 == hash2) {
+				return new Collision(edit, hash1, new Object[] { key1, value1,
+						key2, value2 });
+			}
+			boolean[] added = new boolean[1];
+			return EMPTY.assoc(edit, shift, hash1, key1, value1, added)
+					.assoc(edit, shift, hash2, key2, value2, added);
+		}
+	}
+
+	/**
+	 * A node which holds the entries of keys with equal hashes.
+	 */
+	private static final class Collision extends Trie {
+
+		final int hash;
+
+		Collision(AtomicReference<Thread> edit, int hash, Object[] array) {
+			super(edit, array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Node key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Trie assoc(AtomicReference<Thread> edit, int shift, int hash,
+				Node key, Node value, boolean[] added) {
+			if (hash != this.hash) {
+				return new Bitmap(edit, bitpos(this.hash, shift),
+						new Object[] { null, this }).assoc(edit, shift, hash,
+						key, value, added);
+			}
+			int idx = indexOf(key);
+			if (idx >= 0) {
+				return array[idx + 1] == value ? this : editAndSet(edit,
+						idx + 1, value);
+			}
+			Object[] newArray = new Object[array.length + 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			added[0] = true;
+			return new Collision(edit, hash, newArray);
+		}
+
+		@Override
+		Trie without(AtomicReference<Thread> edit, int shift, int hash,
+				Node key, boolean[] removed) {
+			int idx = indexOf(key);
+			if (idx < 0) {
+				return this;
+			}
+			removed[0] = true;
+			if (array.length == 2) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, idx);
+			System.arraycopy(array, idx + 2, newArray, idx, newArray.length
+					- idx);
+			return new Collision(edit, hash, newArray);
+		}
+
+		@Override
+		Node find(int shift, int hash, Node key) {
+			int idx = indexOf(key);
+			return idx < 0 ? null : (Node) array[idx + 1];
+		}
+
+		@Override
+		Trie copy(AtomicReference<Thread> edit) {
+			return new Collision(edit, hash, array.clone());
+		}
+	}
+
+	/**
+	 * Walks the trie depth first with an explicit stack of the node arrays
+	 * it is inside.
+	 */
+	private static final class EntryIterator implements
+			Iterator<Map.Entry<Node, Node>> {
+
+		private final Deque<Object[]> arrays = new ArrayDeque<>();
+		private final Deque<Integer> positions = new ArrayDeque<>();
+		private Map.Entry<Node, Node> next;
+
+		EntryIterator(Trie root) {
+			if (root != null) {
+				arrays.push(root.array);
+				positions.push(0);
+			}
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && !arrays.isEmpty()) {
+				Object[] array = arrays.peek();
+				int i = positions.pop();
+				if (i >= array.length) {
+					arrays.pop();
+					continue;
+				}
+				positions.push(i + 2);
+				if (array[i] == null) {
+					arrays.push(((Trie) array[i + 1]).array);
+					positions.push(0);
+				} else {
+					next = new SimpleImmutableEntry<>((Node) array[i],
+							(Node) array[i + 1]);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<Node, Node> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<Node, Node> result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static int bitpos(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+}
@@ -0,0 +1,456 @@
+/**
+ * PersistentVector.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable vector with structural sharing. The elements are kept in a
+ * trie of 32-way branching nodes, except for the last few, which are kept in
+ * a tail array, so that appending only touches the trie once every 32
+ * elements. Indexing and updating take O(log32 n) time, and an update copies
+ * only the path from the root to the changed element.
+ * <p>
+ * Many elements are best added through a {@link Transient}, which updates
+ * the nodes it has made itself in place.
+ * 
+ * @author Anand
+ *
+ */
+public final class PersistentVector extends Aggregate implements
+		Iterable<Node> {
+
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	/** The vector with no elements. */
+	public static final PersistentVector EMPTY = new PersistentVector(0,
+			BITS, new Trie(null, new Object[WIDTH]), new Node[0]);
+
+	private final int count;
+	private final int shift;
+	private final Trie root;
+	private final Node[] tail;
+
+	private PersistentVector(int count, int shift, Trie root, Node[] tail) {
+		this.count = count;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	/**
+	 * Creates a vector of the given elements.
+	 * 
+	 * @param elements
+	 *            the elements, in order.
+	 * @return a new vector.
+	 */
+	public static PersistentVector of(Iterable<? extends Node> elements) {
+		Transient result = EMPTY.asTransient();
+		for (Node element : elements) {
+			result.conj(element);
+		}
+		return result.persistent();
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Grabs an element.
+	 * 
+	 * @param index
+	 *            the index of the element, from zero.
+	 * @return the element.
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such element.
+	 */
+	public Node nth(int index) {
+		return (Node) arrayFor(index, count, shift, root, tail)[index & MASK];
+	}
+
+	/**
+	 * Makes a vector with one element replaced, or appended if the index is
+	 * the count of this vector.
+	 * 
+	 * @param index
+	 *            the index of the element, from zero.
+	 * @param value
+	 *            the new element.
+	 * @return a new vector.
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is negative or greater than the count.
+	 */
+	public PersistentVector assocN(int index, Node value) {
+		if (index == count) {
+			return conj(value);
+		}
+		checkIndex(index, count);
+		if (index >= tailOffset(count)) {
+			Node[] newTail = tail.clone();
+			newTail[index & MASK] = value;
+			return new PersistentVector(count, shift, root, newTail);
+		}
+		return new PersistentVector(count, shift, doAssoc(null, shift, root,
+				index, value), tail);
+	}
+
+	/**
+	 * Makes a vector with an element appended.
+	 * 
+	 * @param value
+	 *            the new last element.
+	 * @return a new vector.
+	 */
+	public PersistentVector conj(Node value) {
+		if (count - tailOffset(count) < WIDTH) {
+			Node[] newTail = new Node[tail.length + 1];
+			System.arraycopy(tail, 0, newTail, 0, tail.length);
+			newTail[tail.length] = value;
+			return new PersistentVector(count + 1, shift, root, newTail);
+		}
+		Trie tailNode = new Trie(null, tail.clone());
+		int newShift = shift;
+		Trie newRoot;
+		if ((count >>> BITS) > (1 << shift)) {
+			newRoot = new Trie(null, new Object[WIDTH]);
+			newRoot.array[0] = root;
+			newRoot.array[1] = newPath(null, shift, tailNode);
+			newShift += BITS;
+		} else {
+			newRoot = pushTail(null, count, shift, root, tailNode);
+		}
+		return new PersistentVector(count + 1, newShift, newRoot,
+				new Node[] { value });
+	}
+
+	/**
+	 * Makes a transient copy of this vector, for adding or replacing many
+	 * elements. This vector is not changed.
+	 * 
+	 * @return a Transient owned by the calling thread.
+	 */
+	public Transient asTransient() {
+		return new Transient(this);
+	}
+
+	@Override
+	public Iterator<Node> iterator() {
+		return new Iterator<Node>() {
+
+			private int index;
+			private Object[] array;
+
+			@Override
+			public boolean hasNext() {
+				return index < count;
+			}
+
+			@Override
+			public Node next() {
+				if (index >= count) {
+					throw new NoSuchElementException();
+				}
+				if ((index & MASK) == 0) {
+					array = arrayFor(index, count, shift, root, tail);
+				}
+				return (Node) array[index++ & MASK];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Node> nodes() {
+		return this;
+	}
+
+	@Override
+	public Node seq() {
+		Node[] elements = new Node[count];
+		int i = 0;
+		for (Node element : this) {
+			elements[i++] = element;
+		}
+		return NodeFactory.makeList(elements, NodeFactory.FALSE);
+	}
+
+	@Override
+	protected int computeHash() {
+		int result = 1;
+		for (Node element : this) {
+			result = 31 * result + element.hashCode();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof PersistentVector)) return false;
+		PersistentVector other = (PersistentVector) obj;
+		if (count != other.count || hashCode() != other.hashCode()) {
+			return false;
+		}
+		Iterator<Node> them = other.iterator();
+		for (Node element : this) {
+			if (!element.equals(them.next())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Prints the elements between square brackets.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (Node element : this) {
+			if (builder.length() > 1) {
+				builder.append(' ');
+			}
+			builder.append(element);
+		}
+		return builder.append(']').toString();
+	}
+
+	/**
+	 * A vector which is updated in place, for building a vector from many
+	 * elements. Nodes made by the transient belong to it and are updated in
+	 * place; nodes shared with the vector it came from are copied first. A
+	 * transient may only be used by the thread which made it, and not at all
+	 * once it has been made persistent.
+	 */
+	public static final class Transient {
+
+		private final AtomicReference<Thread> edit;
+		private int count;
+		private int shift;
+		private Trie root;
+		private Node[] tail;
+
+		private Transient(PersistentVector vector) {
+			this.edit = new AtomicReference<>(Thread.currentThread());
+			this.count = vector.count;
+			this.shift = vector.shift;
+			this.root = new Trie(edit, vector.root.array.clone());
+			this.tail = new Node[WIDTH];
+			System.arraycopy(vector.tail, 0, tail, 0, vector.tail.length);
+		}
+
+		/**
+		 * Grabs the number of elements.
+		 * 
+		 * @return the count.
+		 */
+		public int count() {
+			ensureEditable();
+			return count;
+		}
+
+		/**
+		 * Grabs an element.
+		 * 
+		 * @param index
+		 *            the index of the element, from zero.
+		 * @return the element.
+		 * @throws IndexOutOfBoundsException
+		 *             if there is no such element.
+		 */
+		public Node nth(int index) {
+			ensureEditable();
+			return (Node) arrayFor(index, count, shift, root, tail)[index
+					& MASK];
+		}
+
+		/**
+		 * Appends an element.
+		 * 
+		 * @param value
+		 *            the new last element.
+		 * @return this transient.
+		 */
+		public Transient conj(Node value) {
+			ensureEditable();
+			if (count - tailOffset(count) < WIDTH) {
+				tail[count++ & MASK] = value;
+				return this;
+			}
+			Trie tailNode = new Trie(edit, tail);
+			tail = new Node[WIDTH];
+			tail[0] = value;
+			if ((count >>> BITS) > (1 << shift)) {
+				Trie newRoot = new Trie(edit, new Object[WIDTH]);
+				newRoot.array[0] = root;
+				newRoot.array[1] = newPath(edit, shift, tailNode);
+				root = newRoot;
+				shift += BITS;
+			} else {
+				root = pushTail(edit, count, shift, root, tailNode);
+			}
+			count++;
+			return this;
+		}
+
+		/**
+		 * Replaces an element, or appends one if the index is the count.
+		 * 
+		 * @param index
+		 *            the index of the element, from zero.
+		 * @param value
+		 *            the new element.
+		 * @return this transient.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is negative or greater than the count.
+		 */
+		public Transient assocN(int index, Node value) {
+			ensureEditable();
+			if (index == count) {
+				return conj(value);
+			}
+			checkIndex(index, count);
+			if (index >= tailOffset(count)) {
+				tail[index & MASK] = value;
+			} else {
+				root = doAssoc(edit, shift, root, index, value);
+			}
+			return this;
+		}
+
+		/**
+		 * Ends this transient, and makes a vector of its elements.
+		 * 
+		 * @return the vector.
+		 */
+		public PersistentVector persistent() {
+			ensureEditable();
+			edit.set(null);
+			Node[] trimmed = new Node[count - tailOffset(count)];
+			System.arraycopy(tail, 0, trimmed, 0, trimmed.length);
+			return new PersistentVector(count, shift, root, trimmed);
+		}
+
+		private void ensureEditable() {
+			Thread owner = edit.get();
+			if (owner == null) {
+				throw new IllegalStateException(
+						"Transient used after it was made persistent");
+			} else if (owner != Thread.currentThread()) {
+				throw new IllegalStateException(
+						"Transient used by a thread which does not own it");
+			}
+		}
+	}
+
+	/**
+	 * A node of the trie. Leaves hold elements, and other nodes hold their
+	 * children. A node may be updated in place only by the transient whose
+	 * edit it carries.
+	 */
+	private static final class Trie {
+
+		final AtomicReference<Thread> edit;
+		final Object[] array;
+
+		Trie(AtomicReference<Thread> edit, Object[] array) {
+			this.edit = edit;
+			this.array = array;
+		}
+	}
+
+	private static int tailOffset(int count) {
+		return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+	}
+
+	private static void checkIndex(int index, int count) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Vector index out of range : "
+					+ index);
+		}
+	}
+
+	/**
+	 * Grabs the leaf array, or the tail, which holds an element.
+	 */
+	private static Object[] arrayFor(int index, int count, int shift,
+			Trie root, Node[] tail) {
+		checkIndex(index, count);
+		if (index >= tailOffset(count)) {
+			return tail;
+		}
+		Trie node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Trie) node.array[(index >>> level) & MASK];
+		}
+		return node.array;
+	}
+
+	/**
+	 * Grabs a node which may be updated by the given transient, copying it
+	 * unless it already belongs to the transient. A null edit always copies.
+	 */
+	private static Trie editable(AtomicReference<Thread> edit, Trie node) {
+		if (edit != null && node.edit == edit) {
+			return node;
+		}
+		return new Trie(edit, node.array.clone());
+	}
+
+	private static Trie doAssoc(AtomicReference<Thread> edit, int level,
+			Trie node, int index, Node value) {
+		Trie result = editable(edit, node);
+		if (level == 0) {
+			result.array[index & MASK] = value;
+		} else {
+			int sub = (index >>> level) & MASK;
+			result.array[sub] = doAssoc(edit, level - BITS,
+					(Trie) node.array[sub], index, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Hangs a full tail under the trie, as the leaf after the last one.
+	 */
+	private static Trie pushTail(AtomicReference<Thread> edit, int count,
+			int level, Trie parent, Trie tailNode) {
+		int sub = ((count - 1) >>> level) & MASK;
+		Trie result = editable(edit, parent);
+		Trie insert;
+		if (level == BITS) {
+			insert = tailNode;
+		} else {
+			Trie child = (Trie) parent.array[sub];
+			insert = child != null ? pushTail(edit, count, level - BITS,
+					child, tailNode) : newPath(edit, level - BITS, tailNode);
+		}
+		result.array[sub] = insert;
+		return result;
+	}
+
+	/**
+	 * Makes a chain of single child nodes down to a leaf.
+	 */
+	private static Trie newPath(AtomicReference<Thread> edit, int level,
+			Trie node) {
+		if (level == 0) {
+			return node;
+		}
+		Trie result = new Trie(edit, new Object[WIDTH]);
+		result.array[0] = newPath(edit, level - BITS, node);
+		return result;
+	}
+}
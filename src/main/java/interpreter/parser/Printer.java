@@ -0,0 +1,185 @@
+/**
+ * Printer.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes Nodes to an Appendable without building their printed form as a
+ * String first. Proper lists are printed in list notation, and any other
+ * S-Expression in dot notation, exactly as {@link SExpression#toString()}
+ * does.
+ * <p>
+ * The printer walks a Node with an explicit stack of the lists it is inside,
+ * so that deeply nested results cannot overflow the Java stack, and a long
+ * list takes no more memory to print than a short one. Output is gathered in
+ * a small reusable buffer and handed to the Appendable a chunk at a time.
+ * <p>
+ * A print length limits the number of elements printed of each list; the rest
+ * are elided as {@code ...}. A print depth limits how deeply lists are
+ * printed; lists nested any deeper are elided as {@code #}. A Printer is not
+ * safe for use by multiple threads at once.
+ * 
+ * @author Anand
+ *
+ */
+public final class Printer {
+
+	/** Lifts the print length or print depth limit. */
+	public static final int UNLIMITED = -1;
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private final int printLength;
+	private final int printDepth;
+	private final StringBuilder buffer = new StringBuilder();
+	private final Deque<Frame> stack = new ArrayDeque<>();
+
+	/**
+	 * Creates a printer which prints every Node in full.
+	 */
+	public Printer() {
+		this(UNLIMITED, UNLIMITED);
+	}
+
+	/**
+	 * Creates a printer which truncates large results.
+	 * 
+	 * @param printLength
+	 *            the most elements printed of any list, or {@link #UNLIMITED}.
+	 * @param printDepth
+	 *            the most levels of lists printed, or {@link #UNLIMITED}.
+	 * @throws IllegalArgumentException
+	 *             if a limit is negative, but not UNLIMITED.
+	 */
+	public Printer(int printLength, int printDepth) {
+		if (printLength < UNLIMITED || printDepth < UNLIMITED) {
+			throw new IllegalArgumentException(
+					"Print limits must not be negative : " + printLength
+							+ ", " + printDepth);
+		}
+		this.printLength = printLength;
+		this.printDepth = printDepth;
+	}
+
+	/**
+	 * Prints a Node.
+	 * 
+	 * @param node
+	 *            the Node to print.
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @throws IOException
+	 *             if an I/O error occurs from the Appendable object.
+	 * @throws NullPointerException
+	 *             if the node is null.
+	 */
+	public void print(Node node, Appendable output) throws IOException {
+		try {
+			begin(node);
+			while (!stack.isEmpty()) {
+				step(stack.peek());
+				if (buffer.length() >= CHUNK_SIZE) {
+					output.append(buffer);
+					buffer.setLength(0);
+				}
+			}
+			output.append(buffer);
+		}
+		finally {
+			buffer.setLength(0);
+			stack.clear();
+		}
+	}
+
+	/**
+	 * Prints a Node into a String.
+	 * 
+	 * @param node
+	 *            the Node to print.
+	 * @return the printed form of the node.
+	 */
+	public String toString(Node node) {
+		StringBuilder builder = new StringBuilder();
+		try {
+			print(node, builder);
+		}
+		catch (IOException e) {
+			throw new AssertionError("A StringBuilder never throws", e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Prints an atom, or opens a list or dotted pair, depending on the kind
+	 * of Node.
+	 */
+	private void begin(Node node) {
+		if (!(node instanceof SExpression)) {
+			buffer.append(node.toString());
+		} else if (printDepth != UNLIMITED && stack.size() >= printDepth) {
+			buffer.append('#');
+		} else {
+			SExpression sexp = (SExpression) node;
+			buffer.append('(');
+			stack.push(new Frame(sexp, sexp.isList()));
+		}
+	}
+
+	/**
+	 * Advances the innermost open list or dotted pair by one element.
+	 */
+	private void step(Frame frame) {
+		if (frame.list) {
+			if (frame.rest == NodeFactory.FALSE) {
+				buffer.append(')');
+				stack.pop();
+			} else if (frame.count == printLength) {
+				buffer.append(frame.count > 0 ? " ...)" : "...)");
+				stack.pop();
+			} else {
+				SExpression cell = (SExpression) frame.rest;
+				if (frame.count++ > 0) {
+					buffer.append(' ');
+				}
+				frame.rest = cell.getData();
+				begin(cell.getAddr());
+			}
+			return;
+		}
+
+		SExpression pair = (SExpression) frame.rest;
+		switch (frame.count++) {
+		case 0:
+			begin(pair.getAddr());
+			break;
+		case 1:
+			buffer.append('.');
+			begin(pair.getData());
+			break;
+		default:
+			buffer.append(')');
+			stack.pop();
+			break;
+		}
+	}
+
+	/**
+	 * An open list, with the part of it which is still to be printed, or an
+	 * open dotted pair, with how much of it has been printed.
+	 */
+	private static final class Frame {
+
+		private final boolean list;
+		private Node rest;
+		private int count;
+
+		Frame(SExpression sexp, boolean list) {
+			this.rest = sexp;
+			this.list = list;
+		}
+	}
+}
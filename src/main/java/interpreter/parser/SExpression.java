@@ -4,6 +4,7 @@
 package interpreter.parser;
 
 import interpreter.exception.NodeInitException;
+import interpreter.parser.func.Function;
 import interpreter.util.ListUtils;
 import interpreter.util.Pat;
 
@@ -21,13 +22,22 @@ import java.util.Map;
  */
 public class SExpression extends Node {
 
-    // address and data tokens
+    // a cons cell: the address (car) and data (cdr) nodes. Tokens are only
+    // generated from these when something asks for them.
     private Node data, addr;
-    private List<String> dataTokens, addrTokens;
+
+    // the number of elements of the proper list this cell heads, or -1 if the
+    // cdr chain ends in an atom other than NIL. Set once, when the cell is
+    // built, from the length of its cdr.
+    private int length;
+
+    // the structural hash of this cell, also computed once from its address
+    // and data, whose hashes are themselves known.
+    private int hash;
 
     /**
-     * Constructs an S-Expression from a token list. Uses our cons builder to
-     * validate input.
+     * Constructs an S-Expression from a token list in dot notation. Uses our
+     * cons builder to validate input.
      * 
      * @param tokens
      *            the list of tokens to build
@@ -38,18 +48,27 @@ public class SExpression extends Node {
 
     /**
      * Constructs an S-Expression from a given node. Essentially a casting
-     * operation.
+     * operation, which shares the address and data of an S-Expression.
      * 
      * @param n
      *            the Node to try and force into an S-Expression
      */
     public SExpression(Node n) {
-        this(n.tokens);
+        if (n instanceof SExpression) {
+            SExpression sexp = (SExpression) n;
+            this.addr = sexp.getAddr();
+            this.data = sexp.getData();
+            this.length = sexp.length();
+            this.hash = sexp.hashCode();
+        } else {
+            makeCons(n.tokens());
+        }
     }
 
     /**
      * Builds an S-Expression from two nodes, by making one an address and
-     * another a data object. Accordingly, the tokens are then updated.
+     * another a data object. Neither node is copied, so lists built this way
+     * share their structure.
      * 
      * @param addr
      *            the new address Node.
@@ -59,29 +78,48 @@ public class SExpression extends Node {
     public SExpression(Node addr, Node data) {
         this.addr = addr;
         this.data = data;
-        this.addrTokens = addr.tokens;
-        this.dataTokens = data.tokens;
-        buildTokens();
+        this.length = measure(data);
+        this.hash = 31 * (31 + addr.hashCode()) + data.hashCode();
+    }
+
+    /**
+     * Constructor for subclasses which keep their address and data elsewhere,
+     * and override every accessor of them.
+     */
+    protected SExpression() {
+    }
 
+    /**
+     * Constructor for subclasses which keep only their data elsewhere. The
+     * address, length and hash are known up front, and kept as for any cell.
+     * 
+     * @param addr
+     *            the address Node.
+     * @param length
+     *            the length of the list starting at this cell.
+     * @param hash
+     *            the structural hash of this cell.
+     */
+    protected SExpression(Node addr, int length, int hash) {
+        this.addr = addr;
+        this.length = length;
+        this.hash = hash;
     }
 
     /**
-     * Deep-copy constructor for an S-Expression.
+     * Copy constructor for an S-Expression. Nodes are immutable, so the copy
+     * shares the address and data of the original.
      * 
      * @param sexp
      *            the to-copy S-Expression.
      */
     public SExpression(SExpression sexp) {
-        data = NodeFactory.makeNode(sexp.dataTokens);
-        addr = NodeFactory.makeNode(sexp.addrTokens);
-        dataTokens = new ArrayList<String>(sexp.dataTokens);
-        addrTokens = new ArrayList<String>(sexp.addrTokens);
+        this((Node) sexp);
     }
 
     /**
-     * Appropriately updates tokens, determines address and data tokens, and
-     * validifies the representation of a given S-Expression, in the form of a
-     * string list.
+     * Determines address and data nodes, and validifies the representation of
+     * a given S-Expression, in the form of a string list.
      * 
      * @param tokens
      */
@@ -101,16 +139,15 @@ public class SExpression extends Node {
                 }
                 dataBegin = index + 1;
             }
-            index = dataBegin > 3 ? ListUtils.subList(tokens, dataBegin, true)
+            index = dataBegin > 3 ? ListUtils.subList(tokens, dataBegin, false)
                     .indexOf(".") + dataBegin : 2;
 
-            addrTokens = ListUtils.subList(tokens, 1, index, true);
-            dataTokens = ListUtils.subList(tokens, index + 1,
-                    tokens.size() - 1, true);
-
-            data = NodeFactory.makeNode(dataTokens);
-            addr = NodeFactory.makeNode(addrTokens);
-            buildTokens();
+            addr = NodeFactory.makeNode(ListUtils.subList(tokens, 1, index,
+                    false));
+            data = NodeFactory.makeNode(ListUtils.subList(tokens, index + 1,
+                    tokens.size() - 1, false));
+            length = measure(data);
+            hash = 31 * (31 + addr.hashCode()) + data.hashCode();
             return;
         }
         throw new NodeInitException("Invalid S-Expression provided : "
@@ -118,20 +155,82 @@ public class SExpression extends Node {
     }
 
     /**
-     * Formats the list of address and data tokens with surrounding parentheses,
-     * and separates the address and data with a period.
+     * Generates the tokens of this S-Expression in dot notation. The cdr chain
+     * is walked iteratively, so that a long list does not nest a call per
+     * element.
      */
-    private void buildTokens() {
-        tokens.add("(");
-        tokens.addAll(addrTokens);
-        tokens.add(".");
-        tokens.addAll(dataTokens);
-        tokens.add(")");
+    @Override
+    protected List<String> tokens() {
+        List<String> result = new ArrayList<>();
+        int opens = 0;
+        Node node = this;
+        while (node instanceof SExpression) {
+            SExpression sexp = (SExpression) node;
+            result.add("(");
+            result.addAll(sexp.getAddr().tokens());
+            result.add(".");
+            opens++;
+            node = sexp.getData();
+        }
+        result.addAll(node.tokens());
+        for (int i = 0; i < opens; i++) {
+            result.add(")");
+        }
+        return result;
+    }
+
+    /**
+     * Grabs the length of the list a cell heads, given its cdr.
+     * 
+     * @return the length, or -1 if the cdr is not a list.
+     */
+    private static int measure(Node data) {
+        if (data == NodeFactory.FALSE) {
+            return 1;
+        } else if (data instanceof SExpression) {
+            int rest = ((SExpression) data).length();
+            return rest < 0 ? -1 : rest + 1;
+        }
+        return -1;
     }
 
     @Override
     public boolean isList() {
-        return data.toString().matches("NIL") || data.isList();
+        return length() >= 0;
+    }
+
+    /**
+     * Grabs the number of elements of the list this S-Expression heads. The
+     * length is known from when the cell was built, so this takes constant
+     * time.
+     * 
+     * @return the length, or -1 if this is not a proper list.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Grabs an element of the list this S-Expression heads, by walking the
+     * cdr chain.
+     * 
+     * @param index
+     *            the index of the element, from zero.
+     * @return the element, or NIL if the list has no such element.
+     * @throws IndexOutOfBoundsException
+     *             if the index is negative.
+     */
+    public Node nth(int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Negative list index : "
+                    + index);
+        }
+        Node node = this;
+        for (int i = 0; i < index && node instanceof SExpression; i++) {
+            node = ((SExpression) node).getData();
+        }
+        return node instanceof SExpression ? ((SExpression) node).getAddr()
+                : NodeFactory.FALSE;
     }
 
     @Override
@@ -141,78 +240,158 @@ public class SExpression extends Node {
 
     @Override
     public Node eval(boolean literal) {
-        String ad = addr.eval(true).toString();
-        Node formals = data;
+        Node addr = getAddr(), data = getData();
         Environment env = Environment.getInstance();
+        CallSite site = addr instanceof SymbolAtom ? ((SymbolAtom) addr).site
+                : null;
+        if (site != null && site.stamp == env.getVersion()) {
+            return site.target != null ? site.target.eval(data) : env
+                    .getHandler().callIndex(site.primitive, data);
+        }
+        Node head = addr.eval(true);
+        Node formals = data;
 
-        if (literal && Pat.ATOM_NUM.matches(ad)) {
-            return addr.eval();
-        } else if (ad.toUpperCase().matches("T|NIL")) {
-            return NodeFactory.makeBooleanNode(ad);
+        if (!(head instanceof Atom)) {
+            return null;
+        }
+        Atom atom = (Atom) head;
+        Symbol ad = atom.getSymbol();
+        if (ad == null) {
+            return literal && atom.isNumeric() ? addr.eval() : null;
+        } else if (ad == Symbol.T) {
+            return NodeFactory.TRUE;
+        } else if (ad == Symbol.NIL) {
+            return NodeFactory.FALSE;
         } else if (env.isDefinedV(ad)) {
             return env.getVariableValue(ad);
         } else if (env.isDefinedF(ad)) {
+            if (head == addr) {
+                cache(env, addr, env.getFunction(ad), 0);
+            }
             return env.execFunc(ad, data);
-        } else if (ad.toUpperCase().matches("LENGTH")) {
+        } else if (ad == Symbol.LENGTH) {
             try {
                 formals = new SExpression(new SExpression(data).getAddr())
                         .getData();
             }
             catch (Exception e) {}
 
-        } else if (ad.toUpperCase().matches("Λ|LAMBDA")) {
+        } else if (ad == Symbol.LAMBDA || ad == Symbol.LAMBDA_SIGN) {
             formals = this;
-        } else if (ad.toUpperCase().matches("CAR|CDR|FIRST|REST")) {
-            SExpression sexp = new SExpression(dataTokens);
+        } else if (ad == Symbol.CAR || ad == Symbol.CDR || ad == Symbol.FIRST
+                || ad == Symbol.REST) {
+            SExpression sexp = new SExpression(data);
             if (data.isList()) {
-                Node address = sexp.addr;
+                Node address = sexp.getAddr();
                 if (address.isList()) {
-                    formals = new SExpression(new SExpression(address).data);
+                    formals = new SExpression(new SExpression(address)
+                            .getData());
                 } else {
                     formals = address;
                 }
             }
         }
 
+        if (head == addr && !rewritesArgs(ad)
+                && env.getHandler().isRegistered(ad)) {
+            cache(env, addr, null, env.getHandler().indexOf(ad));
+        }
         return env.invokePrim(ad, formals);
     }
 
+    /**
+     * Caches the target the head of this call site resolved to, which is only
+     * done when the head is a symbol the call finds by name, rather than the
+     * value of a variable, and the arguments are passed on as they are. The
+     * cache is kept by the head atom rather than by this cell, so that cells
+     * which are never called do not pay for it.
+     * 
+     * @see CallSite
+     */
+    private static void cache(Environment env, Node addr, Function function,
+            int index) {
+        if (!(addr instanceof SymbolAtom)) {
+            return;
+        }
+        SymbolAtom head = (SymbolAtom) addr;
+        if (head.site == null) {
+            head.site = new CallSite();
+        }
+        head.site.target = function;
+        head.site.primitive = index;
+        head.site.stamp = env.getVersion();
+    }
+
+    /**
+     * Does the interpreter pass the primitive of a symbol something other
+     * than the arguments of the call? Such calls are never cached, since the
+     * cache of a symbol serves every call it heads.
+     */
+    private static boolean rewritesArgs(Symbol symbol) {
+        return symbol == Symbol.LENGTH || symbol == Symbol.LAMBDA
+                || symbol == Symbol.LAMBDA_SIGN || symbol == Symbol.CAR
+                || symbol == Symbol.CDR || symbol == Symbol.FIRST
+                || symbol == Symbol.REST;
+    }
+
+    /**
+     * Grabs the symbol this S-Expression calls, as {@link #eval(boolean)}
+     * resolves its head. The head is only looked at if it is an atom, whose
+     * evaluation has no effects.
+     * 
+     * @return the symbol, or null if the head is not an atom, or if it stands
+     *         for a number, T, NIL or the value of a bound variable.
+     */
+    public Symbol getOperator() {
+        Node addr = getAddr();
+        if (!(addr instanceof Atom)) {
+            return null;
+        }
+        Node head = addr.eval(true);
+        Symbol symbol = head instanceof Atom ? ((Atom) head).getSymbol()
+                : null;
+        if (symbol == null || symbol == Symbol.T || symbol == Symbol.NIL
+                || Environment.getInstance().isDefinedV(symbol)) {
+            return null;
+        }
+        return symbol;
+    }
+
+    /**
+     * Evaluates this S-Expression with the given variables bound, in a frame
+     * of their own. Only those bindings are restored afterwards.
+     */
     @Override
-    public Node eval(boolean literal, Map<String, Node> env) {
+    public Node eval(boolean literal, Map<Symbol, Node> env) {
         Environment environ = Environment.getInstance();
-        Map<String, Node> outdated = environ.getVariables();
-        environ.substitute(env);
-        Node retVal = eval(literal);
-        environ.setVariables(outdated);
-        return retVal;
+        List<Symbol> names = new ArrayList<>(env.keySet());
+        Node[] values = new Node[names.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = env.get(names.get(i));
+        }
+        environ.push(names, values);
+        try {
+            return eval(literal);
+        }
+        finally {
+            environ.pop();
+        }
     }
 
     @Override
-    public Node eval(Map<String, Node> env) {
+    public Node eval(Map<Symbol, Node> env) {
         return eval(false, env);
     }
 
     /**
      * Attempts to print this object in list notation, but defaults to dot
      * notation.
+     * 
+     * @see Printer
      */
     @Override
     public String toString() {
-        if (isList()) {
-            List<String> l = new ArrayList<String>();
-            SExpression tmp = this;
-            while (tmp.isList()) {
-                try {
-                    l.add(tmp.addr.toString());
-                    tmp = new SExpression(tmp.dataTokens);
-                }
-                catch (Exception e) {
-                    break;
-                }
-            }
-            return "(" + ListUtils.concat(l, " ") + ")";
-        }
-        return "(" + addr.toString() + "." + data.toString() + ")";
+        return new Printer().toString(this);
     }
 
     /**
@@ -234,55 +413,54 @@ public class SExpression extends Node {
     }
 
     /**
-     * Grabs the address tokens as a copy list.
+     * Generates the address tokens.
      * 
      * @return
      */
     public List<String> getAddrTokens() {
-        return new ArrayList<String>(addrTokens);
+        return new ArrayList<String>(getAddr().tokens());
     }
 
     /**
-     * Grabs the data tokens as a copy list.
+     * Generates the data tokens.
      * 
      * @return
      */
     public List<String> getDataTokens() {
-        return new ArrayList<String>(dataTokens);
+        return new ArrayList<String>(getData().tokens());
     }
 
+    /**
+     * Grabs the structural hash of this S-Expression, which was computed when
+     * it was built.
+     */
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = super.hashCode();
-        result = prime * result + ((addr == null) ? 0 : addr.hashCode());
-        result = prime * result
-                + ((addrTokens == null) ? 0 : addrTokens.hashCode());
-        result = prime * result + ((data == null) ? 0 : data.hashCode());
-        result = prime * result
-                + ((dataTokens == null) ? 0 : dataTokens.hashCode());
-        return result;
+        return hash;
     }
 
+    /**
+     * Compares the structure of two S-Expressions, walking the cdr chains
+     * iteratively and stopping early on shared structure, or on differing
+     * hashes.
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
-        if (!super.equals(obj)) return false;
-        if (getClass() != obj.getClass()) return false;
-        SExpression other = (SExpression) obj;
-        if (addr == null) {
-            if (other.addr != null) return false;
-        } else if (!addr.equals(other.addr)) return false;
-        if (addrTokens == null) {
-            if (other.addrTokens != null) return false;
-        } else if (!addrTokens.equals(other.addrTokens)) return false;
-        if (data == null) {
-            if (other.data != null) return false;
-        } else if (!data.equals(other.data)) return false;
-        if (dataTokens == null) {
-            if (other.dataTokens != null) return false;
+        if (obj == null) return false;
+        if (!(obj instanceof SExpression)) return false;
+        if (hashCode() != obj.hashCode()) return false;
+        Node node = this, other = (Node) obj;
+        while (node instanceof SExpression && other instanceof SExpression) {
+            if (node == other) return true;
+            if (!((SExpression) node).getAddr().equals(
+                    ((SExpression) other).getAddr())) {
+                return false;
+            }
+            node = ((SExpression) node).getData();
+            other = ((SExpression) other).getData();
         }
-        return dataTokens.equals(other.dataTokens);
+        return node.equals(other);
     }
 
 }
@@ -0,0 +1,627 @@
+/**
+ * StackEvaluator.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import interpreter.parser.func.Function;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An evaluator which keeps its continuations on a stack of its own, in the
+ * heap, rather than on the Java stack, in the manner of a CEK machine. The
+ * control is the form being evaluated, or the value being returned; the
+ * environment is the {@link Environment}, with a {@link Frame} for each call
+ * in progress; and the continuation is a stack of what remains to be done
+ * with each value. The depth of recursion through user defined functions is
+ * therefore bounded by the heap rather than by the size of the thread stack,
+ * and a call in tail position reuses the frame of its caller.
+ * <p>
+ * The evaluator takes apart the forms which the
+ * {@link interpreter.parser.compile.Compiler} also compiles: calls of user
+ * defined functions, if, cond, and, or, not, eq, and the arithmetic and
+ * relational operators, whose arguments it evaluates once each, from left to
+ * right. When one of these meets values it does not handle, such as an
+ * argument which is not an integer, the form is handed to the recursive
+ * evaluator after all, which evaluates the arguments anew. Every other form
+ * is handed to the recursive evaluator at once, so a primitive which recurses
+ * over its arguments still does so on the Java stack.
+ * <p>
+ * Evaluation proceeds in steps, each of which starts a form, or hands a value
+ * to the continuation. It may stop after any number of steps and be resumed
+ * later, so that a long evaluation can be interleaved with other work. The
+ * frames of the calls in progress stay pushed in the Environment meanwhile,
+ * so no other evaluation may take place until it has finished.
+ * 
+ * @author Anand
+ *
+ */
+public final class StackEvaluator {
+
+	private static final int CALL = 0, IF = 1, COND = 2, AND = 3, OR = 4,
+			NOT = 5, EQ = 6, SUM = 7, DIFFERENCE = 8, PRODUCT = 9,
+			QUOTIENT = 10, LESS = 11, GREATER = 12, LEQ = 13, GEQ = 14,
+			OTHER = 15;
+
+	private final Environment env = Environment.getInstance();
+
+	// the control: the form to evaluate next, and whether to evaluate it
+	// literally, or else the value to hand to the continuation.
+	private Node control;
+	private boolean literal;
+	private Node value;
+	private boolean returning;
+
+	// the continuation, innermost last, and whether an evaluation is in
+	// progress.
+	private final List<Continuation> stack = new ArrayList<>();
+	private boolean running;
+
+	/**
+	 * Evaluates a top-level statement to completion.
+	 * 
+	 * @param statement
+	 *            the root Node of the statement.
+	 * @return the value, as the recursive evaluator would give it.
+	 */
+	public Node eval(Node statement) {
+		start(statement);
+		for (;;) {
+			if (step(Integer.MAX_VALUE)) {
+				return getResult();
+			}
+		}
+	}
+
+	/**
+	 * Starts evaluating a top-level statement, without taking any steps.
+	 * 
+	 * @param statement
+	 *            the root Node of the statement.
+	 * @throws IllegalStateException
+	 *             if another evaluation is in progress.
+	 * @see #step(int)
+	 */
+	public void start(Node statement) {
+		if (running) {
+			throw new IllegalStateException("An evaluation is in progress.");
+		}
+		running = true;
+		eval(statement, false);
+	}
+
+	/**
+	 * Takes up to a given number of steps of the evaluation in progress. If
+	 * anything is thrown, the evaluation is abandoned, and every frame it
+	 * pushed is popped.
+	 * 
+	 * @param steps
+	 *            the most steps to take.
+	 * @return true if the evaluation has finished.
+	 * @throws IllegalStateException
+	 *             if no evaluation was started.
+	 */
+	public boolean step(int steps) {
+		if (!running) {
+			throw new IllegalStateException("No evaluation in progress.");
+		}
+		try {
+			for (int i = 0; i < steps; i++) {
+				if (!returning) {
+					dispatch();
+				} else if (stack.isEmpty()) {
+					running = false;
+					return true;
+				} else {
+					stack.remove(stack.size() - 1).resume(this, value);
+				}
+			}
+			return false;
+		}
+		catch (RuntimeException | Error e) {
+			for (int i = stack.size() - 1; i >= 0; i--) {
+				if (stack.get(i) instanceof Return) {
+					env.pop();
+				}
+			}
+			stack.clear();
+			running = false;
+			throw e;
+		}
+	}
+
+	/**
+	 * Has the evaluation finished?
+	 * 
+	 * @return true if there is no evaluation in progress.
+	 */
+	public boolean isDone() {
+		return !running;
+	}
+
+	/**
+	 * Grabs the value of the last evaluation which finished.
+	 * 
+	 * @return the value.
+	 * @throws IllegalStateException
+	 *             if an evaluation is in progress.
+	 */
+	public Node getResult() {
+		if (running) {
+			throw new IllegalStateException("An evaluation is in progress.");
+		}
+		return value;
+	}
+
+	private void eval(Node form, boolean literal) {
+		this.control = form;
+		this.literal = literal;
+		this.returning = false;
+	}
+
+	private void give(Node value) {
+		this.value = value;
+		this.returning = true;
+	}
+
+	private void push(Continuation continuation) {
+		stack.add(continuation);
+	}
+
+	/**
+	 * Starts evaluating the control, as {@link SExpression#eval(boolean)}
+	 * would.
+	 */
+	private void dispatch() {
+		Node form = control;
+		if (!(form instanceof SExpression)) {
+			give(form.eval(literal));
+			return;
+		}
+		SExpression sexp = (SExpression) form;
+		Symbol operator = sexp.getOperator();
+		int arity = sexp.length() - 1;
+		int kind = operator == null || arity < 0 ? OTHER : env
+				.isDefinedF(operator) ? CALL : kind(operator);
+		Node args = sexp.getData();
+		switch (kind) {
+		case CALL:
+			call(env.getFunction(operator), sexp);
+			return;
+		case IF:
+			if (arity == 3) {
+				push(new If(sexp));
+				eval(sexp.nth(1), false);
+				return;
+			}
+			break;
+		case COND:
+			if (isClauses(args)) {
+				push(new Cond((SExpression) args));
+				eval(((SExpression) ((SExpression) args).getAddr())
+						.getAddr(), false);
+				return;
+			}
+			break;
+		case AND:
+		case OR:
+			if (arity > 0) {
+				push(new Logic(kind == AND ? NodeFactory.FALSE
+						: NodeFactory.TRUE, (SExpression) args));
+				eval(sexp.nth(1), true);
+				return;
+			}
+			break;
+		case NOT:
+			if (arity > 0) {
+				push(new Not(sexp, literal));
+				eval(sexp.nth(1), true);
+				return;
+			}
+			break;
+		case OTHER:
+			break;
+		default:
+			if ((kind == EQ ? arity == 2 : arity >= (kind >= LESS ? 2 : 1))
+					&& isPlain(args)) {
+				push(new Operands(sexp, literal, kind, arity));
+				eval(sexp.nth(1), true);
+				return;
+			}
+			break;
+		}
+		give(form.eval(literal));
+	}
+
+	/**
+	 * Starts a call of a user defined function, by evaluating its first
+	 * argument. Calls whose number of arguments is wrong are left to the
+	 * Function, which reports them.
+	 */
+	private void call(Function function, SExpression form) {
+		int count = function.getParams().size();
+		Node actuals = form.getData();
+		if (count == 0 && actuals == NodeFactory.FALSE) {
+			enter(function, new Node[0]);
+		} else if (count > 0 && actuals instanceof SExpression
+				&& ((SExpression) actuals).length() == count) {
+			push(new Call(function, (SExpression) actuals, new Node[count]));
+			eval(((SExpression) actuals).getAddr(), false);
+		} else {
+			give(form.eval(literal));
+		}
+	}
+
+	/**
+	 * Binds the arguments of a call, and starts evaluating the body. A call
+	 * whose value is returned at once, which is one in tail position, reuses
+	 * the frame of its caller.
+	 */
+	private void enter(Function function, Node[] values) {
+		if (!stack.isEmpty() && stack.get(stack.size() - 1) instanceof Return) {
+			env.replace(function.getParams(), values);
+		} else {
+			env.push(function.getParams(), values);
+			push(Return.INSTANCE);
+		}
+		eval(function.getBody(), true);
+	}
+
+	/**
+	 * Grabs the kind of form a primitive makes. Aliases are matched by the
+	 * name of their symbol, which is interned in upper case.
+	 */
+	private static int kind(Symbol operator) {
+		switch (operator.getName()) {
+		case "IF":
+			return IF;
+		case "COND":
+			return COND;
+		case "AND":
+			return AND;
+		case "OR":
+			return OR;
+		case "NOT":
+			return NOT;
+		case "EQ":
+		case "EQUALP":
+		case "=":
+			return EQ;
+		case "SUM":
+		case "+":
+			return SUM;
+		case "DIFFERENCE":
+		case "-":
+			return DIFFERENCE;
+		case "PRODUCT":
+		case "*":
+			return PRODUCT;
+		case "QUOTIENT":
+		case "/":
+			return QUOTIENT;
+		case "LESS":
+		case "<":
+			return LESS;
+		case "GREATER":
+		case ">":
+			return GREATER;
+		case "LEQ":
+		case "<=":
+			return LEQ;
+		case "GEQ":
+		case ">=":
+			return GEQ;
+		default:
+			return OTHER;
+		}
+	}
+
+	/**
+	 * Is the given list made of cond clauses, each with a test and a value?
+	 */
+	private static boolean isClauses(Node clauses) {
+		if (!(clauses instanceof SExpression)) {
+			return false;
+		}
+		for (Node node = clauses; node instanceof SExpression;) {
+			Node clause = ((SExpression) node).getAddr();
+			if (!(clause instanceof SExpression)
+					|| ((SExpression) clause).length() < 2) {
+				return false;
+			}
+			node = ((SExpression) node).getData();
+		}
+		return true;
+	}
+
+	/**
+	 * Are the given arguments of an operator ones whose single evaluation
+	 * agrees with the several evaluations the primitive makes? These are
+	 * atoms, and calls whose head is a symbol which the recursive evaluator
+	 * does not answer by itself.
+	 */
+	private static boolean isPlain(Node args) {
+		for (Node node = args; node instanceof SExpression;) {
+			Node arg = ((SExpression) node).getAddr();
+			if (arg instanceof SExpression) {
+				Node head = ((SExpression) arg).getAddr();
+				Symbol symbol = head instanceof SymbolAtom ? ((SymbolAtom) head)
+						.getSymbol() : null;
+				if (!arg.isList() || symbol == null || symbol == Symbol.T
+						|| symbol == Symbol.NIL || symbol == Symbol.LENGTH
+						|| symbol == Symbol.CAR || symbol == Symbol.CDR
+						|| symbol == Symbol.FIRST || symbol == Symbol.REST
+						|| symbol == Symbol.LAMBDA
+						|| symbol == Symbol.LAMBDA_SIGN) {
+					return false;
+				}
+			}
+			node = ((SExpression) node).getData();
+		}
+		return true;
+	}
+
+	/**
+	 * What remains to be done with the value of a form.
+	 */
+	private abstract static class Continuation {
+
+		/**
+		 * Takes the value of a form, and sets what the evaluator does next.
+		 */
+		abstract void resume(StackEvaluator e, Node value);
+	}
+
+	/**
+	 * Pops the frame of a call once its body has a value.
+	 */
+	private static final class Return extends Continuation {
+
+		static final Return INSTANCE = new Return();
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			e.env.pop();
+			e.give(value);
+		}
+	}
+
+	/**
+	 * Evaluates the arguments of a call of a user defined function, one at a
+	 * time, and then makes the call.
+	 */
+	private static final class Call extends Continuation {
+
+		private final Function function;
+		private final Node[] values;
+		private SExpression actuals;
+		private int index;
+
+		Call(Function function, SExpression actuals, Node[] values) {
+			this.function = function;
+			this.actuals = actuals;
+			this.values = values;
+		}
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			values[index++] = value;
+			if (index < values.length) {
+				actuals = (SExpression) actuals.getData();
+				e.push(this);
+				e.eval(actuals.getAddr(), false);
+			} else {
+				e.enter(function, values);
+			}
+		}
+	}
+
+	/**
+	 * Chooses the branch of an if once its test has a value, as the
+	 * primitive would.
+	 */
+	private static final class If extends Continuation {
+
+		private final SExpression form;
+
+		If(SExpression form) {
+			this.form = form;
+		}
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			if (value == null) {
+				e.give(null);
+				return;
+			}
+			// the primitive evaluates only the first branch literally.
+			boolean then = value.equals(NodeFactory.TRUE);
+			e.eval(form.nth(then ? 2 : 3), then);
+		}
+	}
+
+	/**
+	 * Tries the clauses of a cond in turn. When no test holds, the
+	 * primitive gives null.
+	 */
+	private static final class Cond extends Continuation {
+
+		private SExpression clauses;
+
+		Cond(SExpression clauses) {
+			this.clauses = clauses;
+		}
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			if (value == NodeFactory.TRUE) {
+				e.eval(((SExpression) clauses.getAddr()).nth(1), true);
+			} else if (clauses.getData() instanceof SExpression) {
+				clauses = (SExpression) clauses.getData();
+				e.push(this);
+				e.eval(((SExpression) clauses.getAddr()).getAddr(), false);
+			} else {
+				e.give(null);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the arguments of and, or or, until one of them is NIL, or T,
+	 * respectively.
+	 */
+	private static final class Logic extends Continuation {
+
+		private final Node stop;
+		private SExpression args;
+
+		Logic(Node stop, SExpression args) {
+			this.stop = stop;
+			this.args = args;
+		}
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			if (value == stop) {
+				e.give(stop);
+			} else if (args.getData() instanceof SExpression) {
+				args = (SExpression) args.getData();
+				e.push(this);
+				e.eval(args.getAddr(), true);
+			} else {
+				e.give(NodeFactory.makeNode(stop == NodeFactory.FALSE));
+			}
+		}
+	}
+
+	/**
+	 * Negates a boolean, or else hands the form to the recursive evaluator.
+	 */
+	private static final class Not extends Continuation {
+
+		private final SExpression form;
+		private final boolean literal;
+
+		Not(SExpression form, boolean literal) {
+			this.form = form;
+			this.literal = literal;
+		}
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			if (value == NodeFactory.TRUE) {
+				e.give(NodeFactory.FALSE);
+			} else if (value == NodeFactory.FALSE) {
+				e.give(NodeFactory.TRUE);
+			} else {
+				e.give(form.eval(literal));
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the arguments of eq, or of an arithmetic or relational
+	 * operator, one at a time, and then applies the operator.
+	 */
+	private static final class Operands extends Continuation {
+
+		private final SExpression form;
+		private final boolean literal;
+		private final int kind;
+		private final Node[] values;
+		private SExpression args;
+		private int index;
+
+		Operands(SExpression form, boolean literal, int kind, int arity) {
+			this.form = form;
+			this.literal = literal;
+			this.kind = kind;
+			this.values = new Node[arity];
+			this.args = (SExpression) form.getData();
+		}
+
+		@Override
+		void resume(StackEvaluator e, Node value) {
+			values[index++] = value;
+			if (index < values.length) {
+				args = (SExpression) args.getData();
+				e.push(this);
+				e.eval(args.getAddr(), true);
+				return;
+			}
+			Node result = kind == EQ ? eq() : integers() ? apply() : null;
+			e.give(result != null ? result : form.eval(literal));
+		}
+
+		/**
+		 * Compares two values, if the primitive would agree, which it does
+		 * when the second is a number or a boolean.
+		 */
+		private Node eq() {
+			Node a = values[0], b = values[1];
+			if (a == null || !(b instanceof Fixnum || b == NodeFactory.TRUE
+					|| b == NodeFactory.FALSE)) {
+				return null;
+			}
+			return NodeFactory.makeNode(a.equals(b));
+		}
+
+		private boolean integers() {
+			for (Node value : values) {
+				if (!(value instanceof Fixnum)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Folds arithmetic from the right, as the primitives do, or compares
+		 * each pair of neighbouring integers.
+		 */
+		private Node apply() {
+			long result = ((Fixnum) values[values.length - 1]).longValue();
+			for (int i = values.length - 2; i >= 0; i--) {
+				long a = ((Fixnum) values[i]).longValue();
+				switch (kind) {
+				case SUM:
+					result = a + result;
+					break;
+				case DIFFERENCE:
+					result = a - result;
+					break;
+				case PRODUCT:
+					result = a * result;
+					break;
+				case QUOTIENT:
+					if (result == 0) {
+						return null;
+					}
+					result = a / result;
+					break;
+				default:
+					if (!holds(a, ((Fixnum) values[i + 1]).longValue())) {
+						return NodeFactory.FALSE;
+					}
+					break;
+				}
+			}
+			return kind >= LESS ? NodeFactory.TRUE : NodeFactory
+					.makeNode(result);
+		}
+
+		private boolean holds(long a, long b) {
+			switch (kind) {
+			case LESS:
+				return a < b;
+			case GREATER:
+				return a > b;
+			case LEQ:
+				return a <= b;
+			default:
+				return a >= b;
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * StringAtom.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+/**
+ * A double quoted string atom. The quotes are kept as part of its text, so
+ * that it prints the way it was written.
+ * 
+ * @author Anand
+ *
+ */
+public final class StringAtom extends Atom {
+
+	private final String text;
+
+	/**
+	 * Creates a string atom.
+	 * 
+	 * @param text
+	 *            the string, quotes included.
+	 */
+	StringAtom(String text) {
+		this.text = text;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	@Override
+	public int hashCode() {
+		return text.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof StringAtom)) return false;
+		return text.equals(((StringAtom) obj).text);
+	}
+}
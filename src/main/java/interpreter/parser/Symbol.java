@@ -0,0 +1,137 @@
+/**
+ * Symbol.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonical representation of an identifier. Every identifier is interned
+ * exactly once into a global symbol table, which folds its case and assigns it
+ * a dense integer id. Two spellings of the same identifier therefore share one
+ * Symbol, and may be compared by identity.
+ * <p>
+ * Since ids are dense, tables keyed by symbols, such as the variable and
+ * function tables of the {@link Environment}, are plain arrays indexed by id.
+ * 
+ * @author Anand
+ *
+ */
+public final class Symbol {
+
+	private static final ConcurrentMap<String, Symbol> SPELLINGS = new ConcurrentHashMap<>();
+	private static final Map<String, Symbol> NAMES = new HashMap<>();
+	private static volatile Symbol[] byId = new Symbol[256];
+	private static int count = 0;
+
+	public static final Symbol T = intern("T");
+	public static final Symbol NIL = intern("NIL");
+	public static final Symbol LAMBDA = intern("lambda");
+	public static final Symbol LAMBDA_SIGN = intern("λ");
+	public static final Symbol LENGTH = intern("length");
+	public static final Symbol CAR = intern("car");
+	public static final Symbol CDR = intern("cdr");
+	public static final Symbol FIRST = intern("first");
+	public static final Symbol REST = intern("rest");
+
+	private final String name;
+	private final int id;
+
+	private Symbol(String name, int id) {
+		this.name = name;
+		this.id = id;
+	}
+
+	/**
+	 * Grabs the canonical Symbol for an identifier, creating it if this is the
+	 * first time the identifier has been seen. Spellings which have been seen
+	 * before are resolved without folding their case again.
+	 * 
+	 * @param spelling
+	 *            the identifier as it was written.
+	 * @return the interned Symbol.
+	 */
+	public static Symbol intern(String spelling) {
+		Symbol symbol = SPELLINGS.get(spelling);
+		if (symbol == null) {
+			String name = spelling.toUpperCase(Locale.ROOT);
+			synchronized (NAMES) {
+				symbol = NAMES.get(name);
+				if (symbol == null) {
+					symbol = new Symbol(name, count);
+					NAMES.put(name, symbol);
+					Symbol[] table = byId;
+					if (count == table.length) {
+						table = Arrays.copyOf(table, count * 2);
+					}
+					table[count++] = symbol;
+					byId = table;
+				}
+			}
+			SPELLINGS.putIfAbsent(spelling, symbol);
+		}
+		return symbol;
+	}
+
+	/**
+	 * Grabs the symbol with the given id.
+	 * 
+	 * @param id
+	 *            an id handed out by {@link #intern(String)}.
+	 * @return the interned Symbol.
+	 * @throws IndexOutOfBoundsException
+	 *             if no symbol has the given id.
+	 */
+	public static Symbol forId(int id) {
+		Symbol symbol = id >= 0 && id < byId.length ? byId[id] : null;
+		if (symbol == null) {
+			throw new IndexOutOfBoundsException("No symbol has the id " + id);
+		}
+		return symbol;
+	}
+
+	/**
+	 * Grabs the number of symbols interned so far. Every id is below this
+	 * count.
+	 * 
+	 * @return the symbol count.
+	 */
+	public static int count() {
+		synchronized (NAMES) {
+			return count;
+		}
+	}
+
+	/**
+	 * Grabs the dense id of this symbol.
+	 * 
+	 * @return an int id.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Grabs the case folded name of this symbol.
+	 * 
+	 * @return the canonical name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
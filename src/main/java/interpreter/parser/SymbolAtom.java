@@ -0,0 +1,70 @@
+/**
+ * SymbolAtom.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+/**
+ * An identifier atom, backed by its interned {@link Symbol}. The atom keeps
+ * the spelling it was written with for printing, but two symbol atoms are
+ * equal whenever they share a Symbol, regardless of case.
+ * 
+ * @author Anand
+ *
+ */
+public final class SymbolAtom extends Atom {
+
+	private final String spelling;
+	private final Symbol symbol;
+
+	// the inline cache of the calls this atom heads, or null until one of
+	// them is made.
+	CallSite site;
+
+	/**
+	 * Creates a symbol atom.
+	 * 
+	 * @param spelling
+	 *            the identifier as it was written.
+	 * @param symbol
+	 *            the interned Symbol of the spelling.
+	 */
+	SymbolAtom(String spelling, Symbol symbol) {
+		this.spelling = spelling;
+		this.symbol = symbol;
+	}
+
+	/**
+	 * Evaluates this atom to the value of its variable, or to itself if it is
+	 * not a bound variable.
+	 */
+	@Override
+	public Node eval() {
+		Environment env = Environment.getInstance();
+		if (env.isDefinedV(symbol)) {
+			return env.getVariableValue(symbol);
+		}
+		return this;
+	}
+
+	@Override
+	public Symbol getSymbol() {
+		return symbol;
+	}
+
+	@Override
+	public String toString() {
+		return spelling;
+	}
+
+	@Override
+	public int hashCode() {
+		return symbol.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof SymbolAtom)) return false;
+		return symbol == ((SymbolAtom) obj).symbol;
+	}
+}
@@ -3,6 +3,10 @@
  */
 package interpreter.parser;
 
+import interpreter.parser.compile.Machine;
+import interpreter.parser.compile.Optimizer;
+
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -17,17 +21,76 @@ public final class Tree {
 	private final Node root;
 
 	/**
-	 * Constructs a Tree from a list of tokens, by initializing the root node.
+	 * Constructs a Tree from the tokens of a statement, by reading the root
+	 * node.
 	 * 
 	 * @param outer
 	 *            a List of Strings.
+	 * @see NodeReader#read(List)
 	 */
 	Tree(List<String> outer) {
-		root = NodeFactory.makeNode(outer);
+		root = NodeReader.read(outer);
+	}
+
+	/**
+	 * Constructs a Tree around an already built root node.
+	 * 
+	 * @param root
+	 *            the Node of the statement.
+	 */
+	Tree(Node root) {
+		this.root = root;
+	}
+
+	Node getRoot() {
+		return root;
 	}
 
-	String eval() {
-		return root.eval().toString();
+	/**
+	 * Evaluates the root node, on the Machine if it is enabled, and prints
+	 * the result.
+	 * 
+	 * @param printer
+	 *            the Printer to print the result with.
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @throws IOException
+	 *             if an I/O error occurs from the Appendable object.
+	 */
+	void eval(Printer printer, Appendable output) throws IOException {
+		eval(printer, output, null);
+	}
+
+	/**
+	 * Evaluates the root node with the given evaluator, and prints the
+	 * result. The root node is optimized first if the Optimizer is enabled.
+	 * 
+	 * @param printer
+	 *            the Printer to print the result with.
+	 * @param output
+	 *            a valid Appendable instance.
+	 * @param evaluator
+	 *            the StackEvaluator, or null to evaluate recursively.
+	 * @throws IOException
+	 *             if an I/O error occurs from the Appendable object.
+	 */
+	void eval(Printer printer, Appendable output, StackEvaluator evaluator)
+			throws IOException {
+		Node form = root;
+		if (Optimizer.isEnabled()) {
+			form = Optimizer.optimize(root);
+			Appendable listing = Optimizer.getListing();
+			if (listing != null) {
+				listing.append(form.toString()).append('\n');
+			}
+		}
+		Node value;
+		if (evaluator != null) {
+			value = evaluator.eval(form);
+		} else {
+			value = Machine.isEnabled() ? Machine.run(form) : form.eval();
+		}
+		printer.print(value, output);
 	}
 
 	@Override
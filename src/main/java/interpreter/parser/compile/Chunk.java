@@ -0,0 +1,62 @@
+/**
+ * Chunk.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.parser.Node;
+
+import java.util.List;
+
+/**
+ * A unit of bytecode for the {@link Machine}: the instructions of a function
+ * body or of a top-level statement, as a flat array of opcodes each followed
+ * by its operands, together with the constants they refer to by index.
+ * 
+ * @author Anand
+ *
+ */
+public final class Chunk {
+
+	final int[] code;
+	final Object[] constants;
+
+	// the form the bytecode was made from, and how the interpreter would
+	// evaluate it, for when the bytecode cannot go on.
+	final Node form;
+	final boolean literal;
+
+	Chunk(int[] code, Object[] constants, Node form, boolean literal) {
+		this.code = code;
+		this.constants = constants;
+		this.form = form;
+		this.literal = literal;
+	}
+
+	/**
+	 * Grabs the number of ints of bytecode in this chunk.
+	 * 
+	 * @return the length of the code.
+	 */
+	public int size() {
+		return code.length;
+	}
+
+	/**
+	 * Adds every Node this chunk holds on to, to the given list: its form,
+	 * the Nodes among its constants, and those of the Code its constants
+	 * call back into.
+	 * 
+	 * @param nodes
+	 *            the list of live Nodes.
+	 */
+	public void addLiveNodes(List<Node> nodes) {
+		nodes.add(form);
+		for (Object constant : constants) {
+			if (constant instanceof Node) {
+				nodes.add((Node) constant);
+			} else if (constant instanceof Code) {
+				((Code) constant).addLiveNodes(nodes);
+			}
+		}
+	}
+}
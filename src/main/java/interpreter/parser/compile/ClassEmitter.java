@@ -0,0 +1,688 @@
+/**
+ * ClassEmitter.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a JVM class file, from static fields and static methods whose
+ * instructions are emitted one at a time. Only the instructions the
+ * {@link Jit} needs are supported.
+ * <p>
+ * Each method keeps track of the types on its operand stack as instructions
+ * are emitted, so that the maximum stack depth and a full stack map frame for
+ * every branch target can be written without a separate analysis.
+ * 
+ * @author Anand
+ *
+ */
+final class ClassEmitter {
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	static final int ACONST_NULL = 0x01;
+	static final int AALOAD = 0x32;
+	static final int AASTORE = 0x53;
+	static final int POP = 0x57;
+	static final int DUP = 0x59;
+	static final int LADD = 0x61;
+	static final int LSUB = 0x65;
+	static final int LMUL = 0x69;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IF_ACMPEQ = 0xa5;
+	static final int GOTO = 0xa7;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESTATIC = 0xb8;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// class files of Java 8, the first version which a JVM must verify by
+	// stack map frames alone.
+	private static final int MAJOR_VERSION = 52;
+
+	private final String name;
+	private final String superName;
+	private final Map<String, Integer> constants = new HashMap<>();
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private int poolCount = 1;
+	private final List<byte[]> fields = new ArrayList<>();
+	private final List<MethodEmitter> methods = new ArrayList<>();
+
+	/**
+	 * Starts a class.
+	 * 
+	 * @param name
+	 *            the internal name of the class, such as {@code a/b/C}.
+	 * @param superName
+	 *            the internal name of its superclass.
+	 */
+	ClassEmitter(String name, String superName) {
+		this.name = name;
+		this.superName = superName;
+	}
+
+	/**
+	 * Adds a field.
+	 * 
+	 * @param access
+	 *            the access flags.
+	 * @param fieldName
+	 *            the name of the field.
+	 * @param descriptor
+	 *            the type descriptor of the field.
+	 */
+	void field(int access, String fieldName, String descriptor) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(fieldName));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		fields.add(bytes.toByteArray());
+	}
+
+	/**
+	 * Adds a static method, whose instructions are emitted through the
+	 * returned MethodEmitter.
+	 * 
+	 * @param access
+	 *            the access flags, which must include ACC_STATIC.
+	 * @param methodName
+	 *            the name of the method.
+	 * @param descriptor
+	 *            the method descriptor.
+	 * @return a MethodEmitter.
+	 */
+	MethodEmitter method(int access, String methodName, String descriptor) {
+		MethodEmitter method = new MethodEmitter(access, methodName,
+				descriptor);
+		methods.add(method);
+		return method;
+	}
+
+	/**
+	 * Writes the class file.
+	 * 
+	 * @return the bytes of the class file.
+	 */
+	byte[] toByteArray() {
+		int thisClass = classRef(name), superClass = classRef(superName);
+		List<byte[]> methodBytes = new ArrayList<>();
+		for (MethodEmitter method : methods) {
+			methodBytes.add(method.toByteArray());
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			out.writeShort(fields.size());
+			for (byte[] field : fields) {
+				out.write(field);
+			}
+			out.writeShort(methodBytes.size());
+			for (byte[] method : methodBytes) {
+				out.write(method);
+			}
+			out.writeShort(0);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Grabs the index of a constant, adding it to the pool if it is new.
+	 */
+	private int constant(String key, int tag, Object... parts) {
+		Integer index = constants.get(key);
+		if (index != null) {
+			return index;
+		}
+		DataOutputStream out = new DataOutputStream(pool);
+		try {
+			out.writeByte(tag);
+			for (Object part : parts) {
+				if (part instanceof String) {
+					out.writeUTF((String) part);
+				} else if (tag == CONSTANT_INTEGER) {
+					out.writeInt((Integer) part);
+				} else {
+					out.writeShort((Integer) part);
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		constants.put(key, poolCount);
+		return poolCount++;
+	}
+
+	private int utf8(String value) {
+		return constant("U" + value, CONSTANT_UTF8, value);
+	}
+
+	private int classRef(String internalName) {
+		return constant("C" + internalName, CONSTANT_CLASS,
+				utf8(internalName));
+	}
+
+	private int memberRef(int tag, String owner, String member,
+			String descriptor) {
+		int nameAndType = constant("N" + member + ' ' + descriptor,
+				CONSTANT_NAME_AND_TYPE, utf8(member), utf8(descriptor));
+		return constant(tag + owner + '.' + member + ' ' + descriptor, tag,
+				classRef(owner), nameAndType);
+	}
+
+	/**
+	 * A position in the code of a method, which branches may jump to before
+	 * it has been placed.
+	 */
+	static final class Label {
+
+		private int offset = -1;
+		private List<String> stack;
+		private final List<int[]> fixups = new ArrayList<>();
+	}
+
+	/**
+	 * Emits the instructions of a static method.
+	 */
+	final class MethodEmitter {
+
+		private final int access;
+		private final String methodName;
+		private final String descriptor;
+		private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		private final List<String> locals = new ArrayList<>();
+		private List<String> stack = new ArrayList<>();
+		private int stackSlots, maxStack;
+		private boolean reachable = true;
+		private final TreeMap<Integer, String[][]> frames = new TreeMap<>();
+		private final List<Label[]> handlers = new ArrayList<>();
+		private final List<Integer> handlerTypes = new ArrayList<>();
+		private final List<Label> labels = new ArrayList<>();
+		private byte[] bytes;
+
+		private MethodEmitter(int access, String methodName, String descriptor) {
+			this.access = access;
+			this.methodName = methodName;
+			this.descriptor = descriptor;
+			for (String type : parameters(descriptor)) {
+				setLocal(locals.size(), type);
+			}
+		}
+
+		/**
+		 * Loads a reference from a local variable.
+		 *
+		 * @param index
+		 *            the index of the local.
+		 */
+		void aload(int index) {
+			op(0x19, index);
+			push(locals.get(index));
+		}
+
+		/**
+		 * Stores a reference into a local variable.
+		 *
+		 * @param index
+		 *            the index of the local.
+		 * @param type
+		 *            the descriptor of the type the local holds from now on.
+		 */
+		void astore(int index, String type) {
+			op(0x3a, index);
+			pop(1);
+			setLocal(index, type);
+		}
+
+		/**
+		 * Pushes a constant int.
+		 *
+		 * @param value
+		 *            the int.
+		 */
+		void iconst(int value) {
+			if (value >= -1 && value <= 5) {
+				emit(0x03 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				emit(0x10);
+				emit(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				emit(0x11);
+				emitShort(value);
+			} else {
+				ldc(constant("I" + value, CONSTANT_INTEGER, value));
+			}
+			push("I");
+		}
+
+		/**
+		 * Pushes a constant Class.
+		 *
+		 * @param internalName
+		 *            the internal name of the class, or an array descriptor.
+		 */
+		void ldcClass(String internalName) {
+			ldc(classRef(internalName));
+			push("Ljava/lang/Class;");
+		}
+
+		/**
+		 * Emits an instruction with no operands.
+		 *
+		 * @param opcode
+		 *            the instruction.
+		 * @param pops
+		 *            the number of values it takes from the stack.
+		 * @param push
+		 *            the descriptor of the value it leaves, or null.
+		 */
+		void insn(int opcode, int pops, String push) {
+			emit(opcode);
+			pop(pops);
+			if (push != null) {
+				push(push);
+			}
+		}
+
+		/**
+		 * Loads a static field.
+		 */
+		void getstatic(String owner, String field, String type) {
+			emit(0xb2);
+			emitShort(memberRef(CONSTANT_FIELDREF, owner, field, type));
+			push(type);
+		}
+
+		/**
+		 * Stores a static field.
+		 */
+		void putstatic(String owner, String field, String type) {
+			emit(0xb3);
+			emitShort(memberRef(CONSTANT_FIELDREF, owner, field, type));
+			pop(1);
+		}
+
+		/**
+		 * Invokes a method of a class.
+		 *
+		 * @param opcode
+		 *            INVOKESTATIC or INVOKEVIRTUAL.
+		 */
+		void invoke(int opcode, String owner, String method, String type) {
+			emit(opcode);
+			emitShort(memberRef(CONSTANT_METHODREF, owner, method, type));
+			pop(parameters(type).size() + (opcode == INVOKESTATIC ? 0 : 1));
+			String result = type.substring(type.indexOf(')') + 1);
+			if (!result.equals("V")) {
+				push(result.equals("Z") ? "I" : result);
+			}
+		}
+
+		/**
+		 * Casts the reference on top of the stack.
+		 *
+		 * @param internalName
+		 *            the internal name of the class, or an array descriptor.
+		 */
+		void checkcast(String internalName) {
+			emit(0xc0);
+			emitShort(classRef(internalName));
+			pop(1);
+			push(internalName.startsWith("[") ? internalName : "L"
+					+ internalName + ";");
+		}
+
+		/**
+		 * Creates an array of references, whose length is on top of the
+		 * stack.
+		 */
+		void anewarray(String internalName) {
+			emit(0xbd);
+			emitShort(classRef(internalName));
+			pop(1);
+			push("[L" + internalName + ";");
+		}
+
+		/**
+		 * Returns the reference on top of the stack.
+		 */
+		void areturn() {
+			insn(0xb0, 1, null);
+			reachable = false;
+		}
+
+		/**
+		 * Returns from a void method.
+		 */
+		void vreturn() {
+			insn(0xb1, 0, null);
+			reachable = false;
+		}
+
+		/**
+		 * Throws the Throwable on top of the stack.
+		 */
+		void athrow() {
+			insn(0xbf, 1, null);
+			reachable = false;
+		}
+
+		/**
+		 * Emits a branch.
+		 *
+		 * @param opcode
+		 *            IFEQ, IFNE, IF_ACMPEQ or GOTO.
+		 * @param label
+		 *            the target.
+		 */
+		void jump(int opcode, Label label) {
+			int start = code.size();
+			emit(opcode);
+			emitShort(0);
+			pop(opcode == GOTO ? 0 : opcode == IF_ACMPEQ ? 2 : 1);
+			label.fixups.add(new int[] { start, start + 1 });
+			labels.add(label);
+			if (label.stack == null) {
+				label.stack = new ArrayList<>(stack);
+			}
+			if (opcode == GOTO) {
+				reachable = false;
+			}
+		}
+
+		/**
+		 * Places a label at the current position. The stack there is the one
+		 * which the code before it falls through with, or else the one of the
+		 * branches to it. A label which follows unreachable code, and which
+		 * nothing jumps to, only records a position.
+		 *
+		 * @param label
+		 *            the label.
+		 */
+		void mark(Label label) {
+			if (!reachable && label.stack == null) {
+				// nothing jumps here, so the label only records a position.
+				label.offset = code.size();
+				return;
+			} else if (!reachable) {
+				stack = new ArrayList<>(label.stack);
+				stackSlots = slots(stack);
+				reachable = true;
+			}
+			label.offset = code.size();
+			frames.put(label.offset, new String[][] {
+					locals.toArray(new String[0]),
+					stack.toArray(new String[0]) });
+		}
+
+		/**
+		 * Covers a range of the code with the handler of an exception.
+		 * Ranges are tried in the order they are added.
+		 *
+		 * @param handler
+		 *            the label of the handler.
+		 * @param start
+		 *            the first instruction the handler covers.
+		 * @param end
+		 *            the instruction after the last one it covers.
+		 * @param type
+		 *            the internal name of the exception class, or null for
+		 *            any Throwable.
+		 */
+		void handler(Label handler, Label start, Label end, String type) {
+			handlers.add(new Label[] { start, end, handler });
+			handlerTypes.add(type == null ? 0 : classRef(type));
+		}
+
+		/**
+		 * Places the handler of an exception, where the stack holds only the
+		 * exception.
+		 *
+		 * @param label
+		 *            the label of the handler.
+		 * @param type
+		 *            the internal name of the exception class, or null for
+		 *            any Throwable.
+		 */
+		void markHandler(Label label, String type) {
+			label.stack = Arrays.asList("L"
+					+ (type == null ? "java/lang/Throwable" : type) + ";");
+			reachable = false;
+			mark(label);
+		}
+
+		private byte[] toByteArray() {
+			if (bytes != null) {
+				return bytes;
+			}
+			byte[] instructions = code.toByteArray();
+			for (Label label : labels) {
+				resolve(label, instructions);
+			}
+			if (instructions.length > Short.MAX_VALUE) {
+				throw new IllegalStateException("Method too large : "
+						+ methodName);
+			}
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(result);
+			try {
+				byte[] stackMap = stackMap();
+				out.writeShort(access);
+				out.writeShort(utf8(methodName));
+				out.writeShort(utf8(descriptor));
+				out.writeShort(1);
+				out.writeShort(utf8("Code"));
+				out.writeInt(12 + instructions.length + 8 * handlers.size()
+						+ (stackMap == null ? 0 : 6 + stackMap.length));
+				out.writeShort(maxStack);
+				out.writeShort(locals.size());
+				out.writeInt(instructions.length);
+				out.write(instructions);
+				out.writeShort(handlers.size());
+				for (int i = 0; i < handlers.size(); i++) {
+					for (Label label : handlers.get(i)) {
+						out.writeShort(label.offset);
+					}
+					out.writeShort(handlerTypes.get(i));
+				}
+				if (stackMap == null) {
+					out.writeShort(0);
+				} else {
+					out.writeShort(1);
+					out.writeShort(utf8("StackMapTable"));
+					out.writeInt(stackMap.length);
+					out.write(stackMap);
+				}
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return bytes = result.toByteArray();
+		}
+
+		/**
+		 * Writes a full frame for every label.
+		 */
+		private byte[] stackMap() throws IOException {
+			if (frames.isEmpty()) {
+				return null;
+			}
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(result);
+			out.writeShort(frames.size());
+			int previous = -1;
+			for (Map.Entry<Integer, String[][]> frame : frames.entrySet()) {
+				out.writeByte(255);
+				out.writeShort(frame.getKey() - previous - 1);
+				previous = frame.getKey();
+				String[][] value = frame.getValue();
+				for (int part = 0; part < value.length; part++) {
+					// a wide local takes up two slots, but one entry.
+					String[] types = value[part];
+					List<String> entries = new ArrayList<>();
+					for (int i = 0; i < types.length; i++) {
+						entries.add(types[i]);
+						if (part == 0 && isWide(types[i])) {
+							i++;
+						}
+					}
+					out.writeShort(entries.size());
+					for (String type : entries) {
+						verificationType(out, type);
+					}
+				}
+			}
+			return result.toByteArray();
+		}
+
+		private void verificationType(DataOutputStream out, String type)
+				throws IOException {
+			if (type == null) {
+				out.writeByte(0);
+			} else if (type.equals("I")) {
+				out.writeByte(1);
+			} else if (type.equals("J")) {
+				out.writeByte(4);
+			} else {
+				out.writeByte(7);
+				out.writeShort(classRef(type.startsWith("[") ? type : type
+						.substring(1, type.length() - 1)));
+			}
+		}
+
+		private void setLocal(int index, String type) {
+			while (locals.size() <= index + (isWide(type) ? 1 : 0)) {
+				locals.add(null);
+			}
+			locals.set(index, type);
+		}
+
+		private void ldc(int index) {
+			if (index < 256) {
+				emit(0x12);
+				emit(index);
+			} else {
+				emit(0x13);
+				emitShort(index);
+			}
+		}
+
+		private void op(int opcode, int index) {
+			if (index < 256) {
+				emit(opcode);
+				emit(index);
+			} else {
+				emit(0xc4);
+				emit(opcode);
+				emitShort(index);
+			}
+		}
+
+		private void push(String type) {
+			stack.add(type);
+			stackSlots += isWide(type) ? 2 : 1;
+			maxStack = Math.max(maxStack, stackSlots);
+		}
+
+		private void pop(int count) {
+			for (int i = 0; i < count; i++) {
+				String type = stack.remove(stack.size() - 1);
+				stackSlots -= isWide(type) ? 2 : 1;
+			}
+		}
+
+		private void emit(int value) {
+			code.write(value);
+		}
+
+		private void emitShort(int value) {
+			code.write(value >>> 8);
+			code.write(value);
+		}
+
+		/**
+		 * Patches the branches to a label, once the code is complete.
+		 */
+		private void resolve(Label label, byte[] instructions) {
+			if (label.offset < 0) {
+				throw new IllegalStateException("Label was never placed");
+			}
+			for (int[] fixup : label.fixups) {
+				int delta = label.offset - fixup[0];
+				instructions[fixup[1]] = (byte) (delta >>> 8);
+				instructions[fixup[1] + 1] = (byte) delta;
+			}
+		}
+	}
+
+	private static boolean isWide(String type) {
+		return "J".equals(type) || "D".equals(type);
+	}
+
+	private static int slots(List<String> types) {
+		int count = 0;
+		for (String type : types) {
+			count += isWide(type) ? 2 : 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Splits a method descriptor into the descriptors of its parameters.
+	 */
+	private static List<String> parameters(String descriptor) {
+		List<String> result = new ArrayList<>();
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			int start = i;
+			while (descriptor.charAt(i) == '[') {
+				i++;
+			}
+			if (descriptor.charAt(i) == 'L') {
+				i = descriptor.indexOf(';', i);
+			}
+			i++;
+			String type = descriptor.substring(start, i);
+			result.add(type.equals("Z") ? "I" : type);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,846 @@
+/**
+ * Code.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.parser.Environment;
+import interpreter.parser.Fixnum;
+import interpreter.parser.Node;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.Symbol;
+import interpreter.parser.SymbolAtom;
+import interpreter.parser.compile.ClassEmitter.Label;
+import interpreter.parser.compile.ClassEmitter.MethodEmitter;
+import interpreter.parser.func.Function;
+import interpreter.parser.func.TailCall;
+
+import java.util.List;
+
+/**
+ * An executable form of a Node, made by the {@link Compiler}. How a form is
+ * evaluated is decided once, when it is compiled, so that executing it only
+ * does the work specific to that form: a constant returns itself, a variable
+ * looks up its value, and a call evaluates its arguments and invokes its
+ * function without inspecting its head again.
+ * <p>
+ * Compiled code assumes the common case. Whenever it meets a value which the
+ * interpreter would treat in some unusual way, such as a head symbol which is
+ * bound as a variable, or an argument of the wrong type, it throws
+ * {@link Deopt}, and the whole function body is interpreted instead.
+ * 
+ * @author Anand
+ *
+ */
+public abstract class Code {
+
+	/**
+	 * Evaluates this code.
+	 * 
+	 * @return the value, or null where the interpreter gives null.
+	 * @throws Deopt
+	 *             if the form must be interpreted instead.
+	 */
+	public abstract Node exec();
+
+	/**
+	 * Emits bytecode which evaluates this code, and leaves its value on the
+	 * stack. By default, the bytecode calls back into this very node.
+	 *
+	 * @param a
+	 *            the Assembler of the method being compiled.
+	 * @throws Deopt
+	 *             from the bytecode, if the form must be interpreted instead.
+	 */
+	void emit(Jit.Assembler a) {
+		a.exec(this);
+	}
+
+	/**
+	 * Assembles bytecode for the {@link Machine} which evaluates this code,
+	 * and leaves its value on the operand stack. By default, the bytecode
+	 * calls back into this very node.
+	 *
+	 * @param a
+	 *            the Assembler of the chunk being assembled.
+	 * @param tail
+	 *            whether the value is returned from the function at once.
+	 */
+	void assemble(Machine.Assembler a, boolean tail) {
+		a.exec(this);
+	}
+
+	/**
+	 * Adds every Node this code holds on to, such as its constants and the
+	 * forms it leaves to the interpreter, to the given list. The cons heap
+	 * keeps them across a collection, as it does the body of the function.
+	 * 
+	 * @param nodes
+	 *            the list of live Nodes.
+	 */
+	public void addLiveNodes(List<Node> nodes) {
+	}
+
+	/**
+	 * Adds the live Nodes of each of the given codes.
+	 */
+	static void addLiveNodes(Code[] codes, List<Node> nodes) {
+		for (Code code : codes) {
+			code.addLiveNodes(nodes);
+		}
+	}
+
+	/**
+	 * Thrown by compiled code which cannot reproduce the interpreter for the
+	 * values at hand. It carries no stack trace, as it is thrown for control
+	 * flow.
+	 */
+	public static final class Deopt extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		static final Deopt INSTANCE = new Deopt();
+
+		private Deopt() {
+			super("Deoptimized", null, false, false);
+		}
+	}
+
+	/**
+	 * A self-evaluating atom, or a quoted form.
+	 */
+	static final class Const extends Code {
+
+		private final Node value;
+
+		Const(Node value) {
+			this.value = value;
+		}
+
+		@Override
+		public Node exec() {
+			return value;
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			a.constant(value, Jit.NODE);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.emit(Machine.CONST, a.constant(value));
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			nodes.add(value);
+		}
+	}
+
+	/**
+	 * A symbol, which evaluates to its value if it is bound, and to itself
+	 * otherwise.
+	 */
+	static final class VarRef extends Code {
+
+		private final SymbolAtom atom;
+		private final Symbol symbol;
+
+		VarRef(SymbolAtom atom) {
+			this.atom = atom;
+			this.symbol = atom.getSymbol();
+		}
+
+		@Override
+		public Node exec() {
+			Environment env = Environment.getInstance();
+			return env.isDefinedV(symbol) ? env.getVariableValue(symbol) : atom;
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			a.constant(symbol, Jit.SYMBOL);
+			a.constant(atom, Jit.NODE);
+			a.helper("var", "(" + Jit.SYMBOL + Jit.NODE + ")" + Jit.NODE);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.emit(Machine.VAR, a.constant(atom));
+		}
+	}
+
+	/**
+	 * A parameter of the function being compiled, which is loaded from its
+	 * slot in the frame of the call rather than looked up by name. Like a
+	 * variable, it evaluates to itself if it is unbound.
+	 */
+	static final class Local extends Code {
+
+		private final SymbolAtom atom;
+		private final int slot;
+
+		Local(SymbolAtom atom, int slot) {
+			this.atom = atom;
+			this.slot = slot;
+		}
+
+		@Override
+		public Node exec() {
+			Node value = Environment.getInstance().getFrame().get(slot);
+			return value != null ? value : atom;
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			a.m.iconst(slot);
+			a.constant(atom, Jit.NODE);
+			a.helper("local", "(I" + Jit.NODE + ")" + Jit.NODE);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.emit(Machine.LOCAL, slot, a.constant(atom));
+		}
+	}
+
+	/**
+	 * A form which is left to the interpreter.
+	 */
+	static final class Interpret extends Code {
+
+		private final Node form;
+		private final boolean literal;
+
+		Interpret(Node form, boolean literal) {
+			this.form = form;
+			this.literal = literal;
+		}
+
+		@Override
+		public Node exec() {
+			return form.eval(literal);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			nodes.add(form);
+		}
+	}
+
+	/**
+	 * A call of a function whose head is known. The head must not be bound
+	 * as a variable when the call is made, since the interpreter would then
+	 * call its value instead.
+	 */
+	abstract static class Call extends Code {
+
+		final Symbol head;
+
+		Call(Symbol head) {
+			this.head = head;
+		}
+
+		@Override
+		public final Node exec() {
+			if (Environment.getInstance().isDefinedV(head)) {
+				throw Deopt.INSTANCE;
+			}
+			return call();
+		}
+
+		abstract Node call();
+	}
+
+	/**
+	 * A call of a primitive which has no compiled form of its own. The
+	 * primitive still receives its arguments unevaluated.
+	 */
+	static final class PrimCall extends Call {
+
+		private final Node args;
+
+		PrimCall(Symbol head, Node args) {
+			super(head);
+			this.args = args;
+		}
+
+		@Override
+		Node call() {
+			return Environment.getInstance().invokePrim(head, args);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			a.emit(Machine.PRIM, a.primitive(head), a.constant(args));
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			nodes.add(args);
+		}
+	}
+
+	/**
+	 * A call of a user defined function. The function is looked up on every
+	 * call, so that redefining it takes effect at once. A call in tail
+	 * position gives a TailCall instead, which the function it returns from
+	 * makes.
+	 */
+	static final class FuncCall extends Call {
+
+		private final Code[] args;
+		private final boolean tail;
+
+		FuncCall(Symbol head, Code[] args, boolean tail) {
+			super(head);
+			this.args = args;
+			this.tail = tail;
+		}
+
+		@Override
+		Node call() {
+			Function function = Environment.getInstance().getFunction(head);
+			if (function == null) {
+				return null;
+			} else if (function.getParams().size() != args.length) {
+				throw Deopt.INSTANCE;
+			}
+			Node[] values = new Node[args.length];
+			for (int i = 0; i < args.length; i++) {
+				values[i] = args[i].exec();
+			}
+			return tail ? new TailCall(function, values) : function
+					.call(values);
+		}
+
+		/**
+		 * Calls the function through its call site, unless it is undefined.
+		 * In tail position, the arguments are collected into a TailCall
+		 * instead.
+		 */
+		@Override
+		void emit(Jit.Assembler a) {
+			MethodEmitter m = a.m;
+			Label call = a.label(), end = a.label();
+			a.guard(head);
+			a.constant(head, Jit.SYMBOL);
+			m.iconst(args.length);
+			a.helper("callee", "(" + Jit.SYMBOL + "I)Z");
+			m.jump(ClassEmitter.IFNE, call);
+			m.insn(ClassEmitter.ACONST_NULL, 0, Jit.NODE);
+			m.jump(ClassEmitter.GOTO, end);
+			m.mark(call);
+			if (tail) {
+				a.constant(head, Jit.SYMBOL);
+				m.iconst(args.length);
+				m.anewarray("interpreter/parser/Node");
+				for (int i = 0; i < args.length; i++) {
+					m.insn(ClassEmitter.DUP, 0, "[" + Jit.NODE);
+					m.iconst(i);
+					args[i].emit(a);
+					m.insn(ClassEmitter.AASTORE, 3, null);
+				}
+				a.helper("tail", "(" + Jit.SYMBOL + "[" + Jit.NODE + ")"
+						+ Jit.NODE);
+			} else {
+				a.invoker(head, args.length);
+				for (Code arg : args) {
+					arg.emit(a);
+				}
+				a.invokeExact(args.length);
+			}
+			m.mark(end);
+		}
+
+		/**
+		 * Calls the function, unless it is undefined, in which case the
+		 * arguments are skipped.
+		 */
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			int func = a.emit(Machine.FUNC, a.constant(head), args.length, 0);
+			for (Code arg : args) {
+				arg.assemble(a, false);
+			}
+			a.emit(tail ? Machine.TAIL_CALL : Machine.CALL, args.length);
+			a.patch(func + 3);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			addLiveNodes(args, nodes);
+		}
+	}
+
+	/**
+	 * {@code (if test then else)}.
+	 */
+	static final class If extends Call {
+
+		private final Code test, then, otherwise;
+
+		If(Symbol head, Code test, Code then, Code otherwise) {
+			super(head);
+			this.test = test;
+			this.then = then;
+			this.otherwise = otherwise;
+		}
+
+		@Override
+		Node call() {
+			Node value = test.exec();
+			if (value == null) {
+				throw Deopt.INSTANCE;
+			}
+			return value.equals(NodeFactory.TRUE) ? then.exec() : otherwise
+					.exec();
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			MethodEmitter m = a.m;
+			Label other = a.label(), end = a.label();
+			a.guard(head);
+			test.emit(a);
+			a.helper("test", "(" + Jit.NODE + ")Z");
+			m.jump(ClassEmitter.IFEQ, other);
+			then.emit(a);
+			m.jump(ClassEmitter.GOTO, end);
+			m.mark(other);
+			otherwise.emit(a);
+			m.mark(end);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			test.assemble(a, false);
+			int other = a.emit(Machine.TEST, 0);
+			then.assemble(a, tail);
+			int end = a.emit(Machine.JUMP, 0);
+			a.patch(other + 1);
+			otherwise.assemble(a, tail);
+			a.patch(end + 1);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			test.addLiveNodes(nodes);
+			then.addLiveNodes(nodes);
+			otherwise.addLiveNodes(nodes);
+		}
+	}
+
+	/**
+	 * {@code (cond (test value) ...)}. When no test holds, the primitive
+	 * fails, and so it is left to report its error.
+	 */
+	static final class Cond extends Call {
+
+		private final Code[] tests, values;
+
+		Cond(Symbol head, Code[] tests, Code[] values) {
+			super(head);
+			this.tests = tests;
+			this.values = values;
+		}
+
+		@Override
+		Node call() {
+			for (int i = 0; i < tests.length; i++) {
+				if (tests[i].exec() == NodeFactory.TRUE) {
+					return values[i].exec();
+				}
+			}
+			throw Deopt.INSTANCE;
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			MethodEmitter m = a.m;
+			Label end = a.label();
+			a.guard(head);
+			for (int i = 0; i < tests.length; i++) {
+				Label next = a.label();
+				tests[i].emit(a);
+				a.helper("isTrue", "(" + Jit.NODE + ")Z");
+				m.jump(ClassEmitter.IFEQ, next);
+				values[i].emit(a);
+				m.jump(ClassEmitter.GOTO, end);
+				m.mark(next);
+			}
+			a.helper("deopt", "()Ljava/lang/RuntimeException;");
+			m.athrow();
+			m.mark(end);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			int[] ends = new int[tests.length];
+			for (int i = 0; i < tests.length; i++) {
+				tests[i].assemble(a, false);
+				int next = a.emit(Machine.BRANCH, 0);
+				values[i].assemble(a, tail);
+				ends[i] = a.emit(Machine.JUMP, 0);
+				a.patch(next + 1);
+			}
+			a.emit(Machine.DEOPT);
+			for (int end : ends) {
+				a.patch(end + 1);
+			}
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			addLiveNodes(tests, nodes);
+			addLiveNodes(values, nodes);
+		}
+	}
+
+	/**
+	 * {@code and} and {@code or}, which stop at the first argument which is
+	 * NIL, or T, respectively.
+	 */
+	static final class Logic extends Call {
+
+		private final Code[] args;
+		private final Node stop;
+
+		Logic(Symbol head, Code[] args, Node stop) {
+			super(head);
+			this.args = args;
+			this.stop = stop;
+		}
+
+		@Override
+		Node call() {
+			for (Code arg : args) {
+				if (arg.exec() == stop) {
+					return stop;
+				}
+			}
+			return NodeFactory.makeNode(stop == NodeFactory.FALSE);
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			MethodEmitter m = a.m;
+			Label stopped = a.label(), end = a.label();
+			a.guard(head);
+			for (Code arg : args) {
+				arg.emit(a);
+				a.constant(stop, Jit.NODE);
+				m.jump(ClassEmitter.IF_ACMPEQ, stopped);
+			}
+			a.constant(NodeFactory.makeNode(stop == NodeFactory.FALSE),
+					Jit.NODE);
+			m.jump(ClassEmitter.GOTO, end);
+			m.mark(stopped);
+			a.constant(stop, Jit.NODE);
+			m.mark(end);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			int[] stops = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				args[i].assemble(a, false);
+				stops[i] = a.emit(Machine.STOP, a.constant(stop), 0);
+			}
+			a.emit(Machine.CONST, a.constant(NodeFactory
+					.makeNode(stop == NodeFactory.FALSE)));
+			for (int at : stops) {
+				a.patch(at + 2);
+			}
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			addLiveNodes(args, nodes);
+		}
+	}
+
+	/**
+	 * {@code (not x)} of a boolean.
+	 */
+	static final class Not extends Call {
+
+		private final Code arg;
+
+		Not(Symbol head, Code arg) {
+			super(head);
+			this.arg = arg;
+		}
+
+		@Override
+		Node call() {
+			return not(arg.exec());
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			a.guard(head);
+			arg.emit(a);
+			a.helper("not", "(" + Jit.NODE + ")" + Jit.NODE);
+		}
+
+		static Node not(Node value) {
+			if (value == NodeFactory.TRUE) {
+				return NodeFactory.FALSE;
+			} else if (value == NodeFactory.FALSE) {
+				return NodeFactory.TRUE;
+			}
+			throw Deopt.INSTANCE;
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			arg.assemble(a, false);
+			a.emit(Machine.NOT);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			arg.addLiveNodes(nodes);
+		}
+	}
+
+	/**
+	 * {@code (eq a b)}. The interpreter evaluates the rest of the arguments
+	 * as a form of its own, which agrees with evaluating b only when b is a
+	 * number or a boolean.
+	 */
+	static final class Eq extends Call {
+
+		private final Code left, right;
+
+		Eq(Symbol head, Code left, Code right) {
+			super(head);
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Node call() {
+			return eq(left.exec(), right.exec());
+		}
+
+		@Override
+		void emit(Jit.Assembler a) {
+			a.guard(head);
+			left.emit(a);
+			right.emit(a);
+			a.helper("eq", "(" + Jit.NODE + Jit.NODE + ")" + Jit.NODE);
+		}
+
+		static Node eq(Node a, Node b) {
+			if (a == null || !(b instanceof Fixnum || b == NodeFactory.TRUE
+					|| b == NodeFactory.FALSE)) {
+				throw Deopt.INSTANCE;
+			}
+			return NodeFactory.makeNode(a.equals(b));
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			left.assemble(a, false);
+			right.assemble(a, false);
+			a.emit(Machine.EQ);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			left.addLiveNodes(nodes);
+			right.addLiveNodes(nodes);
+		}
+	}
+
+	/**
+	 * Integer arithmetic. Difference and quotient fold from the right, as
+	 * the primitives do: {@code (- a b c)} is a - (b - c).
+	 */
+	static final class Arith extends Call {
+
+		static final int SUM = 0, DIFFERENCE = 1, PRODUCT = 2, QUOTIENT = 3;
+
+		private final int op;
+		private final Code[] args;
+
+		Arith(Symbol head, int op, Code[] args) {
+			super(head);
+			this.op = op;
+			this.args = args;
+		}
+
+		@Override
+		Node call() {
+			long[] values = integers(args);
+			long result = values[values.length - 1];
+			for (int i = values.length - 2; i >= 0; i--) {
+				switch (op) {
+				case SUM:
+					result = values[i] + result;
+					break;
+				case DIFFERENCE:
+					result = values[i] - result;
+					break;
+				case PRODUCT:
+					result = values[i] * result;
+					break;
+				default:
+					if (result == 0) {
+						throw Deopt.INSTANCE;
+					}
+					result = values[i] / result;
+					break;
+				}
+			}
+			return NodeFactory.makeNode(result);
+		}
+
+		/**
+		 * Pushes every operand, so that folding from the top of the stack
+		 * folds from the right.
+		 */
+		@Override
+		void emit(Jit.Assembler a) {
+			MethodEmitter m = a.m;
+			a.guard(head);
+			for (Code arg : args) {
+				arg.emit(a);
+				a.helper("toLong", "(" + Jit.NODE + ")J");
+			}
+			for (int i = 1; i < args.length; i++) {
+				switch (op) {
+				case SUM:
+					m.insn(ClassEmitter.LADD, 2, "J");
+					break;
+				case DIFFERENCE:
+					m.insn(ClassEmitter.LSUB, 2, "J");
+					break;
+				case PRODUCT:
+					m.insn(ClassEmitter.LMUL, 2, "J");
+					break;
+				default:
+					a.helper("quotient", "(JJ)J");
+					break;
+				}
+			}
+			m.invoke(ClassEmitter.INVOKESTATIC, "interpreter/parser/NodeFactory",
+					"makeNode", "(J)" + Jit.NODE);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			for (Code arg : args) {
+				arg.assemble(a, false);
+			}
+			a.emit(Machine.ARITH, op, args.length);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			addLiveNodes(args, nodes);
+		}
+	}
+
+	/**
+	 * A chained integer comparison, such as {@code (< a b c)}.
+	 */
+	static final class Compare extends Call {
+
+		static final int LESS = 0, GREATER = 1, LEQ = 2, GEQ = 3;
+
+		private final int op;
+		private final Code[] args;
+
+		Compare(Symbol head, int op, Code[] args) {
+			super(head);
+			this.op = op;
+			this.args = args;
+		}
+
+		@Override
+		Node call() {
+			long[] values = integers(args);
+			for (int i = 1; i < values.length; i++) {
+				long a = values[i - 1], b = values[i];
+				boolean holds;
+				switch (op) {
+				case LESS:
+					holds = a < b;
+					break;
+				case GREATER:
+					holds = a > b;
+					break;
+				case LEQ:
+					holds = a <= b;
+					break;
+				default:
+					holds = a >= b;
+					break;
+				}
+				if (!holds) {
+					return NodeFactory.FALSE;
+				}
+			}
+			return NodeFactory.TRUE;
+		}
+
+		/**
+		 * Emits a comparison of two operands. Longer chains call back into
+		 * this node.
+		 */
+		@Override
+		void emit(Jit.Assembler a) {
+			if (args.length != 2) {
+				super.emit(a);
+				return;
+			}
+			a.guard(head);
+			for (Code arg : args) {
+				arg.emit(a);
+				a.helper("toLong", "(" + Jit.NODE + ")J");
+			}
+			String[] helpers = { "less", "greater", "leq", "geq" };
+			a.helper(helpers[op], "(JJ)" + Jit.NODE);
+		}
+
+		@Override
+		void assemble(Machine.Assembler a, boolean tail) {
+			a.guard(head);
+			for (Code arg : args) {
+				arg.assemble(a, false);
+			}
+			a.emit(Machine.COMPARE, op, args.length);
+		}
+
+		@Override
+		public void addLiveNodes(List<Node> nodes) {
+			addLiveNodes(args, nodes);
+		}
+	}
+
+	/**
+	 * Evaluates every argument into an integer, in order.
+	 */
+	static long[] integers(Code[] args) {
+		long[] values = new long[args.length];
+		for (int i = 0; i < args.length; i++) {
+			Node value = args[i].exec();
+			if (!(value instanceof Fixnum)) {
+				throw Deopt.INSTANCE;
+			}
+			values[i] = ((Fixnum) value).longValue();
+		}
+		return values;
+	}
+}
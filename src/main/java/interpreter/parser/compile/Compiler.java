@@ -0,0 +1,320 @@
+/**
+ * Compiler.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.parser.Atom;
+import interpreter.parser.Environment;
+import interpreter.parser.Frame;
+import interpreter.parser.Node;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.SExpression;
+import interpreter.parser.Symbol;
+import interpreter.parser.SymbolAtom;
+import interpreter.parser.prim.PrimitiveHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiles the bodies of user defined functions into trees of {@link Code}.
+ * Each form is examined once, when its function is first called, and is
+ * turned into a node specialised for what it is: a constant, a parameter of
+ * the function, which is loaded from its slot in the {@link Frame} of the
+ * call, any other variable reference, which is looked up by name as dynamic
+ * scope requires, a call of a user defined function, or one of the primitives
+ * which are compiled directly (if, cond, quote, the arithmetic and relational
+ * operators, eq, and, or and not). Calls of other primitives still go through
+ * the PrimitiveHandler, with their arguments unevaluated.
+ * <p>
+ * A call of a user defined function in tail position, which is the body
+ * itself or a branch of an if or a cond in tail position, returns a
+ * {@link interpreter.parser.func.TailCall} rather than making the call.
+ * <p>
+ * Forms whose meaning the interpreter decides in an unusual way, such as
+ * those headed by a number, length, car, cdr or a lambda, are left to the
+ * interpreter.
+ * 
+ * @author Anand
+ *
+ */
+public final class Compiler {
+
+	private static final Symbol IF = Symbol.intern("if");
+	private static final Symbol COND = Symbol.intern("cond");
+	private static final Symbol AND = Symbol.intern("and");
+	private static final Symbol OR = Symbol.intern("or");
+	private static final Symbol NOT = Symbol.intern("not");
+
+	private static boolean enabled;
+
+	private final PrimitiveHandler handler;
+	private final List<Symbol> params;
+
+	private Compiler(PrimitiveHandler handler, List<Symbol> params) {
+		this.handler = handler;
+		this.params = params;
+	}
+
+	/**
+	 * Compiles the body of a function. References to the parameters of the
+	 * function are resolved to their slots in the frame of the call.
+	 * 
+	 * @param body
+	 *            the body Node.
+	 * @param params
+	 *            the interned parameters of the function.
+	 * @return the compiled body, or null if the body must be interpreted,
+	 *         because it makes anonymous functions.
+	 */
+	public static Code compile(Node body, List<Symbol> params) {
+		if (mentionsLambda(body)) {
+			return null;
+		}
+		return new Compiler(Environment.getInstance().getHandler(), params)
+				.compile(body, true, true);
+	}
+
+	/**
+	 * Compiles a top-level statement, which unlike a function body is not
+	 * evaluated literally.
+	 * 
+	 * @param statement
+	 *            the root Node of the statement.
+	 * @return the compiled statement, or null if it must be interpreted,
+	 *         because it makes anonymous functions.
+	 */
+	public static Code compileStatement(Node statement) {
+		if (mentionsLambda(statement)) {
+			return null;
+		}
+		return new Compiler(Environment.getInstance().getHandler(),
+				Collections.<Symbol> emptyList()).compile(statement, false,
+				false);
+	}
+
+	/**
+	 * Are function bodies compiled before they are evaluated?
+	 * 
+	 * @return true if the compiler is enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the compilation of function bodies.
+	 * 
+	 * @param enabled
+	 *            true to compile function bodies.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Compiler.enabled = enabled;
+	}
+
+	/**
+	 * Compiles a form.
+	 * 
+	 * @param node
+	 *            the form.
+	 * @param literal
+	 *            whether the interpreter would evaluate the form literally.
+	 * @param tail
+	 *            whether the value of the form is returned from the function.
+	 * @return the Code.
+	 */
+	private Code compile(Node node, boolean literal, boolean tail) {
+		if (node instanceof SymbolAtom) {
+			int slot = params.indexOf(((SymbolAtom) node).getSymbol());
+			return slot >= 0 ? new Code.Local((SymbolAtom) node, slot)
+					: new Code.VarRef((SymbolAtom) node);
+		} else if (!(node instanceof SExpression)) {
+			return new Code.Const(node);
+		}
+		SExpression form = (SExpression) node;
+		Node head = form.getAddr();
+		Symbol symbol = head instanceof Atom ? ((Atom) head).getSymbol()
+				: null;
+		if (!form.isList() || symbol == null || isSpecial(symbol)) {
+			return new Code.Interpret(node, literal);
+		}
+		List<Node> args = elements(form.getData());
+		if (handler.isRegistered(symbol)) {
+			Code code = compilePrimitive(symbol, args, tail);
+			return code != null ? code : new Code.PrimCall(symbol, form
+					.getData());
+		}
+		return new Code.FuncCall(symbol, compileAll(args, false), tail);
+	}
+
+	/**
+	 * Compiles a call of a primitive which has a compiled form. Aliases are
+	 * matched by the name of their symbol, which is interned in upper case.
+	 * 
+	 * @return the Code, or null if the call must go through the
+	 *         PrimitiveHandler.
+	 */
+	private Code compilePrimitive(Symbol symbol, List<Node> args,
+			boolean tail) {
+		String name = symbol.getName();
+		if (symbol == IF && args.size() == 3) {
+			return new Code.If(symbol, compile(args.get(0), false, false),
+					compile(args.get(1), true, tail), compile(args.get(2),
+							false, tail));
+		} else if (symbol == COND && args.size() > 0) {
+			return compileCond(symbol, args, tail);
+		} else if ((symbol == AND || symbol == OR) && args.size() > 0) {
+			return new Code.Logic(symbol, compileAll(args, true),
+					symbol == AND ? NodeFactory.FALSE : NodeFactory.TRUE);
+		} else if (symbol == NOT && args.size() > 0) {
+			return new Code.Not(symbol, compile(args.get(0), true, false));
+		} else if (("QUOTE".equals(name) || "'".equals(name))
+				&& args.size() > 0) {
+			return new Code.Const(args.get(0));
+		} else if (args.isEmpty()) {
+			return null;
+		}
+		Code[] values = compileAll(args, true);
+		int arith = arithmetic(name);
+		if (arith >= 0 && !interprets(values)) {
+			return new Code.Arith(symbol, arith, values);
+		}
+		int compare = comparison(name);
+		if (compare >= 0 && values.length >= 2) {
+			return new Code.Compare(symbol, compare, values);
+		}
+		if (("EQ".equals(name) || "EQUALP".equals(name) || "=".equals(name))
+				&& values.length == 2 && !interprets(values)) {
+			return new Code.Eq(symbol, values[0], values[1]);
+		}
+		return null;
+	}
+
+	/**
+	 * Compiles a cond whose clauses are each a test and a value.
+	 */
+	private Code compileCond(Symbol symbol, List<Node> clauses,
+			boolean tail) {
+		Code[] tests = new Code[clauses.size()];
+		Code[] values = new Code[clauses.size()];
+		for (int i = 0; i < tests.length; i++) {
+			Node clause = clauses.get(i);
+			if (!(clause instanceof SExpression)
+					|| ((SExpression) clause).length() < 2) {
+				return null;
+			}
+			SExpression sexp = (SExpression) clause;
+			tests[i] = compile(sexp.getAddr(), false, false);
+			values[i] = compile(sexp.nth(1), true, tail);
+		}
+		return new Code.Cond(symbol, tests, values);
+	}
+
+	private Code[] compileAll(List<Node> args, boolean literal) {
+		Code[] result = new Code[args.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = compile(args.get(i), literal, false);
+		}
+		return result;
+	}
+
+	/**
+	 * Does any of the given code defer to the interpreter? The arithmetic
+	 * primitives and eq evaluate their arguments more than once, and in more
+	 * than one way, which only agrees with a single evaluation for forms the
+	 * compiler understands.
+	 */
+	private static boolean interprets(Code[] values) {
+		for (Code value : values) {
+			if (value instanceof Code.Interpret) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int arithmetic(String name) {
+		switch (name) {
+		case "SUM":
+		case "+":
+			return Code.Arith.SUM;
+		case "DIFFERENCE":
+		case "-":
+			return Code.Arith.DIFFERENCE;
+		case "PRODUCT":
+		case "*":
+			return Code.Arith.PRODUCT;
+		case "QUOTIENT":
+		case "/":
+			return Code.Arith.QUOTIENT;
+		default:
+			return -1;
+		}
+	}
+
+	private static int comparison(String name) {
+		switch (name) {
+		case "LESS":
+		case "<":
+			return Code.Compare.LESS;
+		case "GREATER":
+		case ">":
+			return Code.Compare.GREATER;
+		case "LEQ":
+		case "<=":
+			return Code.Compare.LEQ;
+		case "GEQ":
+		case ">=":
+			return Code.Compare.GEQ;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Is the given head one whose arguments the interpreter rewrites, or
+	 * which it answers by itself?
+	 */
+	private static boolean isSpecial(Symbol symbol) {
+		return symbol == Symbol.T || symbol == Symbol.NIL
+				|| symbol == Symbol.LENGTH || symbol == Symbol.CAR
+				|| symbol == Symbol.CDR || symbol == Symbol.FIRST
+				|| symbol == Symbol.REST || symbol == Symbol.LAMBDA
+				|| symbol == Symbol.LAMBDA_SIGN;
+	}
+
+	/**
+	 * Does the given form contain a lambda anywhere? Making a lambda changes
+	 * the ClosureState, so such bodies are always interpreted.
+	 */
+	private static boolean mentionsLambda(Node node) {
+		List<Node> pending = new ArrayList<>();
+		pending.add(node);
+		while (!pending.isEmpty()) {
+			Node next = pending.remove(pending.size() - 1);
+			if (next instanceof SExpression) {
+				pending.add(((SExpression) next).getAddr());
+				pending.add(((SExpression) next).getData());
+			} else if (next instanceof Atom) {
+				Symbol symbol = ((Atom) next).getSymbol();
+				if (symbol == Symbol.LAMBDA || symbol == Symbol.LAMBDA_SIGN) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Grabs the elements of a proper list.
+	 */
+	private static List<Node> elements(Node list) {
+		List<Node> result = new ArrayList<>();
+		for (Node node = list; node instanceof SExpression;) {
+			result.add(((SExpression) node).getAddr());
+			node = ((SExpression) node).getData();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,679 @@
+/**
+ * Jit.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.parser.Environment;
+import interpreter.parser.Fixnum;
+import interpreter.parser.Node;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.Symbol;
+import interpreter.parser.compile.ClassEmitter.Label;
+import interpreter.parser.compile.ClassEmitter.MethodEmitter;
+import interpreter.parser.func.Function;
+import interpreter.parser.func.TailCall;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The second tier of compilation. Once a function has been called often
+ * enough, the compiled form of its body is translated into JVM bytecode,
+ * which is defined as a class of its own, so that HotSpot compiles it further
+ * like any other Java code. Each class is defined by a class loader of its
+ * own, and can be unloaded once its function is no longer in use.
+ * <p>
+ * A call from compiled bytecode to a user defined function goes through a
+ * MutableCallSite for the name of the function and the number of arguments.
+ * While the function has bytecode of its own, the call site links straight
+ * to it, and HotSpot is free to inline one Lisp function into another. When
+ * the function is redefined through {@link Environment#registerFunc}, the
+ * call site is relinked to a generic call, which makes HotSpot discard any
+ * machine code that inlined the old definition.
+ * <p>
+ * Each class has two methods: one which runs the body in the frame of the
+ * current call, and which the function uses to make calls in tail position,
+ * and one which binds the parameters in a frame of its own, runs the body
+ * and makes the calls in tail position it returns. Call sites link to the
+ * latter.
+ * <p>
+ * The bytecode deoptimizes in the same cases as the {@link Code} it is made
+ * from, after which the function is interpreted.
+ * 
+ * @author Anand
+ *
+ */
+public final class Jit {
+
+	static final String NODE = "Linterpreter/parser/Node;";
+	static final String SYMBOL = "Linterpreter/parser/Symbol;";
+
+	private static final String OWNER = "interpreter/parser/compile/JitCode";
+	private static final String JIT = "interpreter/parser/compile/Jit";
+	private static final String CODE = "interpreter/parser/compile/Code";
+	private static final String DEOPT = "interpreter/parser/compile/Code$Deopt";
+	private static final String FUNCTION = "interpreter/parser/func/Function";
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodHandle SLOW_CALL;
+
+	static {
+		try {
+			SLOW_CALL = LOOKUP.findStatic(Jit.class, "slowCall", MethodType
+					.methodType(Node.class, Symbol.class, Node[].class));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static boolean enabled;
+	private static int threshold = 1000;
+	private static int compiled;
+
+	// the call sites of each function name, by the number of arguments, and
+	// the bytecode they link to while the function has not been redefined.
+	private static final Map<Symbol, Map<Integer, MutableCallSite>> sites = new HashMap<>();
+	private static final Map<Symbol, Function> linked = new HashMap<>();
+	private static final Map<Function, MethodHandle> targets = new IdentityHashMap<>();
+
+	// the constants of every class defined so far, which the cons heap keeps
+	// for as long as the class is loaded.
+	private static final List<WeakReference<Object[]>> classData = new ArrayList<>();
+
+	private Jit() {
+	}
+
+	/**
+	 * Are hot functions compiled to bytecode?
+	 * 
+	 * @return true if the JIT is enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the compilation of hot functions to bytecode.
+	 * Function bodies must also be compiled by the {@link Compiler}.
+	 * 
+	 * @param enabled
+	 *            true to compile hot functions.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Jit.enabled = enabled;
+	}
+
+	/**
+	 * Grabs the number of calls after which a function is compiled.
+	 * 
+	 * @return the threshold.
+	 */
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Sets the number of calls after which a function is compiled.
+	 * 
+	 * @param threshold
+	 *            a positive number of calls.
+	 */
+	public static void setThreshold(int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("Invalid threshold : "
+					+ threshold);
+		}
+		Jit.threshold = threshold;
+	}
+
+	/**
+	 * Grabs the number of functions compiled to bytecode so far.
+	 * 
+	 * @return the count.
+	 */
+	public static int getCompiledCount() {
+		return compiled;
+	}
+
+	/**
+	 * Compiles a function to bytecode.
+	 * 
+	 * @param function
+	 *            the function.
+	 * @param body
+	 *            the compiled body of the function.
+	 * @return a MethodHandle which runs the body in the frame of the current
+	 *         call, or null if the function cannot be compiled.
+	 */
+	public static MethodHandle compile(Function function, Code body) {
+		List<Symbol> params = function.getParams();
+		if (params.isEmpty() || params.size() > 64) {
+			return null;
+		}
+		MethodHandle target, run;
+		try {
+			Class<?> owner = define(function, body);
+			target = LOOKUP.findStatic(owner, "invoke", MethodType
+					.methodType(Node.class, Collections.<Class<?>> nCopies(
+							params.size(), Node.class)));
+			run = LOOKUP.findStatic(owner, "run", MethodType
+					.methodType(Node.class));
+		}
+		catch (ReflectiveOperationException | RuntimeException
+				| LinkageError e) {
+			return null;
+		}
+		compiled++;
+		targets.put(function, target);
+		Symbol name = Symbol.intern(function.getName());
+		if (Environment.getInstance().getFunction(name) == function) {
+			linked.put(name, function);
+			Map<Integer, MutableCallSite> byArity = sites.get(name);
+			if (byArity != null && byArity.containsKey(params.size())) {
+				byArity.get(params.size()).setTarget(target);
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * Unlinks the bytecode of a function name from every call site, so that
+	 * calls look the function up again. Must be called whenever the name is
+	 * redefined.
+	 * 
+	 * @param name
+	 *            the function name.
+	 */
+	public static void invalidate(Symbol name) {
+		Function function = linked.remove(name);
+		if (function != null) {
+			targets.remove(function);
+		}
+		Map<Integer, MutableCallSite> byArity = sites.get(name);
+		if (byArity != null) {
+			for (Map.Entry<Integer, MutableCallSite> site : byArity
+					.entrySet()) {
+				site.getValue().setTarget(fallback(name, site.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * Drops the bytecode of a function which has deoptimized.
+	 * 
+	 * @param function
+	 *            the function.
+	 */
+	public static void deoptimize(Function function) {
+		targets.remove(function);
+		Symbol name = Symbol.intern(function.getName());
+		if (linked.get(name) == function) {
+			invalidate(name);
+		}
+	}
+
+	/**
+	 * Adds every Node which the bytecode of the Jit holds on to as a constant
+	 * to the given list, along with the Nodes of the Code it calls back into.
+	 * The constants of a class are only dropped once the class is unloaded.
+	 * 
+	 * @param nodes
+	 *            the list of live Nodes.
+	 */
+	public static void addLiveNodes(List<Node> nodes) {
+		Iterator<WeakReference<Object[]>> it = classData.iterator();
+		while (it.hasNext()) {
+			Object[] data = it.next().get();
+			if (data == null) {
+				it.remove();
+				continue;
+			}
+			for (Object constant : data) {
+				if (constant instanceof Node) {
+					nodes.add((Node) constant);
+				} else if (constant instanceof Code) {
+					((Code) constant).addLiveNodes(nodes);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Grabs the constants of a class defined by the Jit, which its static
+	 * initializer loads into its fields.
+	 * 
+	 * @param owner
+	 *            the class.
+	 * @return the constants.
+	 */
+	public static Object[] classData(Class<?> owner) {
+		return ((Loader) owner.getClassLoader()).data;
+	}
+
+	/**
+	 * Runs compiled bytecode in the frame of the current call.
+	 * 
+	 * @param target
+	 *            a MethodHandle returned by {@link #compile(Function, Code)}.
+	 * @return the result of the body, which may be a TailCall.
+	 */
+	public static Node enter(MethodHandle target) {
+		try {
+			return (Node) target.invokeExact();
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Emits and defines the class of a function.
+	 */
+	private static Class<?> define(Function function, Code body) {
+		List<Symbol> params = function.getParams();
+		int count = params.size();
+		StringBuilder descriptor = new StringBuilder("(");
+		for (int i = 0; i < count; i++) {
+			descriptor.append(NODE);
+		}
+		descriptor.append(')').append(NODE);
+
+		ClassEmitter emitter = new ClassEmitter(OWNER, "java/lang/Object");
+		Assembler a = new Assembler(emitter, emitter.method(
+				ClassEmitter.ACC_PUBLIC | ClassEmitter.ACC_STATIC, "run", "()"
+						+ NODE));
+		MethodEmitter m = a.m;
+
+		// run the body, which on deoptimization is interpreted instead.
+		Label start = a.label(), end = a.label(), deopt = a.label();
+		m.handler(deopt, start, end, DEOPT);
+		m.mark(start);
+		body.emit(a);
+		m.areturn();
+		m.mark(end);
+		m.markHandler(deopt, DEOPT);
+		m.insn(ClassEmitter.POP, 1, null);
+		a.constant(function, "L" + FUNCTION + ";");
+		m.invoke(ClassEmitter.INVOKEVIRTUAL, FUNCTION, "deoptimize", "()"
+				+ NODE);
+		m.areturn();
+
+		a = a.method("invoke", descriptor.toString());
+		m = a.m;
+		int result = count;
+
+		// bind the parameters in a new frame.
+		a.constant(params, "Ljava/util/List;");
+		m.iconst(count);
+		m.anewarray("interpreter/parser/Node");
+		for (int i = 0; i < count; i++) {
+			m.insn(ClassEmitter.DUP, 0, "[" + NODE);
+			m.iconst(i);
+			m.aload(i);
+			m.insn(ClassEmitter.AASTORE, 3, null);
+		}
+		a.helper("push", "(Ljava/util/List;[" + NODE + ")V");
+		m.insn(ClassEmitter.ACONST_NULL, 0, NODE);
+		m.astore(result, NODE);
+
+		start = a.label();
+		end = a.label();
+		Label failure = a.label();
+		m.handler(failure, start, end, null);
+
+		m.mark(start);
+		m.invoke(ClassEmitter.INVOKESTATIC, OWNER, "run", "()" + NODE);
+		a.helper("trampoline", "(" + NODE + ")" + NODE);
+		m.astore(result, NODE);
+		m.mark(end);
+		a.helper("pop", "()V");
+		m.aload(result);
+		m.areturn();
+
+		m.markHandler(failure, null);
+		a.helper("pop", "()V");
+		m.athrow();
+
+		Object[] data = a.finish();
+		Class<?> owner = new Loader(data).define(emitter.toByteArray());
+		classData.add(new WeakReference<>(data));
+		return owner;
+	}
+
+	/**
+	 * Defines the class of a single function, and holds its constants. The
+	 * class belongs to a runtime package of this loader rather than to that
+	 * of the Jit, which is why the helpers it calls are public.
+	 */
+	private static final class Loader extends ClassLoader {
+
+		private final Object[] data;
+
+		private Loader(Object[] data) {
+			super(Jit.class.getClassLoader());
+			this.data = data;
+		}
+
+		private Class<?> define(byte[] bytes) {
+			return defineClass(null, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Grabs the call site for calls of a function name with a number of
+	 * arguments, creating it if it does not exist yet.
+	 */
+	static MutableCallSite site(Symbol name, int arity) {
+		Map<Integer, MutableCallSite> byArity = sites.get(name);
+		if (byArity == null) {
+			byArity = new HashMap<>();
+			sites.put(name, byArity);
+		}
+		MutableCallSite site = byArity.get(arity);
+		if (site == null) {
+			Function function = linked.get(name);
+			site = new MutableCallSite(function != null
+					&& function.getParams().size() == arity ? targets
+					.get(function) : fallback(name, arity));
+			byArity.put(arity, site);
+		}
+		return site;
+	}
+
+	private static MethodHandle fallback(Symbol name, int arity) {
+		return MethodHandles.insertArguments(SLOW_CALL, 0, name).asCollector(
+				Node[].class, arity);
+	}
+
+	/**
+	 * Calls whatever function a name stands for, through the Function.
+	 */
+	private static Node slowCall(Symbol name, Node[] args) {
+		Function function = Environment.getInstance().getFunction(name);
+		if (function == null) {
+			return null;
+		} else if (function.getParams().size() != args.length) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return function.call(args);
+	}
+
+	/**
+	 * Emits the bytecode of a tree of Code into a method, and collects the
+	 * constants it refers to, which become static final fields of the class.
+	 */
+	static final class Assembler {
+
+		final MethodEmitter m;
+		private final ClassEmitter emitter;
+		private List<Object> constants = new ArrayList<>();
+		private List<String> types = new ArrayList<>();
+		private Map<Object, Integer> indices = new IdentityHashMap<>();
+
+		private Assembler(ClassEmitter emitter, MethodEmitter m) {
+			this.emitter = emitter;
+			this.m = m;
+		}
+
+		/**
+		 * Starts another static method of the same class, which shares the
+		 * constants of this one.
+		 *
+		 * @param name
+		 *            the name of the method.
+		 * @param descriptor
+		 *            its method descriptor.
+		 * @return the Assembler of the method.
+		 */
+		Assembler method(String name, String descriptor) {
+			Assembler a = new Assembler(emitter, emitter.method(
+					ClassEmitter.ACC_PUBLIC | ClassEmitter.ACC_STATIC, name,
+					descriptor));
+			a.constants = constants;
+			a.types = types;
+			a.indices = indices;
+			return a;
+		}
+
+		/**
+		 * Pushes a constant object.
+		 *
+		 * @param value
+		 *            the object.
+		 * @param type
+		 *            the descriptor of the type it is loaded as.
+		 */
+		void constant(Object value, String type) {
+			Integer index = indices.get(value);
+			if (index == null || !types.get(index).equals(type)) {
+				index = constants.size();
+				constants.add(value);
+				types.add(type);
+				indices.put(value, index);
+				emitter.field(ClassEmitter.ACC_PRIVATE
+						| ClassEmitter.ACC_STATIC | ClassEmitter.ACC_FINAL,
+						"K" + index, type);
+			}
+			m.getstatic(OWNER, "K" + index, type);
+		}
+
+		/**
+		 * Calls a static helper method of the Jit.
+		 *
+		 * @param name
+		 *            the name of the helper.
+		 * @param descriptor
+		 *            its method descriptor.
+		 */
+		void helper(String name, String descriptor) {
+			m.invoke(ClassEmitter.INVOKESTATIC, JIT, name, descriptor);
+		}
+
+		/**
+		 * Evaluates a Code node by calling it, for nodes which have no
+		 * bytecode of their own.
+		 *
+		 * @param code
+		 *            the node.
+		 */
+		void exec(Code code) {
+			constant(code, "L" + CODE + ";");
+			m.invoke(ClassEmitter.INVOKEVIRTUAL, CODE, "exec", "()" + NODE);
+		}
+
+		/**
+		 * Deoptimizes if a symbol is bound as a variable.
+		 *
+		 * @param head
+		 *            the head of a call.
+		 */
+		void guard(Symbol head) {
+			constant(head, SYMBOL);
+			helper("guard", "(" + SYMBOL + ")V");
+		}
+
+		/**
+		 * Calls the invoker below the arguments on the stack.
+		 *
+		 * @param arity
+		 *            the number of arguments.
+		 */
+		void invokeExact(int arity) {
+			StringBuilder descriptor = new StringBuilder("(");
+			for (int i = 0; i < arity; i++) {
+				descriptor.append(NODE);
+			}
+			descriptor.append(')').append(NODE);
+			m.invoke(ClassEmitter.INVOKEVIRTUAL,
+					"java/lang/invoke/MethodHandle", "invokeExact",
+					descriptor.toString());
+		}
+
+		/**
+		 * Pushes the invoker of the call site of a function, which
+		 * {@link #invokeExact(int)} then calls.
+		 */
+		void invoker(Symbol head, int arity) {
+			constant(site(head, arity).dynamicInvoker(),
+					"Ljava/lang/invoke/MethodHandle;");
+		}
+
+		Label label() {
+			return new Label();
+		}
+
+		/**
+		 * Adds the static initializer which loads every constant from the
+		 * class data, as held by the class loader of the class.
+		 *
+		 * @return the class data.
+		 * @see Jit#classData(Class)
+		 */
+		private Object[] finish() {
+			MethodEmitter init = emitter.method(ClassEmitter.ACC_STATIC,
+					"<clinit>", "()V");
+			init.ldcClass(OWNER);
+			init.invoke(ClassEmitter.INVOKESTATIC, JIT, "classData",
+					"(Ljava/lang/Class;)[Ljava/lang/Object;");
+			init.astore(0, "[Ljava/lang/Object;");
+			for (int i = 0; i < constants.size(); i++) {
+				String type = types.get(i);
+				init.aload(0);
+				init.iconst(i);
+				init.insn(ClassEmitter.AALOAD, 2, "Ljava/lang/Object;");
+				init.checkcast(type.substring(1, type.length() - 1));
+				init.putstatic(OWNER, "K" + i, type);
+			}
+			init.vreturn();
+			return constants.toArray();
+		}
+	}
+
+	/*
+	 * The helpers below are called from compiled bytecode, which is defined
+	 * by a class loader of its own, and so they are public.
+	 */
+
+	public static void push(List<Symbol> params, Node[] values) {
+		Environment.getInstance().push(params, values);
+	}
+
+	public static void pop() {
+		Environment.getInstance().pop();
+	}
+
+	public static Node trampoline(Node result) {
+		return Function.trampoline(result);
+	}
+
+	/**
+	 * Collects a call in tail position, once its arguments are evaluated.
+	 */
+	public static Node tail(Symbol name, Node[] values) {
+		Function function = Environment.getInstance().getFunction(name);
+		if (function == null) {
+			return null;
+		} else if (function.getParams().size() != values.length) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return new TailCall(function, values);
+	}
+
+	public static Node var(Symbol name, Node atom) {
+		Environment env = Environment.getInstance();
+		return env.isDefinedV(name) ? env.getVariableValue(name) : atom;
+	}
+
+	public static Node local(int slot, Node atom) {
+		Node value = Environment.getInstance().getFrame().get(slot);
+		return value != null ? value : atom;
+	}
+
+	public static void guard(Symbol head) {
+		if (Environment.getInstance().isDefinedV(head)) {
+			throw Code.Deopt.INSTANCE;
+		}
+	}
+
+	/**
+	 * Checks the callee of a call before its arguments are evaluated.
+	 * 
+	 * @return true if the function is defined.
+	 */
+	public static boolean callee(Symbol name, int arity) {
+		Function function = Environment.getInstance().getFunction(name);
+		if (function == null) {
+			return false;
+		} else if (function.getParams().size() != arity) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return true;
+	}
+
+	public static boolean test(Node value) {
+		if (value == null) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return value.equals(NodeFactory.TRUE);
+	}
+
+	public static boolean isTrue(Node value) {
+		return value == NodeFactory.TRUE;
+	}
+
+	public static Node not(Node value) {
+		return Code.Not.not(value);
+	}
+
+	public static Node eq(Node a, Node b) {
+		return Code.Eq.eq(a, b);
+	}
+
+	public static RuntimeException deopt() {
+		return Code.Deopt.INSTANCE;
+	}
+
+	public static long toLong(Node value) {
+		if (!(value instanceof Fixnum)) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return ((Fixnum) value).longValue();
+	}
+
+	public static long quotient(long a, long b) {
+		if (b == 0) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return a / b;
+	}
+
+	public static Node less(long a, long b) {
+		return a < b ? NodeFactory.TRUE : NodeFactory.FALSE;
+	}
+
+	public static Node greater(long a, long b) {
+		return a > b ? NodeFactory.TRUE : NodeFactory.FALSE;
+	}
+
+	public static Node leq(long a, long b) {
+		return a <= b ? NodeFactory.TRUE : NodeFactory.FALSE;
+	}
+
+	public static Node geq(long a, long b) {
+		return a >= b ? NodeFactory.TRUE : NodeFactory.FALSE;
+	}
+}
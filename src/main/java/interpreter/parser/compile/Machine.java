@@ -0,0 +1,547 @@
+/**
+ * Machine.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.parser.Environment;
+import interpreter.parser.Fixnum;
+import interpreter.parser.Node;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.Symbol;
+import interpreter.parser.SymbolAtom;
+import interpreter.parser.func.Function;
+import interpreter.parser.prim.PrimitiveHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An alternative execution engine, which runs compiled code as a compact
+ * bytecode rather than as a tree. Each top-level statement, and the body of
+ * each function when it is first called, is compiled once into a
+ * {@link Chunk}, whose instructions are dispatched by a single loop.
+ * <p>
+ * The loop keeps its own operand stack and its own stack of frames, so a call
+ * of one user defined function from another does not recurse on the Java
+ * stack. Every frame costs the same few slots: the chunk, the function, where
+ * it begins on the operand stack and where to return to. The parameters are
+ * bound in a {@link interpreter.parser.Frame} of the Environment, from which
+ * the bytecode loads them by slot. A call in tail position replaces the
+ * frame of the caller instead, and binds its parameters in the Environment
+ * frame of the caller, where the variables of the caller stay visible as
+ * dynamic scope requires. Loops written as tail recursion, through one
+ * function or several, thus run in constant space.
+ * <p>
+ * Primitives are called by their index in the PrimitiveHandler, with their
+ * arguments unevaluated, as the interpreter calls them. The bytecode
+ * deoptimizes in the same cases as the {@link Code} it is made from, after
+ * which the function, or the statement, is interpreted.
+ * 
+ * @author Anand
+ *
+ */
+public final class Machine {
+
+	// the opcodes. Each is followed in the code by its operands, which are
+	// indices of constants (k), primitive indices (i), argument counts (n),
+	// operators (op) and jump targets (t).
+	static final int CONST = 0; // k
+	static final int VAR = 1; // k
+	static final int EXEC = 2; // k
+	static final int GUARD = 3; // k
+	static final int PRIM = 4; // i k
+	static final int FUNC = 5; // k n t
+	static final int CALL = 6; // n
+	static final int TAIL_CALL = 7; // n
+	static final int RETURN = 8;
+	static final int JUMP = 9; // t
+	static final int TEST = 10; // t
+	static final int BRANCH = 11; // t
+	static final int STOP = 12; // k t
+	static final int NOT = 13;
+	static final int EQ = 14;
+	static final int ARITH = 15; // op n
+	static final int COMPARE = 16; // op n
+	static final int DEOPT = 17;
+	static final int LOCAL = 18; // slot k
+
+	private static boolean enabled;
+
+	private final Environment env = Environment.getInstance();
+	private final PrimitiveHandler handler = env.getHandler();
+
+	// the operand stack, which also holds each function below its arguments
+	// until it is called.
+	private Object[] stack = new Object[64];
+	private int sp;
+
+	// the frame stack: the chunk and function of each frame, where it begins
+	// on the operand stack, and where it resumes once its callee returns.
+	private Chunk[] chunks = new Chunk[16];
+	private Function[] functions = new Function[16];
+	private int[] bases = new int[16];
+	private int[] returns = new int[16];
+	private int fp = -1;
+
+	private Machine() {
+	}
+
+	/**
+	 * Are statements and functions run on the Machine?
+	 * 
+	 * @return true if the Machine is enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the Machine.
+	 * 
+	 * @param enabled
+	 *            true to run statements and functions on the Machine.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Machine.enabled = enabled;
+	}
+
+	/**
+	 * Evaluates a top-level statement on the Machine.
+	 * 
+	 * @param statement
+	 *            the root Node of the statement.
+	 * @return the value, as the interpreter would give it.
+	 */
+	public static Node run(Node statement) {
+		Code code = Compiler.compileStatement(statement);
+		if (code == null) {
+			return statement.eval();
+		}
+		Machine machine = new Machine();
+		machine.enter(null, assemble(code, statement, false), null);
+		return machine.execute();
+	}
+
+	/**
+	 * Calls a function on the Machine.
+	 * 
+	 * @param function
+	 *            the function, which must have a chunk.
+	 * @param values
+	 *            the value of each parameter, in order.
+	 * @return the result of the function.
+	 * @see Function#getChunk()
+	 */
+	public static Node call(Function function, Node[] values) {
+		Machine machine = new Machine();
+		machine.enter(function, function.getChunk(), values);
+		return machine.execute();
+	}
+
+	/**
+	 * Assembles the compiled body of a function.
+	 * 
+	 * @param body
+	 *            the compiled body.
+	 * @param form
+	 *            the body Node.
+	 * @return the Chunk.
+	 */
+	public static Chunk assemble(Code body, Node form) {
+		return assemble(body, form, true);
+	}
+
+	private static Chunk assemble(Code code, Node form, boolean body) {
+		Assembler a = new Assembler();
+		code.assemble(a, body);
+		a.emit(RETURN);
+		return new Chunk(Arrays.copyOf(a.code, a.size), a.constants
+				.toArray(), form, body);
+	}
+
+	/**
+	 * Runs the dispatch loop until the frame it was entered with returns,
+	 * and restores every binding if anything escapes it.
+	 */
+	private Node execute() {
+		try {
+			return loop();
+		}
+		catch (RuntimeException | Error e) {
+			while (fp >= 0) {
+				leave();
+			}
+			throw e;
+		}
+	}
+
+	private Node loop() {
+		Chunk chunk = chunks[fp];
+		int[] code = chunk.code;
+		Object[] constants = chunk.constants;
+		int pc = 0;
+		for (;;) {
+			Node result;
+			try {
+				switch (code[pc]) {
+				case CONST:
+					push(constants[code[pc + 1]]);
+					pc += 2;
+					continue;
+				case VAR: {
+					SymbolAtom atom = (SymbolAtom) constants[code[pc + 1]];
+					Symbol symbol = atom.getSymbol();
+					push(env.isDefinedV(symbol) ? env
+							.getVariableValue(symbol) : atom);
+					pc += 2;
+					continue;
+				}
+				case LOCAL: {
+					Node value = env.getFrame().get(code[pc + 1]);
+					push(value != null ? value : constants[code[pc + 2]]);
+					pc += 3;
+					continue;
+				}
+				case EXEC:
+					push(((Code) constants[code[pc + 1]]).exec());
+					pc += 2;
+					continue;
+				case GUARD:
+					if (env.isDefinedV((Symbol) constants[code[pc + 1]])) {
+						throw Code.Deopt.INSTANCE;
+					}
+					pc += 2;
+					continue;
+				case PRIM:
+					push(handler.callIndex(code[pc + 1],
+							constants[code[pc + 2]]));
+					pc += 3;
+					continue;
+				case FUNC: {
+					Function function = env
+							.getFunction((Symbol) constants[code[pc + 1]]);
+					if (function == null) {
+						push(null);
+						pc = code[pc + 3];
+					} else if (function.getParams().size() != code[pc + 2]) {
+						throw Code.Deopt.INSTANCE;
+					} else {
+						push(function);
+						pc += 4;
+					}
+					continue;
+				}
+				case TAIL_CALL:
+				case CALL: {
+					int n = code[pc + 1];
+					Function callee = (Function) stack[sp - n - 1];
+					Chunk target = callee.getChunk();
+					if (target == null) {
+						push(callee.call(arguments(n)));
+						pc += 2;
+						continue;
+					} else if (code[pc] == TAIL_CALL && functions[fp] != null) {
+						// reuse the frame of the caller.
+						env.replace(callee.getParams(), arguments(n));
+						chunks[fp] = target;
+						functions[fp] = callee;
+					} else {
+						returns[fp] = pc + 2;
+						enter(callee, target, arguments(n));
+					}
+					chunk = target;
+					code = chunk.code;
+					constants = chunk.constants;
+					pc = 0;
+					continue;
+				}
+				case RETURN:
+					result = (Node) stack[--sp];
+					break;
+				case JUMP:
+					pc = code[pc + 1];
+					continue;
+				case TEST: {
+					Node value = (Node) stack[--sp];
+					if (value == null) {
+						throw Code.Deopt.INSTANCE;
+					}
+					pc = value.equals(NodeFactory.TRUE) ? pc + 2
+							: code[pc + 1];
+					continue;
+				}
+				case BRANCH:
+					pc = stack[--sp] == NodeFactory.TRUE ? pc + 2
+							: code[pc + 1];
+					continue;
+				case STOP:
+					if (stack[sp - 1] == constants[code[pc + 1]]) {
+						pc = code[pc + 2];
+					} else {
+						sp--;
+						pc += 3;
+					}
+					continue;
+				case NOT:
+					stack[sp - 1] = Code.Not.not((Node) stack[sp - 1]);
+					pc++;
+					continue;
+				case EQ:
+					sp--;
+					stack[sp - 1] = Code.Eq.eq((Node) stack[sp - 1],
+							(Node) stack[sp]);
+					pc++;
+					continue;
+				case ARITH:
+					arithmetic(code[pc + 1], code[pc + 2]);
+					pc += 3;
+					continue;
+				case COMPARE:
+					compare(code[pc + 1], code[pc + 2]);
+					pc += 3;
+					continue;
+				case DEOPT:
+					throw Code.Deopt.INSTANCE;
+				default:
+					throw new IllegalStateException("Invalid opcode : "
+							+ code[pc]);
+				}
+			}
+			catch (Code.Deopt e) {
+				result = deoptimize();
+			}
+
+			// the frame returns.
+			leave();
+			if (fp < 0) {
+				return result;
+			}
+			push(result);
+			chunk = chunks[fp];
+			code = chunk.code;
+			constants = chunk.constants;
+			pc = returns[fp];
+		}
+	}
+
+	/**
+	 * Interprets the form of the current frame instead, with the parameters
+	 * of its function still bound, and marks the function to be interpreted
+	 * from then on.
+	 */
+	private Node deoptimize() {
+		Function function = functions[fp];
+		sp = bases[fp];
+		return function == null ? chunks[fp].form.eval(chunks[fp].literal)
+				: function.deoptimize();
+	}
+
+	/**
+	 * Pushes a frame for a chunk, and binds the parameters of its function,
+	 * if it has one.
+	 */
+	private void enter(Function function, Chunk chunk, Node[] values) {
+		if (++fp == chunks.length) {
+			int size = chunks.length * 2;
+			chunks = Arrays.copyOf(chunks, size);
+			functions = Arrays.copyOf(functions, size);
+			bases = Arrays.copyOf(bases, size);
+			returns = Arrays.copyOf(returns, size);
+		}
+		chunks[fp] = chunk;
+		functions[fp] = function;
+		bases[fp] = sp;
+		if (function != null) {
+			env.push(function.getParams(), values);
+		}
+	}
+
+	/**
+	 * Pops the current frame, restoring the values its parameters shadowed.
+	 */
+	private void leave() {
+		if (functions[fp] != null) {
+			env.pop();
+		}
+		Arrays.fill(stack, bases[fp], sp, null);
+		chunks[fp] = null;
+		functions[fp] = null;
+		sp = bases[fp];
+		fp--;
+	}
+
+	/**
+	 * Pops the arguments of a call, and the function below them.
+	 */
+	private Node[] arguments(int n) {
+		Node[] values = Arrays.copyOfRange(stack, sp - n, sp, Node[].class);
+		Arrays.fill(stack, sp - n - 1, sp, null);
+		sp -= n + 1;
+		return values;
+	}
+
+	private void push(Object value) {
+		if (sp == stack.length) {
+			stack = Arrays.copyOf(stack, sp * 2);
+		}
+		stack[sp++] = value;
+	}
+
+	/**
+	 * Folds the integers on top of the stack from the right, as the
+	 * arithmetic primitives do.
+	 */
+	private void arithmetic(int op, int n) {
+		long result = integer(stack[sp - 1]);
+		for (int i = sp - 2; i >= sp - n; i--) {
+			long value = integer(stack[i]);
+			switch (op) {
+			case Code.Arith.SUM:
+				result = value + result;
+				break;
+			case Code.Arith.DIFFERENCE:
+				result = value - result;
+				break;
+			case Code.Arith.PRODUCT:
+				result = value * result;
+				break;
+			default:
+				if (result == 0) {
+					throw Code.Deopt.INSTANCE;
+				}
+				result = value / result;
+				break;
+			}
+		}
+		sp -= n;
+		push(NodeFactory.makeNode(result));
+	}
+
+	/**
+	 * Compares each pair of neighbouring integers on top of the stack.
+	 */
+	private void compare(int op, int n) {
+		boolean holds = true;
+		for (int i = sp - n + 1; i < sp; i++) {
+			long a = integer(stack[i - 1]), b = integer(stack[i]);
+			switch (op) {
+			case Code.Compare.LESS:
+				holds &= a < b;
+				break;
+			case Code.Compare.GREATER:
+				holds &= a > b;
+				break;
+			case Code.Compare.LEQ:
+				holds &= a <= b;
+				break;
+			default:
+				holds &= a >= b;
+				break;
+			}
+		}
+		sp -= n;
+		push(holds ? NodeFactory.TRUE : NodeFactory.FALSE);
+	}
+
+	private static long integer(Object value) {
+		if (!(value instanceof Fixnum)) {
+			throw Code.Deopt.INSTANCE;
+		}
+		return ((Fixnum) value).longValue();
+	}
+
+	/**
+	 * Emits the bytecode of a tree of Code into a Chunk, and collects the
+	 * constants it refers to.
+	 */
+	static final class Assembler {
+
+		private int[] code = new int[32];
+		private int size;
+		private final List<Object> constants = new ArrayList<>();
+		private final Map<Object, Integer> indices = new IdentityHashMap<>();
+
+		private Assembler() {
+		}
+
+		/**
+		 * Appends an instruction.
+		 *
+		 * @param words
+		 *            the opcode, then its operands.
+		 * @return the position of the opcode.
+		 */
+		int emit(int... words) {
+			if (size + words.length > code.length) {
+				code = Arrays.copyOf(code, Math.max(size + words.length,
+						code.length * 2));
+			}
+			System.arraycopy(words, 0, code, size, words.length);
+			size += words.length;
+			return size - words.length;
+		}
+
+		/**
+		 * Grabs the index of a constant, adding it if it is new.
+		 *
+		 * @param value
+		 *            the constant.
+		 * @return its index.
+		 */
+		int constant(Object value) {
+			Integer index = indices.get(value);
+			if (index == null) {
+				index = constants.size();
+				constants.add(value);
+				indices.put(value, index);
+			}
+			return index;
+		}
+
+		/**
+		 * Sets a jump target operand to the position of the next
+		 * instruction.
+		 *
+		 * @param at
+		 *            the position of the operand.
+		 */
+		void patch(int at) {
+			code[at] = size;
+		}
+
+		/**
+		 * Deoptimizes if a symbol is bound as a variable.
+		 *
+		 * @param head
+		 *            the head of a call.
+		 */
+		void guard(Symbol head) {
+			emit(GUARD, constant(head));
+		}
+
+		/**
+		 * Evaluates a Code node by calling it, for nodes which have no
+		 * bytecode of their own.
+		 *
+		 * @param code
+		 *            the node.
+		 */
+		void exec(Code code) {
+			emit(EXEC, constant(code));
+		}
+
+		/**
+		 * Grabs the index of a registered primitive.
+		 *
+		 * @param head
+		 *            the alias of the primitive.
+		 * @return the index in the PrimitiveHandler.
+		 */
+		int primitive(Symbol head) {
+			return Environment.getInstance().getHandler().indexOf(head);
+		}
+	}
+}
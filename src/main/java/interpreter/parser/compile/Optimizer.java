@@ -0,0 +1,307 @@
+/**
+ * Optimizer.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.parser.Atom;
+import interpreter.parser.Environment;
+import interpreter.parser.Fixnum;
+import interpreter.parser.Node;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.SExpression;
+import interpreter.parser.StringAtom;
+import interpreter.parser.Symbol;
+import interpreter.parser.SymbolAtom;
+import interpreter.parser.prim.Primitive;
+import interpreter.parser.prim.PrimitiveHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rewrites each statement, and the body of each function it defines, before
+ * it is evaluated. Calls of pure primitives, as marked by
+ * {@link Primitive#pure()}, whose arguments are all constants are replaced by
+ * their value. An if or a cond whose tests are constants is replaced by the
+ * branch it takes, and a quoted number or string by the number or string.
+ * <p>
+ * Forms are rewritten only where the interpreter evaluates them: the arguments
+ * of pure primitives and of user defined functions, the tests and branches of
+ * if and cond, and the body of a defun. Quoted data, anonymous functions and
+ * the arguments of other primitives are left as they are. As the Compiler
+ * does, the optimizer assumes that a primitive is not shadowed by a variable
+ * of the same name, other than a parameter of the function it is called in.
+ * 
+ * @author Anand
+ *
+ */
+public final class Optimizer {
+
+	private static final Symbol IF = Symbol.intern("if");
+	private static final Symbol COND = Symbol.intern("cond");
+	private static final Symbol DEFUN = Symbol.intern("defun");
+	private static final Symbol QUOTE = Symbol.intern("quote");
+	private static final Symbol QUOTE_SIGN = Symbol.intern("'");
+
+	private static boolean enabled;
+	private static Appendable listing;
+
+	private final PrimitiveHandler handler;
+	private final List<Symbol> params;
+
+	private Optimizer(PrimitiveHandler handler, List<Symbol> params) {
+		this.handler = handler;
+		this.params = params;
+	}
+
+	/**
+	 * Optimizes a top-level statement.
+	 * 
+	 * @param statement
+	 *            the statement Node.
+	 * @return the optimized statement, or the statement itself if nothing
+	 *         in it could be optimized.
+	 */
+	public static Node optimize(Node statement) {
+		return new Optimizer(Environment.getInstance().getHandler(),
+				Collections.<Symbol> emptyList()).rewrite(statement);
+	}
+
+	/**
+	 * Are statements optimized before they are evaluated?
+	 * 
+	 * @return true if the optimizer is enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the optimization of statements.
+	 * 
+	 * @param enabled
+	 *            true to optimize statements.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Optimizer.enabled = enabled;
+	}
+
+	/**
+	 * Grabs where the optimized form of each statement is printed.
+	 * 
+	 * @return the Appendable, or null if optimized forms are not printed.
+	 */
+	public static Appendable getListing() {
+		return listing;
+	}
+
+	/**
+	 * Prints the optimized form of each statement, before it is evaluated,
+	 * to the given Appendable.
+	 * 
+	 * @param listing
+	 *            the Appendable, or null to stop printing.
+	 */
+	public static void setListing(Appendable listing) {
+		Optimizer.listing = listing;
+	}
+
+	/**
+	 * Rewrites a form which the interpreter evaluates.
+	 */
+	private Node rewrite(Node node) {
+		if (!(node instanceof SExpression)) {
+			return node;
+		}
+		SExpression sexp = (SExpression) node;
+		Node head = sexp.getAddr();
+		Symbol symbol = head instanceof SymbolAtom ? ((Atom) head)
+				.getSymbol() : null;
+		if (symbol == null || symbol == Symbol.T || symbol == Symbol.NIL
+				|| Environment.getInstance().isDefinedV(symbol)) {
+			return node;
+		}
+		if (symbol == QUOTE || symbol == QUOTE_SIGN) {
+			Node quoted = sexp.nth(1);
+			return sexp.length() == 2 && (quoted instanceof Fixnum
+					|| quoted instanceof StringAtom) ? quoted : node;
+		} else if (symbol == DEFUN) {
+			return rewriteDefun(sexp);
+		} else if (symbol == IF && sexp.length() == 4) {
+			return rewriteIf(sexp);
+		} else if (symbol == COND) {
+			return rewriteCond(sexp);
+		} else if (handler.isPure(symbol)) {
+			SExpression call = rewriteArgs(sexp);
+			if (params.contains(symbol) || !isConstants(call.getData())) {
+				return call;
+			}
+			Node value = handler.precompute(symbol, call.getData());
+			return value instanceof Atom ? value : call;
+		} else if (handler.isRegistered(symbol)) {
+			return node;
+		}
+		// a call of a user defined function, which evaluates its arguments.
+		return rewriteArgs(sexp);
+	}
+
+	/**
+	 * Rewrites the body of a defun, with the parameters of the function.
+	 */
+	private Node rewriteDefun(SExpression sexp) {
+		if (sexp.length() != 4 || !(sexp.nth(2) instanceof SExpression
+				|| sexp.nth(2) == NodeFactory.FALSE)) {
+			return sexp;
+		}
+		List<Symbol> names = new ArrayList<>();
+		for (Node formals = sexp.nth(2); formals instanceof SExpression;) {
+			Node param = ((SExpression) formals).getAddr();
+			if (param instanceof Atom) {
+				names.add(((Atom) param).getSymbol());
+			}
+			formals = ((SExpression) formals).getData();
+		}
+		Node body = sexp.nth(3);
+		Node optimized = new Optimizer(handler, names).rewrite(body);
+		// a function body must be a list, so a body which folds to an atom
+		// is kept as it is.
+		if (optimized == body || !(optimized instanceof SExpression)) {
+			return sexp;
+		}
+		return list(sexp.nth(0), sexp.nth(1), sexp.nth(2), optimized);
+	}
+
+	/**
+	 * Rewrites an if, which is replaced by its branch if its test is T or
+	 * NIL.
+	 */
+	private Node rewriteIf(SExpression sexp) {
+		SExpression form = rewriteArgs(sexp);
+		Node test = form.nth(1);
+		if (isBoolean(test)) {
+			Node branch = form.nth(isNil(test) ? 3 : 2);
+			if (isPlain(branch)) {
+				return branch;
+			}
+		}
+		return form;
+	}
+
+	/**
+	 * Rewrites a cond. Clauses whose test is NIL are dropped, as are those
+	 * after a clause whose test is T, and a cond whose first clause holds is
+	 * replaced by the value of that clause.
+	 */
+	private Node rewriteCond(SExpression sexp) {
+		if (sexp.length() < 0) {
+			return sexp;
+		}
+		List<Node> clauses = new ArrayList<>();
+		boolean changed = false;
+		for (Node rest = sexp.getData(); rest instanceof SExpression;) {
+			Node clause = ((SExpression) rest).getAddr();
+			if (!(clause instanceof SExpression)
+					|| ((SExpression) clause).length() < 2) {
+				return sexp;
+			}
+			SExpression arm = (SExpression) clause;
+			Node test = rewrite(arm.nth(0));
+			Node value = rewrite(arm.nth(1));
+			rest = ((SExpression) rest).getData();
+			if (isNil(test)) {
+				changed = true;
+				continue;
+			}
+			if (test != arm.nth(0) || value != arm.nth(1)) {
+				// the interpreter ignores anything after the value.
+				Node tail = ((SExpression) arm.getData()).getData();
+				clause = NodeFactory.makeNode(test, NodeFactory.makeNode(
+						value, tail));
+				changed = true;
+			}
+			clauses.add(clause);
+			if (isBoolean(test)) {
+				changed |= rest instanceof SExpression;
+				break;
+			}
+		}
+		if (clauses.isEmpty()) {
+			// no clause holds, which is left to fail when it is evaluated.
+			return sexp;
+		}
+		SExpression first = (SExpression) clauses.get(0);
+		if (isBoolean(first.nth(0)) && isPlain(first.nth(1))) {
+			return first.nth(1);
+		}
+		if (!changed) {
+			return sexp;
+		}
+		clauses.add(0, sexp.getAddr());
+		return list(clauses.toArray(new Node[clauses.size()]));
+	}
+
+	/**
+	 * Rewrites each argument of a call.
+	 */
+	private SExpression rewriteArgs(SExpression sexp) {
+		if (sexp.length() < 0) {
+			return sexp;
+		}
+		Node[] elements = new Node[sexp.length()];
+		boolean changed = false;
+		Node rest = sexp;
+		for (int i = 0; i < elements.length; i++) {
+			Node element = ((SExpression) rest).getAddr();
+			elements[i] = i == 0 ? element : rewrite(element);
+			changed |= elements[i] != element;
+			rest = ((SExpression) rest).getData();
+		}
+		return changed ? (SExpression) list(elements) : sexp;
+	}
+
+	private static Node list(Node... elements) {
+		Node list = NodeFactory.FALSE;
+		for (int i = elements.length - 1; i >= 0; i--) {
+			list = NodeFactory.makeNode(elements[i], list);
+		}
+		return list;
+	}
+
+	/**
+	 * Is every argument in the given list a constant which evaluates to
+	 * itself?
+	 */
+	private static boolean isConstants(Node args) {
+		for (; args instanceof SExpression; args = ((SExpression) args)
+				.getData()) {
+			Node arg = ((SExpression) args).getAddr();
+			if (!(arg instanceof Fixnum || arg instanceof StringAtom
+					|| isBoolean(arg))) {
+				return false;
+			}
+		}
+		return isNil(args);
+	}
+
+	private static boolean isNil(Node node) {
+		return node instanceof Atom && ((Atom) node).getSymbol() == Symbol.NIL;
+	}
+
+	private static boolean isBoolean(Node node) {
+		Symbol symbol = node instanceof Atom ? ((Atom) node).getSymbol()
+				: null;
+		return symbol == Symbol.T || symbol == Symbol.NIL;
+	}
+
+	/**
+	 * Can a branch take the place of the form it is a branch of? The
+	 * interpreter evaluates the then branch of an if, and the value of a
+	 * cond clause, literally, which only matters to lists headed by a
+	 * number.
+	 */
+	private static boolean isPlain(Node branch) {
+		return !(branch instanceof SExpression)
+				|| !(((SExpression) branch).getAddr() instanceof Fixnum);
+	}
+}
@@ -3,8 +3,6 @@
  */
 package interpreter.parser.func;
 
-import interpreter.parser.Node;
-
 /**
  * @author Anand
  *
@@ -12,7 +10,7 @@ import interpreter.parser.Node;
 public class ClosureState {
 
 	private boolean lambda = false;
-	private Node nextNode = null;
+	private int nextLambda = -1;
 	private String nextValue = "";
 
 	private static ClosureState instance;
@@ -36,12 +34,12 @@ public class ClosureState {
 		return lambda;
 	}
 
-	public Node getNextNode() {
-		return nextNode;
+	public int getNextLambda() {
+		return nextLambda;
 	}
 
-	public void setNextNode(Node next) {
-		nextNode = next;
+	public void setNextLambda(int next) {
+		nextLambda = next;
 	}
 
 	public String getNextValue() {
@@ -54,7 +52,7 @@ public class ClosureState {
 
 	public void reset() {
 		lambda = false;
-		nextNode = null;
+		nextLambda = -1;
 		nextValue = "";
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
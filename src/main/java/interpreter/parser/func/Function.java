@@ -4,16 +4,21 @@
 package interpreter.parser.func;
 
 import interpreter.exception.FuncDefException;
-import interpreter.exception.NodeInitException;
+import interpreter.parser.Environment;
 import interpreter.parser.Node;
 import interpreter.parser.NodeFactory;
 import interpreter.parser.SExpression;
+import interpreter.parser.Symbol;
+import interpreter.parser.compile.Code;
+import interpreter.parser.compile.Compiler;
+import interpreter.parser.compile.Chunk;
+import interpreter.parser.compile.Jit;
+import interpreter.parser.compile.Machine;
 import interpreter.util.Pat;
 
+import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Data structure for Lisp function definitions. A function is instantiated with
@@ -27,10 +32,26 @@ import java.util.Map;
  */
 public class Function {
 
+    private static final Symbol IF = Symbol.intern("if");
+    private static final Symbol COND = Symbol.intern("cond");
+
     private final String name;
-    private List<String> params;
+    private List<Symbol> params;
     private Node body;
 
+    // the compiled body, made on the first call once compiling is enabled,
+    // and whether the body has turned out to need the interpreter instead.
+    private Code code;
+    private boolean interpretOnly;
+
+    // the number of calls so far, and the bytecode the body is compiled to
+    // once the calls reach the threshold of the Jit.
+    private int calls;
+    private MethodHandle jitted;
+
+    // the bytecode of the compiled body, for the Machine.
+    private Chunk chunk;
+
     /**
      * Constructs a function with formal parameters and a function body.
      * 
@@ -42,10 +63,10 @@ public class Function {
      *            a Node for the function body
      */
     public Function(String name, Node params, Node body) {
-        if (!(params.isList() || params.toString().equals("NIL"))) {
+        if (!params.isList()) {
             throw new FuncDefException("Invalid function parameters");
         }
-        if (!(body.isList() || body.toString().equals("NIL"))) {
+        if (!body.isList()) {
             throw new FuncDefException("Invalid function body");
         }
         this.params = convertParams(params.toString());
@@ -54,37 +75,261 @@ public class Function {
     }
 
     /**
-     * Evaluates a function by invoking its body with passed arguments.
+     * Adds every Node this function holds on to, to the given list: its
+     * body, and the Nodes its compiled body and its bytecode refer to.
+     * 
+     * @param nodes
+     *            the list of live Nodes.
+     */
+    public void addLiveNodes(List<Node> nodes) {
+        nodes.add(body);
+        if (code != null) {
+            code.addLiveNodes(nodes);
+        }
+        if (chunk != null) {
+            chunk.addLiveNodes(nodes);
+        }
+    }
+
+    /**
+     * Evaluates a function by invoking its body with passed arguments. The
+     * arguments are bound in a new {@link interpreter.parser.Frame}, which is
+     * popped on return. Calls in tail position reuse the frame.
      * 
      * @param args
      *            the list of actuals.
      * @return the resultant Node after evaluation.
      */
     public Node eval(Node args) {
-        return body.eval(true, bind(args));
+        Node[] values = bind(args);
+        if (!Compiler.isEnabled() && !Machine.isEnabled()) {
+            Environment env = Environment.getInstance();
+            env.push(params, values);
+            try {
+                return trampoline(interpret());
+            }
+            finally {
+                env.pop();
+            }
+        }
+        return call(values);
+    }
+
+    /**
+     * Calls this function with evaluated arguments, running its compiled
+     * body. The body is compiled on the first call, and is interpreted from
+     * then on if the compiled code ever meets a case it does not handle. If
+     * the Jit is enabled, a body which has been called often enough is then
+     * compiled to bytecode. If the Machine is enabled, the compiled body is
+     * run there instead.
+     * 
+     * @param values
+     *            the value of each parameter, in order.
+     * @return the resultant Node after evaluation.
+     * @see Compiler
+     */
+    public Node call(Node[] values) {
+        if (jitted == null) {
+            if (Machine.isEnabled() && getChunk() != null) {
+                return Machine.call(this, values);
+            }
+            if (compile() && ++calls == Jit.getThreshold()
+                    && Jit.isEnabled()) {
+                jitted = Jit.compile(this, code);
+            }
+        }
+        Environment env = Environment.getInstance();
+        env.push(params, values);
+        try {
+            return trampoline(run());
+        }
+        finally {
+            env.pop();
+        }
+    }
+
+    /**
+     * Makes the calls in tail position which a body has returned, each in
+     * the frame of the call it replaces, until a body returns a value.
+     * 
+     * @param result
+     *            the result of a body, which may be a TailCall.
+     * @return the value.
+     * @see Environment#replace(List, Node[])
+     */
+    public static Node trampoline(Node result) {
+        while (result instanceof TailCall) {
+            TailCall call = (TailCall) result;
+            Function function = call.getFunction();
+            Environment.getInstance().replace(function.params,
+                    call.getValues());
+            result = function.run();
+        }
+        return result;
+    }
+
+    /**
+     * Abandons the bytecode of this function, which has met a case it does
+     * not handle, and interprets the body instead, with the parameters still
+     * bound. Called from the bytecode itself.
+     * 
+     * @return the resultant Node after evaluation.
+     * @see Jit
+     */
+    public Node deoptimize() {
+        jitted = null;
+        chunk = null;
+        interpretOnly = true;
+        Jit.deoptimize(this);
+        return trampoline(interpret());
+    }
+
+    /**
+     * Runs the body in the frame of the current call, in the fastest way it
+     * can be run.
+     * 
+     * @return the resultant Node, or a TailCall.
+     */
+    private Node run() {
+        if (jitted != null) {
+            return Jit.enter(jitted);
+        }
+        if ((Compiler.isEnabled() || Machine.isEnabled()) && compile()) {
+            try {
+                return code.exec();
+            }
+            catch (Code.Deopt e) {
+                interpretOnly = true;
+            }
+        }
+        return interpret();
+    }
+
+    /**
+     * Interprets the body in the frame of the current call. The forms in
+     * tail position are taken apart here rather than by the primitives: the
+     * branch of an if or a cond is chosen as the primitive would choose it,
+     * and a call of a user defined function is returned as a TailCall once
+     * its arguments are evaluated. Forms of any other shape are evaluated
+     * as usual.
+     * 
+     * @return the resultant Node, or a TailCall.
+     */
+    private Node interpret() {
+        Environment env = Environment.getInstance();
+        Node form = body;
+        boolean literal = true;
+        for (;;) {
+            if (!(form instanceof SExpression)) {
+                return form.eval(literal);
+            }
+            SExpression sexp = (SExpression) form;
+            Symbol operator = sexp.getOperator();
+            if (operator == null) {
+                return form.eval(literal);
+            } else if (env.isDefinedF(operator)) {
+                Function callee = env.getFunction(operator);
+                return new TailCall(callee, callee.bind(sexp.getData()));
+            } else if (operator == IF && sexp.length() == 4) {
+                Node test = sexp.nth(1).eval();
+                if (test == null) {
+                    return null;
+                }
+                // the primitive evaluates only the first branch literally.
+                literal = test.equals(NodeFactory.TRUE);
+                form = sexp.nth(literal ? 2 : 3);
+            } else if (operator == COND && isClauses(sexp.getData())) {
+                form = null;
+                for (Node clauses = sexp.getData(); form == null
+                        && clauses instanceof SExpression;) {
+                    SExpression clause = (SExpression) ((SExpression) clauses)
+                            .getAddr();
+                    if (clause.getAddr().eval() == NodeFactory.TRUE) {
+                        form = clause.nth(1);
+                    }
+                    clauses = ((SExpression) clauses).getData();
+                }
+                if (form == null) {
+                    // no clause holds, for which the primitive gives null.
+                    return null;
+                }
+                literal = true;
+            } else {
+                return form.eval(literal);
+            }
+        }
+    }
+
+    /**
+     * Is the given list made of cond clauses, each with a test and a value?
+     */
+    private static boolean isClauses(Node clauses) {
+        if (!(clauses instanceof SExpression)) {
+            return false;
+        }
+        for (Node node = clauses; node instanceof SExpression;) {
+            Node clause = ((SExpression) node).getAddr();
+            if (!(clause instanceof SExpression)
+                    || ((SExpression) clause).length() < 2) {
+                return false;
+            }
+            node = ((SExpression) node).getData();
+        }
+        return true;
+    }
+
+    /**
+     * Grabs the bytecode of this function for the Machine, assembling it on
+     * the first call.
+     * 
+     * @return the Chunk, or null if the body must be interpreted.
+     * @see Machine
+     */
+    public Chunk getChunk() {
+        if (!compile()) {
+            return null;
+        } else if (chunk == null) {
+            chunk = Machine.assemble(code, body);
+        }
+        return chunk;
+    }
+
+    /**
+     * Compiles the body, unless it has already been compiled, or turned out
+     * to need the interpreter.
+     * 
+     * @return true if there is a compiled body.
+     */
+    private boolean compile() {
+        if (!interpretOnly && code == null) {
+            code = Compiler.compile(body, params);
+            interpretOnly = code == null;
+        }
+        return !interpretOnly;
     }
 
     /**
      * Create a list of parameters from a string containing the formals.
-     * Additionally validifies parameters.
+     * Additionally validifies parameters, and interns their names.
      * 
      * @param formals
      *            the String of parameters.
-     * @return a List of parameter names.
+     * @return a List of parameter symbols.
      * @throws FuncDefException
      *             if parameters are not distinct or not well-formed.
      */
-    private List<String> convertParams(String formals) {
+    private List<Symbol> convertParams(String formals) {
         String[] words = formals.substring(1, formals.length() - 1)
                 .split("\\s");
-        List<String> result = new ArrayList<>();
+        List<Symbol> result = new ArrayList<>();
         for (String word : words) {
             if (Pat.VALID_FUNC.matches(word)) {
-                if (result.contains(word)) {
+                Symbol param = Symbol.intern(word);
+                if (result.contains(param)) {
                     throw new FuncDefException(
                             "Formal param names cannot be duplicates.");
                 }
-                result.add(word);
+                result.add(param);
             } else {
                 throw new FuncDefException(
                         "Parameter names must be alphanumeric literals : "
@@ -95,42 +340,67 @@ public class Function {
     }
 
     /**
-     * Constructs a binding table of formals -> actuals.
+     * Evaluates the actuals of a call into the slots of its frame, one per
+     * formal.
      * 
      * @param actuals
      *            the Node of actual parameters.
-     * @return a binding table.
+     * @return the value of each formal, in order.
      */
-    private Map<String, Node> bind(Node actuals) {
-        Map<String, Node> env = new HashMap<>();
+    private Node[] bind(Node actuals) {
+        Node[] values = new Node[params.size()];
         if (!actuals.isList()) {
-            if (!actuals.toString().equals("NIL")) {
+            if (actuals != NodeFactory.FALSE) {
                 throw new FuncDefException(
                         "Invalid parameters passed in bind operation.");
             }
-            return env;
+            return values;
         }
-        SExpression s = new SExpression(actuals);
+        SExpression s = (SExpression) actuals;
         for (int i = 0; i < params.size(); i++) {
-            String f = params.get(i);
-            env.put(f, s.getAddr().eval());
-            try {
-                s = new SExpression(s.getDataTokens());
-            }
-            catch (NodeInitException e) {
-                if (i < params.size() - 1) {
-                    throw new FuncDefException("Too few args for function : "
-                            + name);
-                }
+            values[i] = s.getAddr().eval();
+            Node rest = s.getData();
+            if (rest instanceof SExpression) {
+                s = (SExpression) rest;
+            } else if (i < params.size() - 1) {
+                throw new FuncDefException("Too few args for function : "
+                        + name);
             }
         }
 
         if (s.getData().eval().equals(NodeFactory.FALSE)) {
-            return env;
+            return values;
         }
         throw new FuncDefException("Too many args for function : " + name);
     }
 
+    /**
+     * Grabs the body of this function.
+     * 
+     * @return the body Node.
+     */
+    public Node getBody() {
+        return body;
+    }
+
+    /**
+     * Grabs the name of this function.
+     * 
+     * @return the name, which is 'lambda' for an anonymous function.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Grabs the interned formal parameters of this function.
+     * 
+     * @return a List of parameter symbols.
+     */
+    public List<Symbol> getParams() {
+        return params;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
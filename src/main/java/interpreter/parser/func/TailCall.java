@@ -0,0 +1,88 @@
+/**
+ * TailCall.java is a part of Lispreter. 
+ */
+package interpreter.parser.func;
+
+import interpreter.parser.Node;
+import interpreter.parser.Symbol;
+
+import java.util.Map;
+
+/**
+ * A call of a user defined function in tail position, with its arguments
+ * already evaluated. A function body returns one instead of making the call,
+ * and the function whose body it is then makes the call in the frame of its
+ * own, so that a loop written as tail recursion runs in constant stack.
+ * <p>
+ * A TailCall is never a value of the program: it only passes from a body to
+ * {@link Function#trampoline(Node)}, and cannot be evaluated.
+ * 
+ * @author Anand
+ *
+ */
+public final class TailCall extends Node {
+
+    private final Function function;
+    private final Node[] values;
+
+    /**
+     * Constructs a pending call.
+     * 
+     * @param function
+     *            the function to call.
+     * @param values
+     *            the value of each parameter, in order.
+     */
+    public TailCall(Function function, Node[] values) {
+        this.function = function;
+        this.values = values;
+    }
+
+    /**
+     * Grabs the function to call.
+     * 
+     * @return the Function.
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * Grabs the arguments of the call.
+     * 
+     * @return the value of each parameter, in order.
+     */
+    public Node[] getValues() {
+        return values;
+    }
+
+    @Override
+    public boolean isList() {
+        return false;
+    }
+
+    @Override
+    public Node eval() {
+        throw new IllegalStateException("A tail call is not a value.");
+    }
+
+    @Override
+    public Node eval(boolean literal) {
+        return eval();
+    }
+
+    @Override
+    public Node eval(boolean literal, Map<Symbol, Node> env) {
+        return eval();
+    }
+
+    @Override
+    public Node eval(Map<Symbol, Node> env) {
+        return eval();
+    }
+
+    @Override
+    public String toString() {
+        return "TailCall [function=" + function.getName() + "]";
+    }
+}
@@ -14,12 +14,12 @@ import interpreter.util.Pat;
  */
 public final class BoolFuncs {
 
-    @Primitive(aliases = { "T", "true" }, sexpRequired = false)
+    @Primitive(aliases = { "T", "true" }, sexpRequired = false, pure = true)
     public static Node t() {
         return NodeFactory.TRUE;
     }
 
-    @Primitive(aliases = { "NIL", "false" }, sexpRequired = false)
+    @Primitive(aliases = { "NIL", "false" }, sexpRequired = false, pure = true)
     public static Node nil() {
         return NodeFactory.FALSE;
     }
@@ -35,7 +35,7 @@ public final class BoolFuncs {
      *            the S-Expression to evaluate.
      * @return T or NIL nodes.
      */
-    @Primitive(aliases = { "eq", "equalp", "=" })
+    @Primitive(aliases = { "eq", "equalp", "=" }, pure = true)
     public static Node eq(SExpression sexp) {
         return NodeFactory.makeNode(sexp.getAddr().eval(true)
                 .equals(sexp.getData().eval(true)));
@@ -48,18 +48,18 @@ public final class BoolFuncs {
      *            the S-Expression to evaluate.
      * @return T or NIL if the S-Expression is NIL.
      */
-    @Primitive(aliases = { "null", "endp" })
+    @Primitive(aliases = { "null", "endp" }, pure = true)
     public static Node endp(SExpression sexp) {
         Node addr = sexp.getAddr();
-        boolean bool = addr.eval().toString().equals("NIL");
-        if (addr.isList() && !addr.equals(NodeFactory.FALSE)) {
-            bool = new SExpression(addr).getData().eval(true)
-                    .equals(NodeFactory.FALSE);
+        boolean bool = addr.eval() == NodeFactory.FALSE;
+        if (addr.isList() && addr != NodeFactory.FALSE) {
+            Node rest = new SExpression(addr).getData().eval(true);
+            bool = rest == NodeFactory.FALSE;
         }
         return NodeFactory.makeNode(bool);
     }
 
-    @Primitive(aliases = { "atom" })
+    @Primitive(aliases = { "atom" }, pure = true)
     public static Node atom(SExpression sexp) {
         return NodeFactory.makeNode(Pat.LITERAL.matches(sexp.getAddr().eval()
                 .toString()));
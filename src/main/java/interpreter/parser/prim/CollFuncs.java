@@ -0,0 +1,251 @@
+/**
+ * CollFuncs.java is a part of Lispreter. 
+ */
+package interpreter.parser.prim;
+
+import interpreter.parser.Aggregate;
+import interpreter.parser.Fixnum;
+import interpreter.parser.Node;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.PersistentHashMap;
+import interpreter.parser.PersistentVector;
+import interpreter.parser.SExpression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Functions on the persistent vector and hash map aggregates. Every argument
+ * is evaluated, and no function changes an aggregate it is given; updates
+ * return a new aggregate which shares structure with the old one.
+ * 
+ * @author Anand
+ *
+ */
+public final class CollFuncs {
+
+	/**
+	 * Makes a vector of the values of the arguments.
+	 * 
+	 * @param args
+	 *            the elements.
+	 * @return a PersistentVector.
+	 */
+	@Primitive(aliases = "vector")
+	public static Node vector(Node args) {
+		return PersistentVector.of(evalArgs(args));
+	}
+
+	/**
+	 * Makes a hash map from alternating keys and values.
+	 * 
+	 * @param args
+	 *            the keys and values.
+	 * @return a PersistentHashMap.
+	 * @throws IllegalArgumentException
+	 *             if a key has no value.
+	 */
+	@Primitive(aliases = "hashmap")
+	public static Node hashmap(Node args) {
+		List<Node> values = evalArgs(args);
+		if (values.size() % 2 != 0) {
+			throw new IllegalArgumentException("A key has no value");
+		}
+		PersistentHashMap.Transient map = PersistentHashMap.EMPTY
+				.asTransient();
+		for (int i = 0; i < values.size(); i += 2) {
+			map.assoc(values.get(i), values.get(i + 1));
+		}
+		return map.persistent();
+	}
+
+	/**
+	 * Looks up an element of a vector by its index, or a value of a map by
+	 * its key.
+	 * 
+	 * @param args
+	 *            the aggregate, then the index or key.
+	 * @return the element or value, or NIL if there is none.
+	 */
+	@Primitive(aliases = "lookup")
+	public static Node lookup(Node args) {
+		List<Node> values = evalArgs(args);
+		Node coll = values.get(0), key = values.get(1);
+		if (coll instanceof PersistentVector) {
+			PersistentVector vector = (PersistentVector) coll;
+			long index = ((Fixnum) key).longValue();
+			return index >= 0 && index < vector.count() ? vector
+					.nth((int) index) : NodeFactory.FALSE;
+		}
+		Node value = ((PersistentHashMap) coll).get(key);
+		return value == null ? NodeFactory.FALSE : value;
+	}
+
+	/**
+	 * Replaces elements of a vector, or entries of a map.
+	 * 
+	 * @param args
+	 *            the aggregate, then alternating indices or keys and values.
+	 * @return the updated aggregate.
+	 * @throws IllegalArgumentException
+	 *             if an index or key has no value.
+	 */
+	@Primitive(aliases = "put")
+	public static Node put(Node args) {
+		List<Node> values = evalArgs(args);
+		if (values.size() % 2 != 1) {
+			throw new IllegalArgumentException("An index or key has no value");
+		}
+		Node coll = values.get(0);
+		if (coll instanceof PersistentVector) {
+			PersistentVector vector = (PersistentVector) coll;
+			for (int i = 1; i < values.size(); i += 2) {
+				vector = vector.assocN(toIndex(values.get(i)),
+						values.get(i + 1));
+			}
+			return vector;
+		}
+		PersistentHashMap map = (PersistentHashMap) coll;
+		for (int i = 1; i < values.size(); i += 2) {
+			map = map.assoc(values.get(i), values.get(i + 1));
+		}
+		return map;
+	}
+
+	/**
+	 * Removes the entries of keys from a map.
+	 * 
+	 * @param args
+	 *            the map, then the keys.
+	 * @return the updated map.
+	 */
+	@Primitive(aliases = "dissoc")
+	public static Node dissoc(Node args) {
+		List<Node> values = evalArgs(args);
+		PersistentHashMap map = (PersistentHashMap) values.get(0);
+		for (Node key : values.subList(1, values.size())) {
+			map = map.without(key);
+		}
+		return map;
+	}
+
+	/**
+	 * Appends elements to a vector, or adds (key . value) pairs to a map.
+	 * 
+	 * @param args
+	 *            the aggregate, then the elements.
+	 * @return the updated aggregate.
+	 */
+	@Primitive(aliases = "conj")
+	public static Node conj(Node args) {
+		List<Node> values = evalArgs(args);
+		return into(values.get(0), values.subList(1, values.size()));
+	}
+
+	/**
+	 * Adds every element of a list, vector or map to an aggregate at once,
+	 * through a transient.
+	 * 
+	 * @param args
+	 *            the aggregate, then the collection of elements.
+	 * @return the updated aggregate.
+	 */
+	@Primitive(aliases = "into")
+	public static Node into(Node args) {
+		List<Node> values = evalArgs(args);
+		return into(values.get(0), elements(values.get(1)));
+	}
+
+	/**
+	 * Counts the elements of an aggregate or a list.
+	 * 
+	 * @param args
+	 *            the aggregate or list.
+	 * @return the count.
+	 */
+	@Primitive(aliases = "size")
+	public static Node size(Node args) {
+		Node coll = evalArgs(args).get(0);
+		if (coll instanceof Aggregate) {
+			return NodeFactory.makeNode(((Aggregate) coll).count());
+		}
+		return ListFuncs.length(coll);
+	}
+
+	/**
+	 * Lists the elements of a vector, or the entries of a map as (key .
+	 * value) pairs.
+	 * 
+	 * @param args
+	 *            the aggregate.
+	 * @return a list, or NIL if the aggregate is empty.
+	 */
+	@Primitive(aliases = "seq")
+	public static Node seq(Node args) {
+		Node coll = evalArgs(args).get(0);
+		if (coll instanceof Aggregate) {
+			return ((Aggregate) coll).seq();
+		}
+		return coll;
+	}
+
+	private static Node into(Node coll, List<Node> elements) {
+		if (coll instanceof PersistentVector) {
+			PersistentVector.Transient vector = ((PersistentVector) coll)
+					.asTransient();
+			for (Node element : elements) {
+				vector.conj(element);
+			}
+			return vector.persistent();
+		}
+		PersistentHashMap.Transient map = ((PersistentHashMap) coll)
+				.asTransient();
+		for (Node element : elements) {
+			SExpression pair = (SExpression) element;
+			map.assoc(pair.getAddr(), pair.getData());
+		}
+		return map.persistent();
+	}
+
+	/**
+	 * Grabs the elements of a list, the elements of a vector, or the entries
+	 * of a map as (key . value) pairs.
+	 */
+	private static List<Node> elements(Node coll) {
+		Node list = coll instanceof PersistentHashMap ? ((Aggregate) coll)
+				.seq() : coll;
+		List<Node> result = new ArrayList<>();
+		if (list instanceof PersistentVector) {
+			for (Node element : (PersistentVector) list) {
+				result.add(element);
+			}
+			return result;
+		}
+		for (Node node = list; node instanceof SExpression;) {
+			result.add(((SExpression) node).getAddr());
+			node = ((SExpression) node).getData();
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluates every argument, in order.
+	 */
+	private static List<Node> evalArgs(Node args) {
+		List<Node> values = new ArrayList<>();
+		for (Node node = args; node instanceof SExpression;) {
+			values.add(((SExpression) node).getAddr().eval(true));
+			node = ((SExpression) node).getData();
+		}
+		return values;
+	}
+
+	private static int toIndex(Node n) {
+		long index = ((Fixnum) n).longValue();
+		if (index < 0 || index > Integer.MAX_VALUE) {
+			throw new IndexOutOfBoundsException("Vector index out of range : "
+					+ index);
+		}
+		return (int) index;
+	}
+}
@@ -5,12 +5,17 @@ package interpreter.parser.prim;
 
 import interpreter.exception.FuncDefException;
 import interpreter.parser.Environment;
+import interpreter.parser.Fixnum;
 import interpreter.parser.Node;
 import interpreter.parser.NodeFactory;
 import interpreter.parser.SExpression;
+import interpreter.parser.Symbol;
 import interpreter.parser.func.ClosureState;
 import interpreter.util.Pat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Anand
  *
@@ -19,24 +24,12 @@ public final class ListFuncs {
 
     @Primitive(aliases = { "car", "first" })
     public static Node car(Node n) {
-        SExpression sexp;
-        if (n.isList()) {
-            sexp = new SExpression(n);
-        } else {
-            sexp = new SExpression(n.eval());
-        }
-        return sexp.getAddr();
+        return asSExpression(n).getAddr();
     }
 
     @Primitive(aliases = { "cdr", "rest" })
     public static Node cdr(Node n) {
-        SExpression sexp;
-        if (n.isList()) {
-            sexp = new SExpression(n);
-        } else {
-            sexp = new SExpression(n.eval());
-        }
-        return NodeFactory.makeNode(sexp.getDataTokens());
+        return asSExpression(n).getData();
     }
 
     @Primitive(aliases = { "defun" })
@@ -50,12 +43,12 @@ public final class ListFuncs {
             throw new FuncDefException("Cannot override a primitive function");
         }
 
-        SExpression dTokens = new SExpression(sexp.getDataTokens());
-        Node formals = NodeFactory.makeNode(dTokens.getAddrTokens());
-        Node body = NodeFactory.makeNode(new SExpression(dTokens
-                .getDataTokens()).getAddrTokens());
+        SExpression dTokens = new SExpression(sexp.getData());
+        Node formals = dTokens.getAddr();
+        Node body = new SExpression(dTokens.getData()).getAddr();
 
-        Environment.getInstance().registerFunc(name, formals, body);
+        Environment.getInstance().registerFunc(Symbol.intern(name), formals,
+                body);
 
         return NodeFactory.makeNode(name);
     }
@@ -79,7 +72,7 @@ public final class ListFuncs {
             cs.setNextValue(addr.toString());
             return NodeFactory.LAMBDA;
         }
-        return env.execLamb(cs.getNextNode(), data);
+        return env.execLamb(cs.getNextLambda(), data);
     }
 
     /**
@@ -96,33 +89,62 @@ public final class ListFuncs {
      */
     @Primitive(aliases = "cons")
     public static Node cons(SExpression sexp) {
-        Node cadr = new SExpression(sexp.getDataTokens()).getAddr();
+        Node cadr = new SExpression(sexp.getData()).getAddr();
         if (cadr.isList()) {
-            return new SExpression(sexp.getAddr().eval(), cadr.eval());
+            return NodeFactory.makeNode(sexp.getAddr().eval(), cadr.eval());
         }
-        return new SExpression(sexp.getAddr().eval(), new SExpression(
-                cadr.eval(), NodeFactory.FALSE));
+        return NodeFactory.makeNode(sexp.getAddr().eval(), NodeFactory
+                .makeNode(cadr.eval(), NodeFactory.FALSE));
     }
 
+    /**
+     * Evaluates each argument and collects the values into a list. All of the
+     * elements are known at once, so a proper list is built as a compact list
+     * rather than cell by cell.
+     * 
+     * @param sexp
+     *            S-Expression arguments.
+     * @return the list of values, ending in the dotted tail of the arguments,
+     *         if any.
+     */
     @Primitive(aliases = "list")
     public static Node list(SExpression sexp) {
-        Node evalAddr = sexp.getAddr().eval(true);
-        Node data = sexp.getData();
+        List<Node> elements = new ArrayList<>();
+        Node node = sexp;
+        do {
+            SExpression cell = (SExpression) node;
+            elements.add(cell.getAddr().eval(true));
+            node = cell.getData();
+        } while (node.isList() && node != NodeFactory.FALSE);
+        return NodeFactory.makeList(
+                elements.toArray(new Node[elements.size()]), node);
+    }
 
-        if (data.isList() && !data.equals(NodeFactory.FALSE)) {
-            return new SExpression(evalAddr, list(new SExpression(data)));
+    /**
+     * Grabs an element of a list by its index. The element of a compact list
+     * is found without walking the list.
+     * 
+     * @param sexp
+     *            S-Expression arguments, the index and then the list.
+     * @return the element, or NIL if the list is too short.
+     */
+    @Primitive(aliases = "nth")
+    public static Node nth(SExpression sexp) {
+        long index = ((Fixnum) sexp.getAddr().eval()).longValue();
+        Node list = new SExpression(sexp.getData()).getAddr().eval();
+        if (!(list instanceof SExpression)) {
+            return NodeFactory.FALSE;
         }
-        return new SExpression(evalAddr, data);
+        return ((SExpression) list).nth((int) Math.min(index,
+                Integer.MAX_VALUE));
     }
 
     @Primitive(aliases = "length")
     public static Node length(Node n) {
-        if (!n.isList() || n.equals(NodeFactory.FALSE)) {
+        if (!(n instanceof SExpression) || !n.isList()) {
             return NodeFactory.makeNode(0);
         }
-        SExpression sexp = new SExpression(n);
-        return NodeFactory.makeNode(1 + Integer.valueOf(length(sexp.getData())
-                .toString()));
+        return NodeFactory.makeNode(((SExpression) n).length());
     }
 
     /**
@@ -138,16 +160,16 @@ public final class ListFuncs {
      */
     @Primitive(aliases = "cond")
     public static Node cond(SExpression sexp) {
-        SExpression addr = new SExpression(sexp.getAddrTokens());
-        if (addr.getAddr().eval().toString().equalsIgnoreCase("T")) {
-            return new SExpression(addr.getDataTokens()).getAddr().eval(true);
+        SExpression addr = new SExpression(sexp.getAddr());
+        if (addr.getAddr().eval() == NodeFactory.TRUE) {
+            return new SExpression(addr.getData()).getAddr().eval(true);
         }
-        return cond(new SExpression(sexp.getDataTokens()));
+        return cond(new SExpression(sexp.getData()));
     }
 
     @Primitive(aliases = "if")
     public static Node ifelse(SExpression sexp) {
-        SExpression dTokens = new SExpression(sexp.getDataTokens());
+        SExpression dTokens = new SExpression(sexp.getData());
         if (sexp.getAddr().eval().equals(NodeFactory.TRUE)) {
             return dTokens.getAddr().eval(true);
         }
@@ -168,13 +190,20 @@ public final class ListFuncs {
         return sexp.getAddr();
     }
 
-    private static boolean isPrimitiveRegistered(String alias) {
-        for (String funcName : Environment.getInstance().getHandler()
-                .getRegisteredFunctions().keySet()) {
-            if (funcName.equals(alias)) {
-                return true;
-            }
+    /**
+     * Grabs the S-Expression a list argument stands for, evaluating it only if
+     * it is not a list already.
+     */
+    private static SExpression asSExpression(Node n) {
+        Node list = n.isList() ? n : n.eval();
+        if (list instanceof SExpression) {
+            return (SExpression) list;
         }
-        return false;
+        return new SExpression(list);
+    }
+
+    private static boolean isPrimitiveRegistered(String alias) {
+        return Environment.getInstance().getHandler()
+                .isRegistered(Symbol.intern(alias));
     }
 }
@@ -5,10 +5,12 @@ package interpreter.parser.prim;
 
 import interpreter.exception.ArithmeticZeroError;
 import interpreter.exception.NodeInitException;
+import interpreter.parser.Fixnum;
 import interpreter.parser.Node;
 import interpreter.parser.NodeFactory;
 import interpreter.parser.SExpression;
-import interpreter.util.Pat;
+
+import java.util.Arrays;
 
 /**
  * Math operation functions that are already pre-packaged.
@@ -25,7 +27,7 @@ public final class MathFuncs {
 	 *            the S-Expression to evaluate.
 	 * @return T or NIL if the given S-Expression is an integer.
 	 */
-	@Primitive(aliases = "integerp")
+	@Primitive(aliases = "integerp", pure = true)
 	public static Node integerp(Node n) {
 		Node toEval = n;
 		try {
@@ -33,8 +35,7 @@ public final class MathFuncs {
 			toEval = sexp.getAddr();
 		}
 		catch (Exception e) {}
-		return NodeFactory.makeNode(Pat.ATOM_NUM.matches(toEval.eval(true)
-				.toString()));
+		return NodeFactory.makeNode(toEval.eval(true) instanceof Fixnum);
 	}
 
 	/**
@@ -42,7 +43,7 @@ public final class MathFuncs {
 	 * integer evaluations for basic math operations.
 	 */
 
-	@Primitive(aliases = { "sum", "+" })
+	@Primitive(aliases = { "sum", "+" }, pure = true)
 	public static Node plus(SExpression sexp) {
 		Node evaluatedAddr = sexp.getAddr().eval();
 		if (evaluatedAddr.isList()) {
@@ -50,8 +51,8 @@ public final class MathFuncs {
 		}
 		Node data = sexp.getData();
 
-		int sum = toInteger(sexp.getAddr());
-		if (!data.eval(true).toString().matches("NIL")) {
+		long sum = toInteger(sexp.getAddr());
+		if (data.eval(true) != NodeFactory.FALSE) {
 			try {
 				sum += toInteger(plus(new SExpression(data)));
 			}
@@ -62,7 +63,7 @@ public final class MathFuncs {
 		return NodeFactory.makeNode(sum);
 	}
 
-	@Primitive(aliases = { "difference", "-" })
+	@Primitive(aliases = { "difference", "-" }, pure = true)
 	public static Node minus(SExpression sexp) {
 		Node evaluatedAddr = sexp.getAddr().eval();
 		if (evaluatedAddr.isList()) {
@@ -70,8 +71,8 @@ public final class MathFuncs {
 		}
 		Node data = sexp.getData();
 
-		int diff = toInteger(sexp.getAddr());
-		if (!data.eval(true).toString().matches("NIL")) {
+		long diff = toInteger(sexp.getAddr());
+		if (data.eval(true) != NodeFactory.FALSE) {
 			try {
 				diff -= toInteger(minus(new SExpression(data)));
 			}
@@ -82,7 +83,7 @@ public final class MathFuncs {
 		return NodeFactory.makeNode(diff);
 	}
 
-	@Primitive(aliases = { "product", "*" })
+	@Primitive(aliases = { "product", "*" }, pure = true)
 	public static Node product(SExpression sexp) {
 		Node evaluatedAddr = sexp.getAddr().eval();
 		if (evaluatedAddr.isList()) {
@@ -90,8 +91,8 @@ public final class MathFuncs {
 		}
 		Node data = sexp.getData();
 
-		int prod = toInteger(sexp.getAddr());
-		if (!data.eval(true).toString().matches("NIL")) {
+		long prod = toInteger(sexp.getAddr());
+		if (data.eval(true) != NodeFactory.FALSE) {
 			try {
 				prod *= toInteger(product(new SExpression(data)));
 			}
@@ -102,7 +103,7 @@ public final class MathFuncs {
 		return NodeFactory.makeNode(prod);
 	}
 
-	@Primitive(aliases = { "quotient", "/" })
+	@Primitive(aliases = { "quotient", "/" }, pure = true)
 	public static Node quotient(SExpression sexp) {
 		Node evaluatedAddr = sexp.getAddr().eval();
 		if (evaluatedAddr.isList()) {
@@ -110,9 +111,9 @@ public final class MathFuncs {
 		}
 		Node data = sexp.getData();
 
-		int quot = toInteger(sexp.getAddr());
-		if (!data.eval(true).toString().matches("NIL")) {
-			int dividend;
+		long quot = toInteger(sexp.getAddr());
+		if (data.eval(true) != NodeFactory.FALSE) {
+			long dividend;
 			try {
 				dividend = toInteger(quotient(new SExpression(data)));
 			}
@@ -125,62 +126,124 @@ public final class MathFuncs {
 		return NodeFactory.makeNode(quot);
 	}
 
-	@Primitive(aliases = "rem")
+	@Primitive(aliases = "rem", pure = true)
 	public static Node remainder(SExpression sexp) {
 		return NodeFactory.makeNode(toInteger(sexp.getAddr())
 				% checkZero(toInteger(sexp.getData())));
 	}
 
-	@Primitive(aliases = "mod")
+	@Primitive(aliases = "mod", pure = true)
 	public static Node mod(SExpression sexp) {
 		return NodeFactory.makeNode(Math.floorMod(toInteger(sexp.getAddr()),
 				checkZero(toInteger(sexp.getData()))));
 	}
 
-	@Primitive(aliases = { "expt", "^" })
+	@Primitive(aliases = { "expt", "^" }, pure = true)
 	public static Node expt(SExpression sexp) {
-		return NodeFactory.makeNode((int) Math.pow(toInteger(sexp.getAddr()),
+		return NodeFactory.makeNode((long) Math.pow(toInteger(sexp.getAddr()),
 				toInteger(sexp.getData())));
 	}
 
-	@Primitive(aliases = { "less", "<" })
+	/**
+	 * The relational operators compare every pair of adjacent arguments, so
+	 * that (less 1 2 3) holds but (less 1 3 2) does not.
+	 */
+
+	@Primitive(aliases = { "less", "<" }, pure = true)
 	public static Node less(SExpression sexp) {
-		return NodeFactory.makeNode(toInteger(sexp.getAddr()) < toInteger(sexp
-				.getData()));
+		long[] args = toIntegers(sexp);
+		for (int i = 1; i < args.length; i++) {
+			if (!(args[i - 1] < args[i])) {
+				return NodeFactory.FALSE;
+			}
+		}
+		return NodeFactory.TRUE;
 	}
 
-	@Primitive(aliases = { "greater", ">" })
+	@Primitive(aliases = { "greater", ">" }, pure = true)
 	public static Node greater(SExpression sexp) {
-		return NodeFactory.makeNode(toInteger(sexp.getAddr()) > toInteger(sexp
-				.getData()));
+		long[] args = toIntegers(sexp);
+		for (int i = 1; i < args.length; i++) {
+			if (!(args[i - 1] > args[i])) {
+				return NodeFactory.FALSE;
+			}
+		}
+		return NodeFactory.TRUE;
 	}
 
-	@Primitive(aliases = { "leq", "<=" })
+	@Primitive(aliases = { "leq", "<=" }, pure = true)
 	public static Node leq(SExpression sexp) {
-		return NodeFactory.makeNode(toInteger(sexp.getAddr()) <= toInteger(sexp
-				.getData()));
+		long[] args = toIntegers(sexp);
+		for (int i = 1; i < args.length; i++) {
+			if (!(args[i - 1] <= args[i])) {
+				return NodeFactory.FALSE;
+			}
+		}
+		return NodeFactory.TRUE;
 	}
 
-	@Primitive(aliases = { "geq", ">=" })
+	@Primitive(aliases = { "geq", ">=" }, pure = true)
 	public static Node geq(SExpression sexp) {
-		return NodeFactory.makeNode(toInteger(sexp.getAddr()) >= toInteger(sexp
-				.getData()));
+		long[] args = toIntegers(sexp);
+		for (int i = 1; i < args.length; i++) {
+			if (!(args[i - 1] >= args[i])) {
+				return NodeFactory.FALSE;
+			}
+		}
+		return NodeFactory.TRUE;
 	}
 
 	/**
-	 * Convenience method to parse a Node into Integer format.
+	 * Convenience method to evaluate a Node into an integer.
 	 * 
 	 * @param n
-	 *            a Node to parse.
-	 * @return an int.
-	 * @throws NumberFormtException
-	 *             if the Node was not parsed properly.
+	 *            a Node to evaluate.
+	 * @return a long.
+	 * @throws NumberFormatException
+	 *             if the Node does not evaluate to an integer.
 	 */
-	private static int toInteger(Node n) {
-		return Integer.parseInt(n.eval(true).toString());
+	private static long toInteger(Node n) {
+		Node value = n.eval(true);
+		if (!(value instanceof Fixnum)) {
+			throw new NumberFormatException("Not an integer : " + value);
+		}
+		return ((Fixnum) value).longValue();
+	}
+
+	/**
+	 * Evaluates every argument of a relational operator into an integer. The
+	 * tail of a dotted argument list counts as a last argument.
+	 * 
+	 * @param sexp
+	 *            the arguments.
+	 * @return the integers, in order.
+	 * @throws IllegalArgumentException
+	 *             if there are fewer than two arguments.
+	 */
+	private static long[] toIntegers(SExpression sexp) {
+		long[] args = new long[4];
+		int count = 0;
+		Node rest = sexp;
+		while (rest != NodeFactory.FALSE) {
+			if (count == args.length) {
+				args = Arrays.copyOf(args, count * 2);
+			}
+			if (rest instanceof SExpression) {
+				args[count++] = toInteger(((SExpression) rest).getAddr());
+				rest = ((SExpression) rest).getData();
+			} else {
+				args[count++] = toInteger(rest);
+				break;
+			}
+		}
+		if (count < 2) {
+			throw new IllegalArgumentException(
+					"A comparison needs at least two arguments");
+		}
+		return Arrays.copyOf(args, count);
 	}
 
-	private static int checkZero(int x) {
+	private static long checkZero(long x) {
 		if (x == 0) {
 			throw new ArithmeticZeroError();
 		}
@@ -24,9 +24,9 @@ public class PredFuncs {
 	 *            the given S-Expression.
 	 * @return T if all arguments evaluate to T, NIL otherwise.
 	 */
-	@Primitive(aliases = "and")
+	@Primitive(aliases = "and", pure = true)
 	public static Node and(SExpression sexp) {
-		if (sexp.getAddr().eval(true).toString().equals("NIL")) {
+		if (sexp.getAddr().eval(true) == NodeFactory.FALSE) {
 			return NodeFactory.FALSE;
 		}
 		try {
@@ -44,9 +44,9 @@ public class PredFuncs {
 	 *            the given S-Expression.
 	 * @return T if any argument evaluate to T, NIL otherwise.
 	 */
-	@Primitive(aliases = "or")
+	@Primitive(aliases = "or", pure = true)
 	public static Node or(SExpression sexp) {
-		if (sexp.getAddr().eval(true).toString().equals("T")) {
+		if (sexp.getAddr().eval(true) == NodeFactory.TRUE) {
 			return NodeFactory.TRUE;
 		}
 		try {
@@ -67,12 +67,12 @@ public class PredFuncs {
 	 * @throws FuncDefException
 	 *             if the first argument is neither T nor NIL.
 	 */
-	@Primitive(aliases = "not")
+	@Primitive(aliases = "not", pure = true)
 	public static Node not(SExpression sexp) {
-		String evaluation = sexp.getAddr().eval(true).toString();
-		if (evaluation.equals("T")) {
+		Node evaluation = sexp.getAddr().eval(true);
+		if (evaluation == NodeFactory.TRUE) {
 			return NodeFactory.FALSE;
-		} else if (evaluation.equals("NIL")) {
+		} else if (evaluation == NodeFactory.FALSE) {
 			return NodeFactory.TRUE;
 		}
 		throw new FuncDefException("Cannot negate a non-boolean function");
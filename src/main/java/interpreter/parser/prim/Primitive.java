@@ -37,4 +37,13 @@ public @interface Primitive {
 	 * @return true if an S-Expression is required, false otherwise.
 	 */
 	public boolean sexpRequired() default true;
+
+	/**
+	 * Whether or not a function is pure: it has no effects, and its value
+	 * depends only on its arguments. A call of a pure function whose arguments
+	 * are all constants may be replaced by its value before it is evaluated.
+	 * 
+	 * @return true if the function is pure, false otherwise.
+	 */
+	public boolean pure() default false;
 }
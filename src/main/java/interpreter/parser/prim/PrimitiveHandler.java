@@ -4,14 +4,14 @@
 package interpreter.parser.prim;
 
 import interpreter.parser.Node;
+import interpreter.parser.Symbol;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Wrapper class for all Primitive Functions. The handler, upon instantiation,
@@ -20,15 +20,16 @@ import java.util.Set;
  * Similarly, primitive functions must be contained in an implementation which
  * is marked appropriately, by implementing {@link PrimitiveMarker}.
  * <p>
- * All functions, upon registration, are stored in a mapping of String -> Method
- * representing the alias and the function call method. Aliases must be unique.
- * This is a surjective mapping, and many aliases may map to a single method
- * call.
+ * All functions, upon registration, are stored in a table of Symbol -> Method
+ * representing the alias and the function call method, indexed by symbol id.
+ * Aliases must be unique. This is a surjective mapping, and many aliases may
+ * map to a single method call.
  * </p>
  * <p>
- * A set of methods is also maintained, containing all methods which require an
- * S-Expression argument. This is a convenience collection to ensure proper
- * function calls are made.
+ * A parallel table is also maintained, marking all aliases whose method
+ * requires an S-Expression argument. This is a convenience collection to
+ * ensure proper function calls are made. Another marks the aliases of pure
+ * functions, whose calls with constant arguments may be precomputed.
  * </p>
  * 
  * @author Anand
@@ -37,14 +38,18 @@ import java.util.Set;
 public class PrimitiveHandler {
 
 	private Map<String, Method> primitives;
-	private Set<Method> methodsWithArgs;
+	private Method[] methods;
+	private boolean[] methodsWithArgs;
+	private boolean[] pureMethods;
 
 	/**
 	 * Default constructor initializes collections and registers functions.
 	 */
 	public PrimitiveHandler() {
 		primitives = new HashMap<>();
-		methodsWithArgs = new HashSet<>();
+		methods = new Method[Symbol.count()];
+		methodsWithArgs = new boolean[methods.length];
+		pureMethods = new boolean[methods.length];
 
 		registerFunctions();
 	}
@@ -65,27 +70,120 @@ public class PrimitiveHandler {
 	 *             if arguments are required, and the argument specified is not
 	 *             a single S-Expression.
 	 */
-	public Node callFunc(String name, Object... arg) {
-		if (primitives.containsKey(name.toUpperCase())) {
-			Method m = primitives.get(name.toUpperCase());
-			try {
-				if (!methodsWithArgs.contains(m)) {
-					return (Node) m.invoke(null);
-				}
-				if (arg.length != 1) {
-					throw new IllegalArgumentException(
-							"Must supply one S-Expression arg");
-				}
-				return (Node) m.invoke(null, arg);
+	public Node callFunc(Symbol name, Object... arg) {
+		return isRegistered(name) ? callIndex(name.getId(), arg) : null;
+	}
+
+	/**
+	 * Calls a function by its index in the registry, without looking up its
+	 * alias.
+	 * 
+	 * @param index
+	 *            the index of the function.
+	 * @param arg
+	 *            specified arguments.
+	 * @return a Node, if the function call succeeded, null otherwise.
+	 * @see #indexOf(Symbol)
+	 * @see #callFunc(Symbol, Object...)
+	 */
+	public Node callIndex(int index, Object... arg) {
+		Method m = methods[index];
+		try {
+			if (!methodsWithArgs[index]) {
+				return (Node) m.invoke(null);
 			}
-			catch (IllegalAccessException | IllegalArgumentException
-					| InvocationTargetException e) {
-				e.printStackTrace();
+			if (arg.length != 1) {
+				throw new IllegalArgumentException(
+						"Must supply one S-Expression arg");
 			}
+			return (Node) m.invoke(null, arg);
+		}
+		catch (IllegalAccessException | IllegalArgumentException
+				| InvocationTargetException e) {
+			e.printStackTrace();
 		}
 		return null;
 	}
 
+	/**
+	 * Precomputes a call of a pure function, whose arguments are constants.
+	 * Unlike a call, a failure of the function is not reported, as the call
+	 * will report it again when it is evaluated.
+	 * 
+	 * @param name
+	 *            the function alias.
+	 * @param arg
+	 *            the arguments of the call.
+	 * @return a Node, or null if the function is not pure, or failed.
+	 * @see #isPure(Symbol)
+	 */
+	public Node precompute(Symbol name, Node arg) {
+		if (!isPure(name)) {
+			return null;
+		}
+		Method m = methods[name.getId()];
+		try {
+			if (!methodsWithArgs[name.getId()]) {
+				return (Node) m.invoke(null);
+			}
+			return (Node) m.invoke(null, arg);
+		}
+		catch (IllegalAccessException | IllegalArgumentException
+				| InvocationTargetException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Calls a function supplied in the alias map by its name.
+	 * 
+	 * @param name
+	 *            the function alias.
+	 * @param arg
+	 *            specified arguments.
+	 * @return a Node, if the function call succeeded, null otherwise.
+	 * @see #callFunc(Symbol, Object...)
+	 */
+	public Node callFunc(String name, Object... arg) {
+		return callFunc(Symbol.intern(name), arg);
+	}
+
+	/**
+	 * Is a primitive function registered under the given alias?
+	 * 
+	 * @param name
+	 *            the function alias.
+	 * @return true if the alias maps to a primitive.
+	 */
+	public boolean isRegistered(Symbol name) {
+		return name.getId() < methods.length && methods[name.getId()] != null;
+	}
+
+	/**
+	 * Is a pure function registered under the given alias?
+	 * 
+	 * @param name
+	 *            the function alias.
+	 * @return true if the alias maps to a primitive marked pure.
+	 * @see Primitive#pure()
+	 */
+	public boolean isPure(Symbol name) {
+		return isRegistered(name) && pureMethods[name.getId()];
+	}
+
+	/**
+	 * Grabs the index in the registry of a function alias, which is the id of
+	 * its symbol.
+	 * 
+	 * @param name
+	 *            the function alias.
+	 * @return the index, or -1 if no primitive is registered under the alias.
+	 * @see #callIndex(int, Object...)
+	 */
+	public int indexOf(Symbol name) {
+		return isRegistered(name) ? name.getId() : -1;
+	}
+
 	/**
 	 * Registers all function classes.
 	 * 
@@ -93,6 +191,7 @@ public class PrimitiveHandler {
 	 */
 	private void registerFunctions() {
 		register(BoolFuncs.class);
+		register(CollFuncs.class);
 		register(ListFuncs.class);
 		register(MathFuncs.class);
 		register(PredFuncs.class);
@@ -103,7 +202,7 @@ public class PrimitiveHandler {
 	 * primitive functions, it <b>must</b> be a PrimitiveMarker. For each method
 	 * which is a Primitive function, it must return a Node type to be a valid
 	 * function call. Registration effectively adds the aliases to the working
-	 * map, and adds all methods which require arguments to the working set.
+	 * table, and marks all aliases whose method requires arguments.
 	 * 
 	 * @param clazz
 	 *            a PrimitiveMarker class.
@@ -127,16 +226,25 @@ public class PrimitiveHandler {
 								"Cannot register a method which does not return a Node : "
 										+ m.getName());
 					}
-					if (info.sexpRequired()) {
-						methodsWithArgs.add(m);
-					}
 					for (String alias : info.aliases()) {
-						if (primitives.containsKey(alias.toUpperCase())) {
+						Symbol symbol = Symbol.intern(alias);
+						if (isRegistered(symbol)) {
 							throw new IllegalArgumentException(
 									"Alias supplied for " + m.getName() + ", "
 											+ alias + ", is already assigned.");
 						}
-						primitives.put(alias.toUpperCase(), m);
+						if (symbol.getId() >= methods.length) {
+							int size = Math.max(symbol.getId() + 1,
+									methods.length * 2);
+							methods = Arrays.copyOf(methods, size);
+							methodsWithArgs = Arrays.copyOf(methodsWithArgs,
+									size);
+							pureMethods = Arrays.copyOf(pureMethods, size);
+						}
+						methods[symbol.getId()] = m;
+						methodsWithArgs[symbol.getId()] = info.sexpRequired();
+						pureMethods[symbol.getId()] = info.pure();
+						primitives.put(symbol.getName(), m);
 					}
 				}
 			}
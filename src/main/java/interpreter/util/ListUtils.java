@@ -3,6 +3,9 @@
  */
 package interpreter.util;
 
+import interpreter.lexer.TokenBuffer;
+import interpreter.lexer.TokenType;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -54,7 +57,21 @@ public final class ListUtils {
 		return result;
 	}
 
+	/**
+	 * Finds the index of the parenthesis which closes the clause opened by the
+	 * first token of the given list.
+	 * 
+	 * @param list
+	 *            a list of tokens, beginning with an opening parenthesis.
+	 * @return the index of the matching closing parenthesis.
+	 * @throws IllegalArgumentException
+	 *             if the list does not begin with a clause, or the clause is
+	 *             never closed.
+	 */
 	public static int clauseEnd(List<String> list) {
+		if (list instanceof TokenBuffer.Slice) {
+			return clauseEnd((TokenBuffer.Slice) list);
+		}
 		if (!Pat.PAREN_OPEN.matches(list.get(0))) {
 			throw new IllegalArgumentException(
 					"Could not find clause end for an expression that isn't a clause");
@@ -81,9 +98,50 @@ public final class ListUtils {
 		return endIndex;
 	}
 
+	/**
+	 * Finds the end of a clause by reading token kinds straight out of the
+	 * token buffer, rather than matching the text of every token.
+	 * 
+	 * @param slice
+	 *            a slice of tokens, beginning with an opening parenthesis.
+	 * @return the index of the matching closing parenthesis.
+	 * @see #clauseEnd(List)
+	 */
+	public static int clauseEnd(TokenBuffer.Slice slice) {
+		TokenBuffer.Cursor cursor = slice.cursor();
+		if (!cursor.hasNext() || cursor.next() != TokenType.PAREN_OPEN) {
+			throw new IllegalArgumentException(
+					"Could not find clause end for an expression that isn't a clause");
+		}
+		int opens = 1;
+		while (cursor.hasNext()) {
+			TokenType type = cursor.next();
+			if (type == TokenType.PAREN_OPEN) {
+				opens++;
+			} else if (type == TokenType.PAREN_CLOSE && --opens == 0) {
+				return cursor.index();
+			}
+		}
+		throw new IllegalArgumentException("Imbalanced parens");
+	}
+
+	/**
+	 * Cuts a range out of a list. Slices of a token buffer are immutable, so
+	 * they are never copied, even if a copy is asked for.
+	 * 
+	 * @param list
+	 *            the list to cut from.
+	 * @param start
+	 *            the first index, inclusive.
+	 * @param end
+	 *            the last index, exclusive.
+	 * @param copy
+	 *            whether the result should be detached from the list.
+	 * @return the sub list.
+	 */
 	public static <T> List<T> subList(List<T> list, int start, int end,
 			boolean copy) {
-		if (copy) {
+		if (copy && !(list instanceof TokenBuffer.Slice)) {
 			return new ArrayList<T>(list.subList(start, end));
 		}
 		return list.subList(start, end);
@@ -97,54 +155,17 @@ public final class ListUtils {
 		return subList(list, start, list.size(), copy);
 	}
 
-	public static List<String> inDotNotation(List<String> list) {
-		List<String> result = new ArrayList<>();
-		List<String> tmp = new ArrayList<>();
-		int next = 0;
-
-		if (Pat.PAREN_OPEN.matches(list.get(0))) {
-			int close = clauseEnd(list);
-			if (close > 1) {
-				result.add("(");
-				if (close > 2) {
-					if (Pat.PAREN_OPEN.matches(list.get(1))) {
-						next = clauseEnd(subList(list, 1, close));
-					}
-					next += 2;
-
-					result.addAll(inDotNotation(subList(list, 1, next)));
-					result.add(".");
-					if (list.get(next).equals(".")) {
-						result.addAll(inDotNotation(subList(list, next + 1,
-								close)));
-					} else {
-						tmp.add("(");
-						tmp.addAll(subList(list, next, close, false));
-						tmp.add(")");
-						result.addAll(inDotNotation(tmp));
-					}
-				} else {
-					result.add(list.get(1));
-					result.add(".");
-					result.add("NIL");
-				}
-				result.add(")");
-			} else {
-				result.add("NIL");
-			}
-		} else {
-			int openParen = findFirstOpenParen(list);
-			if (openParen > 0) {
-				result.addAll(subList(list, 0, openParen));
-				result.addAll(inDotNotation(subList(list, openParen, true)));
-			} else {
-				result = list;
-			}
-		}
-		return result;
-	}
-
+	/**
+	 * Finds the first opening parenthesis, of any kind, in a list of tokens.
+	 * 
+	 * @param tokens
+	 *            a list of tokens.
+	 * @return the index of the parenthesis, or -1 if there is none.
+	 */
 	public static int findFirstOpenParen(List<String> tokens) {
+		if (tokens instanceof TokenBuffer.Slice) {
+			return findFirstOpenParen((TokenBuffer.Slice) tokens);
+		}
 		int retVal = tokens.indexOf("(");
 		if (tokens.contains("[") && tokens.indexOf("[") < retVal) {
 			retVal = tokens.indexOf("[");
@@ -154,4 +175,23 @@ public final class ListUtils {
 		}
 		return retVal;
 	}
+
+	/**
+	 * Finds the first opening parenthesis in a slice of a token buffer, by its
+	 * token kind alone.
+	 * 
+	 * @param slice
+	 *            a slice of tokens.
+	 * @return the index of the parenthesis, or -1 if there is none.
+	 * @see #findFirstOpenParen(List)
+	 */
+	public static int findFirstOpenParen(TokenBuffer.Slice slice) {
+		TokenBuffer.Cursor cursor = slice.cursor();
+		while (cursor.hasNext()) {
+			if (cursor.next() == TokenType.PAREN_OPEN) {
+				return cursor.index();
+			}
+		}
+		return -1;
+	}
 }
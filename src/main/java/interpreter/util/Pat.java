@@ -3,6 +3,8 @@
  */
 package interpreter.util;
 
+import java.util.regex.Pattern;
+
 /**
  * Contains useful regular expression patterns for symbol and literal
  * validation.
@@ -23,10 +25,10 @@ public enum Pat {
 	VALID_FUNC("[a-zA-Z]{1}[a-zA-Z0-9]*"),
 	WHITESPACE("[\\s]+?");
 
-	private String regex;
+	private Pattern pattern;
 
 	Pat(String regex) {
-		this.regex = regex;
+		this.pattern = Pattern.compile(regex);
 	}
 
 	/**
@@ -37,7 +39,7 @@ public enum Pat {
 	 * @return true if the input follows the specified regex pattern.
 	 */
 	public boolean matches(String input) {
-		return input.matches(regex);
+		return pattern.matcher(input).matches();
 	}
 
 	/**
@@ -49,6 +51,6 @@ public enum Pat {
 	 * @see #matches(String)
 	 */
 	public boolean matches(char input) {
-		return matches("" + input);
+		return matches(String.valueOf(input));
 	}
 }
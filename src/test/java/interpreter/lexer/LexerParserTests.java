@@ -3,10 +3,27 @@
  */
 package interpreter.lexer;
 
+import interpreter.exception.MalformedTextException;
+import interpreter.parser.ConsHeap;
+import interpreter.parser.Environment;
+import interpreter.parser.NodeFactory;
+import interpreter.parser.ParallelFrontEnd;
 import interpreter.parser.Parser;
+import interpreter.parser.StackEvaluator;
+import interpreter.parser.Symbol;
+import interpreter.parser.compile.Compiler;
+import interpreter.parser.compile.Jit;
+import interpreter.parser.compile.Machine;
+import interpreter.parser.compile.Optimizer;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -17,6 +34,20 @@ import org.junit.Test;
  */
 public class LexerParserTests {
 
+	// run by testCompiler and testJit on each engine. Every function is
+	// called at least twice, so the Jit compiles it once past its threshold.
+	private static final String COMPILED_PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))) "
+			+ "(fib 10) "
+			+ "(defun ack (m n) (cond [(eq m 0) (+ n 1)] [(eq n 0) (ack (- m 1) 1)] [t (ack (- m 1) (ack m (- n 1)))])) "
+			+ "(ack 2 2) "
+			+ "(defun step (n) (- n 1)) (defun down (n) (if (> n 0) (down (step n)) n)) (down 5) "
+			+ "(defun step (n) (- n 5)) (down 12) "
+			+ "(defun pick (n) (n 1)) (pick 7) (pick 8) (pick 9) "
+			+ "(defun ratio (a b) (/ a b 1)) (ratio 9 3) (ratio 8 2) (ratio 5 5) "
+			+ "(defun both (a b) (and (not (eq a b)) (or (>= a 0 b) (quote x)))) (both 1 0) (both 1 1) (both 2 0)";
+	private static final String COMPILED_EXPECTED = "fib\n55\nack\n7\nstep\ndown\n0\nstep\n-3\n"
+			+ "pick\n7\n8\n9\nratio\n3\n4\n1\nboth\nT\nNIL\nT";
+
 	@Test
 	public void testTokenize() {
 		Lexer l = new Lexer("(sum 5 6)");
@@ -30,6 +61,142 @@ public class LexerParserTests {
 				"[(, cons, (, product, 12, 3, ), (, cons, (, integerp, 12, ), NIL, ), )]");
 	}
 
+	@Test
+	public void testTypedTokens() {
+		Lexer l = new Lexer("(<= x12 \"a b\") '[3 . +]");
+		Assert.assertEquals(l.getTokens(), Arrays.asList("(", "<=", "x12",
+				"\"a b\"", ")", "'", "[", "3", ".", "+", "]"));
+
+		TokenType[] types = { TokenType.PAREN_OPEN, TokenType.RELATIONAL_OP,
+				TokenType.SYMBOL, TokenType.STRING, TokenType.PAREN_CLOSE,
+				TokenType.QUOTE, TokenType.PAREN_OPEN, TokenType.INTEGER,
+				TokenType.DOT, TokenType.SYMBOL, TokenType.PAREN_CLOSE };
+		List<Token> tokens = l.getTypedTokens();
+		Assert.assertEquals(types.length, tokens.size());
+		for (int i = 0; i < types.length; i++) {
+			Assert.assertEquals(types[i], tokens.get(i).getType());
+		}
+		Assert.assertEquals(4, tokens.get(2).getStart());
+		Assert.assertEquals(7, tokens.get(2).getEnd());
+		Assert.assertEquals(8, tokens.get(3).getStart());
+		Assert.assertEquals(13, tokens.get(3).getEnd());
+	}
+
+	@Test(expected = MalformedTextException.class)
+	public void testUnclosedString() {
+		new Lexer("(list \"abc)");
+	}
+
+	@Test
+	public void testTokenStream() {
+		TokenStream stream = new TokenStream(
+				"(sum 1 ; comment (\n 2) #| block\n #| nested |# |# (list \";\")");
+		Assert.assertEquals(Arrays.asList("(", "sum", "1", "2", ")"),
+				stream.nextForm());
+		Assert.assertEquals(Arrays.asList("(", "list", "\";\"", ")"),
+				stream.nextForm());
+		Assert.assertNull(stream.nextForm());
+
+		StringBuilder builder = new StringBuilder();
+		new Parser(new TokenStream("(sum 5 6)\n(product 2\n3)"), builder)
+				.eval();
+		Assert.assertEquals("11\n6", builder.toString());
+	}
+
+	@Test
+	public void testMappedTokenStream() throws IOException {
+		File file = File.createTempFile("mapped", ".lisp");
+		file.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write("(list \"h\u00e9llo\" 12) ; done\n(sum 1 2)"
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		try (TokenStream stream = TokenStream.map(new FileInputStream(file)
+				.getChannel())) {
+			Assert.assertEquals(
+					Arrays.asList("(", "list", "\"h\u00e9llo\"", "12", ")"),
+					stream.nextForm());
+			Token token = stream.next();
+			Assert.assertEquals(TokenType.PAREN_OPEN, token.getType());
+			Assert.assertEquals(26, token.getStart());
+			Assert.assertEquals("sum", stream.next().getChars().toString());
+			Assert.assertEquals(Arrays.asList("1", "2", ")"),
+					Arrays.asList(stream.next().getText(), stream.next()
+							.getText(), stream.next().getText()));
+			Assert.assertFalse(stream.hasNext());
+		}
+	}
+
+	@Test
+	public void testTokenBuffer() {
+		TokenBuffer buffer = new Lexer("(sum 12 x) [car y]").getBuffer();
+		Assert.assertEquals(9, buffer.size());
+		Assert.assertEquals(TokenType.INTEGER, buffer.type(2));
+		Assert.assertEquals(12, buffer.value(2));
+		Assert.assertEquals(Symbol.intern("X").getId(),
+				buffer.value(3));
+		Assert.assertEquals("[", buffer.text(5));
+
+		TokenBuffer.Slice slice = buffer.slice().subList(5, 9);
+		Assert.assertEquals(Arrays.asList("[", "car", "y", "]"), slice);
+		Assert.assertSame(buffer, slice.subList(1, 3).getBuffer());
+		Assert.assertEquals(6, slice.subList(1, 3).getOffset());
+
+		TokenBuffer copy = TokenBuffer.of(Arrays.asList("(", "less", "-5",
+				"<=", "\"s\"", ")"));
+		Assert.assertEquals(Arrays.asList(TokenType.PAREN_OPEN,
+				TokenType.SYMBOL, TokenType.INTEGER, TokenType.RELATIONAL_OP,
+				TokenType.STRING, TokenType.PAREN_CLOSE), Arrays.asList(
+				copy.type(0), copy.type(1), copy.type(2), copy.type(3),
+				copy.type(4), copy.type(5)));
+		Assert.assertEquals(-5, copy.value(2));
+
+		StringBuilder builder = new StringBuilder();
+		new Parser(new Lexer("(sum 5 6) [sum 1 2]").getBuffer(), builder)
+				.eval();
+		Assert.assertEquals("11\n3", builder.toString());
+	}
+
+	@Test
+	public void testParallelFrontEnd() {
+		StringBuilder program = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			program.append("(sum ").append(i).append(" 1) ; (sum\n")
+					.append("#| ( #| [ |# |# (list \"(\" ").append(i)
+					.append(") ").append(i).append(" NIL\n");
+		}
+		String expected = new Parser(new Lexer(program.toString())
+				.getTokens(), new StringBuilder()).eval().toString();
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Assert.assertEquals(expected, new ParallelFrontEnd(pool, 16)
+					.parse(program, new StringBuilder()).eval().toString());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testLazyParser() {
+		StringBuilder builder = new StringBuilder();
+		Parser parser = new Parser(new Lexer("(sum 1 2) 5 (sum 3 4) (car")
+				.getTokens(), builder);
+		try {
+			parser.eval();
+			Assert.fail("The unclosed statement should not have been read");
+		}
+		catch (IllegalArgumentException e) {
+			Assert.assertEquals("3\n5\n7\n", builder.toString());
+		}
+	}
+
+	@Test(expected = MalformedTextException.class)
+	public void testUnopenedBlockComment() {
+		new Lexer("(sum 1 2) |#");
+	}
+
 	@Test
 	public void testMath() {
 		Lexer l = new Lexer("(sum 5 6 7) " + "(sum 5 6) "
@@ -78,6 +245,209 @@ public class LexerParserTests {
 				.eval().toString(), "fibonacci\n0\n1\n1\n3\n13");
 	}
 
+	@Test
+	public void testCompiler() {
+		Assert.assertEquals(COMPILED_EXPECTED, evalCompiledProgram());
+		Compiler.setEnabled(true);
+		try {
+			Assert.assertEquals(COMPILED_EXPECTED, evalCompiledProgram());
+		}
+		finally {
+			Compiler.setEnabled(false);
+		}
+	}
+
+	@Test
+	public void testJit() {
+		int threshold = Jit.getThreshold();
+		int compiled = Jit.getCompiledCount();
+		Compiler.setEnabled(true);
+		Jit.setEnabled(true);
+		Jit.setThreshold(2);
+		try {
+			Assert.assertEquals(COMPILED_EXPECTED, evalCompiledProgram());
+			// functions run on the Machine are never compiled to bytecode.
+			Assert.assertTrue(Machine.isEnabled()
+					|| Jit.getCompiledCount() > compiled);
+		}
+		finally {
+			Compiler.setEnabled(false);
+			Jit.setEnabled(false);
+			Jit.setThreshold(threshold);
+		}
+	}
+
+	private static String evalCompiledProgram() {
+		return new Parser(new Lexer(COMPILED_PROGRAM).getTokens(),
+				new StringBuilder()).eval().toString();
+	}
+
+	@Test
+	public void testFrames() {
+		String program = "(defun f (x) (g 1)) (defun g (y) (+ x y)) (f 5) "
+				+ "(defun h (x) (+ x (f 10))) (h 2) "
+				+ "(defun down (n) (if (eq n 0) 0 (down (- n 1)))) (down 500)";
+		// g reads the parameter of its caller, as variables are dynamically
+		// scoped, and every frame is popped once its call returns.
+		Assert.assertEquals("f\ng\n6\nh\n13\ndown\n0", new Parser(
+				new Lexer(program).getTokens(), new StringBuilder()).eval()
+				.toString());
+		Assert.assertNull(Environment.getInstance().getFrame());
+	}
+
+	@Test
+	public void testTailCalls() {
+		String program = "(defun count (n) (if (eq n 0) 'done (count (- n 1)))) "
+				+ "(count 1000000) "
+				+ "(defun ping (n) (cond [(eq n 0) n] [t (pong (- n 1) n)])) "
+				+ "(defun pong (m n) (if (> n m) (ping m) n)) (ping 1000000)";
+		// a million calls in tail position, through one function and through
+		// two, would overflow the stack unless each reused the frame of its
+		// caller.
+		Assert.assertEquals("count\ndone\nping\npong\n0", new Parser(
+				new Lexer(program).getTokens(), new StringBuilder()).eval()
+				.toString());
+		Assert.assertNull(Environment.getInstance().getFrame());
+	}
+
+	@Test
+	public void testStackEvaluator() {
+		String program = "(defun depth (n) (if (eq n 0) 0 (+ 1 (depth (- n 1))))) "
+				+ "(depth 200000) "
+				+ "(defun count (n) (if (eq n 0) 'done (count (- n 1)))) "
+				+ "(count 100000) (+ (depth 3) 2) (cond [(< 1 2 1) 1] [(> 2 1) 7])";
+		Parser parser = new Parser(new Lexer(program).getTokens(),
+				new StringBuilder());
+		parser.setEvaluator(new StackEvaluator());
+		// recursion two hundred thousand calls deep would overflow the Java
+		// stack of the recursive evaluator.
+		Assert.assertEquals("depth\n200000\ncount\ndone\n5\n7", parser
+				.eval().toString());
+		Assert.assertNull(Environment.getInstance().getFrame());
+
+		// a suspended evaluation resumes where it stopped.
+		StackEvaluator evaluator = new StackEvaluator();
+		evaluator.start(NodeFactory.makeNode(NodeFactory.makeNode("depth"),
+				NodeFactory.makeNode(NodeFactory.makeNode(1000),
+						NodeFactory.FALSE)));
+		int slices = 1;
+		while (!evaluator.step(100)) {
+			Assert.assertFalse(evaluator.isDone());
+			slices++;
+		}
+		Assert.assertTrue(slices > 10);
+		Assert.assertEquals(NodeFactory.makeNode(1000), evaluator.getResult());
+		Assert.assertNull(Environment.getInstance().getFrame());
+	}
+
+	@Test
+	public void testOptimizer() {
+		String program = "(+ 1 2 3) "
+				+ "(defun opt (n) (if (< 1 2) (* n (+ 2 3)) (/ 1 0))) (opt 4) "
+				+ "(defun arm (x) (cond [(eq 1 2) 0] [(> x (- 10 5)) 1] "
+				+ "[t 2] [(eq 1 1) 3])) (arm 7) (arm 1) "
+				+ "(cond [nil 1] [(and t t) (quote 9)]) "
+				+ "(defun shadow (not) (not t)) (/ 8 2 2) "
+				+ "(defun c (x) (+ 1 2)) (c 5) (defun g (x) (if t x 2)) (g 7)";
+		String expected = "6\nopt\n20\narm\n1\n2\n9\nshadow\n8\nc\n3\ng\n7";
+		Assert.assertEquals(expected, new Parser(new Lexer(program)
+				.getTokens(), new StringBuilder()).eval().toString());
+
+		StringBuilder listing = new StringBuilder();
+		Optimizer.setEnabled(true);
+		Optimizer.setListing(listing);
+		try {
+			Assert.assertEquals(expected, new Parser(new Lexer(program)
+					.getTokens(), new StringBuilder()).eval().toString());
+		}
+		finally {
+			Optimizer.setEnabled(false);
+			Optimizer.setListing(null);
+		}
+		Assert.assertEquals("6\n(defun opt (n) (* n 5))\n(opt 4)\n"
+				+ "(defun arm (x) (cond ((> x 5) 1) (T 2)))\n(arm 7)\n"
+				+ "(arm 1)\n9\n(defun shadow (not) (not T))\n8\n"
+				+ "(defun c (x) (+ 1 2))\n(c 5)\n"
+				+ "(defun g (x) (if T x 2))\n(g 7)\n",
+				listing.toString());
+	}
+
+	@Test
+	public void testArena() {
+		// konst holds a quoted list, which its compiled forms refer to. The
+		// million cells built in between have the heap collected before the
+		// last call, which must still find the list.
+		String program = "(defun konst (x) (cons x (quote (1 2 3)))) "
+				+ "(konst 0) (konst 1) "
+				+ "(defun build (n acc) (if (eq n 0) acc (build (- n 1) (cons n acc)))) "
+				+ "(null (build 1100000 NIL)) (konst 5)";
+		String expected = "konst\n(0 1 2 3)\n(1 1 2 3)\nbuild\nNIL\n(5 1 2 3)";
+		String[] engines = { "interpreter", "compiler", "jit", "vm",
+				"stack", "optimizer" };
+		boolean machine = Machine.isEnabled();
+		int threshold = Jit.getThreshold();
+		for (String engine : engines) {
+			ConsHeap heap = new ConsHeap();
+			NodeFactory.setHeap(heap);
+			Compiler.setEnabled(engine.equals("compiler")
+					|| engine.equals("jit"));
+			Jit.setEnabled(engine.equals("jit"));
+			Jit.setThreshold(2);
+			Machine.setEnabled(machine || engine.equals("vm"));
+			Optimizer.setEnabled(engine.equals("optimizer"));
+			try {
+				Parser parser = new Parser(new Lexer(program).getTokens(),
+						new StringBuilder());
+				if (engine.equals("stack")) {
+					parser.setEvaluator(new StackEvaluator());
+				}
+				Assert.assertEquals(engine, expected, parser.eval()
+						.toString());
+				Assert.assertTrue(engine, heap.size() < 1100000);
+			}
+			finally {
+				NodeFactory.setHeap(null);
+				Compiler.setEnabled(false);
+				Jit.setEnabled(false);
+				Jit.setThreshold(threshold);
+				Machine.setEnabled(machine);
+				Optimizer.setEnabled(false);
+			}
+		}
+	}
+
+	@Test
+	public void testInlineCaches() {
+		// the call sites of g and car are cached by the first call, and must
+		// follow a redefinition of f and a variable shadowing car.
+		String program = "(defun f (x) (+ x 1)) (defun g (y) (f y)) (g 1) "
+				+ "(defun f (x) (* x 10)) (g 1) "
+				+ "(defun h (car) (car (quote (1 2)))) (car (quote (1 2))) "
+				+ "(h 'cdr) (car (quote (1 2)))";
+		String expected = "f\ng\n2\nf\n10\nh\n(1 2)\n(quote (1 2))\n(1 2)";
+		Assert.assertEquals(expected, new Parser(new Lexer(program)
+				.getTokens(), new StringBuilder()).eval().toString());
+		// the cache is kept by the head atom, which hash consing shares
+		// between every call of the same name.
+		NodeFactory.setHashConsing(true);
+		try {
+			Assert.assertEquals(expected, new Parser(new Lexer(program)
+					.getTokens(), new StringBuilder()).eval().toString());
+		}
+		finally {
+			NodeFactory.setHashConsing(false);
+		}
+
+		Environment env = Environment.getInstance();
+		int version = env.getVersion();
+		env.rebind(Symbol.intern("ic-unused"), NodeFactory.TRUE);
+		env.rebind(Symbol.intern("ic-unused"), null);
+		Assert.assertEquals(version, env.getVersion());
+		env.rebind(Symbol.intern("g"), NodeFactory.TRUE);
+		Assert.assertNotEquals(version, env.getVersion());
+		env.rebind(Symbol.intern("g"), null);
+	}
+
 	@Test
 	public void testQuote() {
 		Lexer l = new Lexer("(quote (+ 1 2)) (' (* (+ 3 5) (- 2 2)))");
@@ -108,6 +478,26 @@ public class LexerParserTests {
 				.eval().toString(), "1\n(2 3 4)");
 	}
 
+	@Test
+	public void testNth() {
+		Lexer l = new Lexer(
+				"(nth 0 (list 1 2 3)) (nth 2 (list 1 2 3)) (nth 3 (list 1 2 3)) (nth 1 (cons 1 (cons 2 NIL)))");
+		Assert.assertEquals(new Parser(l.getTokens(), new StringBuilder())
+				.eval().toString(), "1\n3\nNIL\n2");
+	}
+
+	@Test
+	public void testCollections() {
+		Lexer l = new Lexer(
+				"(vector 1 (sum 1 1) (list 3 4)) (lookup (vector 5 6) 1) (size (conj (vector 1) 2 3)) (seq (put (vector 1 2) 0 9 2 3))");
+		Assert.assertEquals(new Parser(l.getTokens(), new StringBuilder())
+				.eval().toString(), "[1 2 (3 4)]\n6\n3\n(9 2 3)");
+		l = new Lexer(
+				"(lookup (hashmap 1 2 3 4) 3) (lookup (hashmap 1 2) 5) (size (dissoc (hashmap 1 2 3 4) 1)) (seq (hashmap 1 2)) (size (into (vector) (list 1 2 3))) (lookup (into (hashmap) (seq (hashmap 7 8))) 7)");
+		Assert.assertEquals(new Parser(l.getTokens(), new StringBuilder())
+				.eval().toString(), "4\nNIL\n1\n((1.2))\n3\n8");
+	}
+
 	@Test
 	public void testCons() {
 		Lexer cons = new Lexer("(cons 5 (cons 6 NIL))");
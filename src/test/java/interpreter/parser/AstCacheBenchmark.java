@@ -0,0 +1,76 @@
+/**
+ * AstCacheBenchmark.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import interpreter.lexer.TokenBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the time it takes to lex and parse a large library against the
+ * time it takes to load the same library from the AST cache. Each round runs
+ * both from scratch, and the median of the rounds is reported.
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes
+ * interpreter.parser.AstCacheBenchmark [forms] [rounds]}.
+ * 
+ * @author Anand
+ *
+ */
+public class AstCacheBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int forms = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+
+		StringBuilder library = new StringBuilder();
+		for (int i = 0; i < forms; i++) {
+			library.append("; helper number ").append(i).append('\n');
+			library.append("(defun helper").append(i)
+					.append(" (x y) (cond ((eq x ").append(i)
+					.append(") (quote (a b c ").append(i)
+					.append("))) (T (sum x y (product x ").append(i)
+					.append(")))))\n");
+		}
+		String program = library.toString();
+
+		File directory = Files.createTempDirectory("astbench").toFile();
+		AstCache cache = new AstCache(directory, true, null);
+		cache.parse(program, new StringBuilder());
+		File entry = new File(directory, AstCache.hash(program) + ".ast");
+
+		long[] parse = new long[rounds];
+		long[] load = new long[rounds];
+		int statements = 0;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			List<Tree> parsed = Parser.split(TokenBuffer.lex(program).slice());
+			parse[i] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			List<Tree> loaded = cache.read(entry);
+			load[i] = System.nanoTime() - start;
+			statements = parsed.size() + loaded.size();
+		}
+
+		System.out.printf("%d forms, %d chars, %d byte cache entry%n", forms,
+				program.length(), entry.length());
+		System.out.printf("lex + parse : %8.2f ms%n", median(parse) / 1e6);
+		System.out.printf("cache load  : %8.2f ms%n", median(load) / 1e6);
+		System.out.printf("(%d statements read)%n", statements / 2);
+
+		entry.delete();
+		directory.delete();
+	}
+
+	private static double median(long[] samples) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * ConsHeapBenchmark.java is a part of Lispreter. 
+ */
+package interpreter.parser;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+/**
+ * Builds one long list of fixnums as an object per cell, in a
+ * {@link ConsHeap}, or as a {@link CompactList}, and reports the memory the
+ * list retains per element and the time the JVM spent collecting garbage
+ * while it was built and walked.
+ * <p>
+ * Run with {@code java -Xmx4g -cp target/classes:target/test-classes
+ * interpreter.parser.ConsHeapBenchmark [elements] [arena|objects|compact]}.
+ * 
+ * @author Anand
+ *
+ */
+public class ConsHeapBenchmark {
+
+	public static void main(String[] args) {
+		int elements = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		String mode = args.length > 1 ? args[1] : "arena";
+		ConsHeap heap = mode.equals("arena") ? new ConsHeap() : null;
+		NodeFactory.setHeap(heap);
+
+		long before = usedMemory();
+		long gcBefore = gcMillis();
+		long start = System.nanoTime();
+		Node list = NodeFactory.FALSE;
+		if (mode.equals("compact")) {
+			Node[] array = new Node[elements];
+			for (int i = 0; i < elements; i++) {
+				array[i] = NodeFactory.makeNode(i);
+			}
+			list = NodeFactory.makeList(array, NodeFactory.FALSE);
+		} else {
+			for (int i = elements - 1; i >= 0; i--) {
+				list = NodeFactory.makeNode(NodeFactory.makeNode(i), list);
+			}
+		}
+		long build = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		long sum = 0;
+		for (Node node = list; node != NodeFactory.FALSE;) {
+			SExpression cell = (SExpression) node;
+			sum += ((Fixnum) cell.getAddr()).longValue();
+			node = cell.getData();
+		}
+		long walk = System.nanoTime() - start;
+
+		if (heap != null) {
+			start = System.nanoTime();
+			heap.collect(Collections.singletonList(list));
+			System.out.printf("arena collection : %8.2f ms%n",
+					(System.nanoTime() - start) / 1e6);
+		}
+		long retained = usedMemory() - before;
+
+		System.out.printf("%d elements, %s%n", elements, mode);
+		System.out.printf("build            : %8.2f ms%n", build / 1e6);
+		System.out.printf("walk             : %8.2f ms (sum %d)%n",
+				walk / 1e6, sum);
+		System.out.printf("retained         : %8.2f MB (%.1f bytes each)%n",
+				retained / 1e6, (double) retained / elements);
+		System.out.printf("JVM gc time      : %8d ms%n", gcMillis() - gcBefore);
+		System.out.printf("length           : %8d%n",
+				((SExpression) list).length());
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total += Math.max(gc.getCollectionTime(), 0);
+		}
+		return total;
+	}
+}
@@ -4,7 +4,16 @@
 package interpreter.parser;
 
 import interpreter.exception.NodeInitException;
+import interpreter.lexer.Lexer;
+import interpreter.lexer.TokenBuffer;
+import interpreter.lexer.TokenStream;
+import interpreter.parser.prim.ListFuncs;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -20,7 +29,7 @@ public class NodeTests {
 
 	@Test
 	public void testAtomEval() {
-		Atom t = new Atom(true);
+		Atom t = (Atom) NodeFactory.makeNode(true);
 		Node n = NodeFactory.TRUE;
 		Assert.assertEquals(n, t.eval());
 		Assert.assertEquals(n, t.eval(false));
@@ -28,7 +37,7 @@ public class NodeTests {
 		Assert.assertEquals(n, t.eval(null));
 		Assert.assertEquals(n, t);
 
-		Atom nil = new Atom(false);
+		Atom nil = (Atom) NodeFactory.makeNode(false);
 		Assert.assertNotEquals(n, nil);
 
 		n = NodeFactory.FALSE;
@@ -40,7 +49,7 @@ public class NodeTests {
 		Assert.assertNotEquals(n, t);
 
 		n = NodeFactory.makeNode(12);
-		Atom num = new Atom(12);
+		Atom num = Fixnum.valueOf(12);
 		Assert.assertEquals(n, num.eval());
 		Assert.assertEquals(n, num.eval(false));
 		Assert.assertEquals(n, num.eval(true));
@@ -48,6 +57,25 @@ public class NodeTests {
 		Assert.assertEquals(n, num);
 	}
 
+	@Test
+	public void testTypedAtoms() {
+		Assert.assertSame(Fixnum.valueOf(7), NodeFactory.makeNode("+7"));
+		Assert.assertSame(Fixnum.valueOf(-128), NodeFactory.makeNode(-128));
+		Assert.assertEquals(Fixnum.valueOf(1L << 40), NodeFactory
+				.makeNode(Long.toString(1L << 40)));
+		Assert.assertEquals("7", NodeFactory.makeNode("007").toString());
+		Assert.assertTrue(NodeFactory.makeNode("\"a b\"")
+				instanceof StringAtom);
+		Assert.assertSame(NodeFactory.FALSE, NodeFactory.makeNode("nil"));
+		Assert.assertSame(NodeFactory.TRUE, NodeFactory.makeNode("T"));
+		Assert.assertEquals(NodeFactory.makeNode("abc"),
+				NodeFactory.makeNode("ABC"));
+		Assert.assertEquals("abc", NodeFactory.makeNode("abc").toString());
+
+		Node read = NodeReader.read(new Lexer("(12 x \"s\")").getTokens());
+		Assert.assertEquals(Fixnum.valueOf(12), ((SExpression) read).getAddr());
+	}
+
 	@Test(expected = NodeInitException.class)
 	public void testMakeNodeErr() {
 		NodeFactory.makeNode(new ArrayList<String>());
@@ -55,7 +83,7 @@ public class NodeTests {
 
 	@Test
 	public void testMakeNodeList() {
-		Assert.assertEquals(new Atom("a"),
+		Assert.assertEquals(NodeFactory.makeNode("a"),
 				NodeFactory.makeNode(Arrays.asList("a", "b")));
 
 		List<String> op = Arrays.asList("(", "SUM", " ", "(", "5", " ", "6",
@@ -63,6 +91,410 @@ public class NodeTests {
 		Assert.assertEquals(new SExpression(op), NodeFactory.makeNode(op));
 	}
 
+	@Test
+	public void testReadNode() {
+		Assert.assertEquals(NodeFactory.makeNode(Arrays.asList("(", "a", ".",
+				"(", "(", "b", ".", "(", "c", ".", "NIL", ")", ")", ".", "d",
+				")", ")")), NodeReader.read(new Lexer("(a (b c) . d)")
+				.getTokens()));
+		Assert.assertEquals(NodeFactory.FALSE, NodeReader.read(Arrays.asList(
+				"(", ")")));
+		Assert.assertEquals(NodeFactory.makeNode("x"),
+				NodeReader.read(Arrays.asList("x", "y")));
+	}
+
+	@Test(timeout = 10000)
+	public void testReadLongList() {
+		StringBuilder program = new StringBuilder("(quote (");
+		for (int i = 0; i < 100000; i++) {
+			program.append(i).append(' ');
+		}
+		Node node = NodeReader.read(new Lexer(program.append("))")
+				.toString()).getTokens());
+		SExpression list = (SExpression) ((SExpression) ((SExpression) node)
+				.getData()).getAddr();
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(Fixnum.valueOf(i), list.getAddr());
+			list = (SExpression) list.getData();
+		}
+	}
+
+	@Test
+	public void testConsSharesStructure() {
+		Node list = NodeReader.read(new Lexer("(1 2 (3 4) 5)").getTokens());
+		SExpression cons = new SExpression(Fixnum.valueOf(0), list);
+		Assert.assertSame(list, cons.getData());
+		Assert.assertSame(((SExpression) list).getData(),
+				((SExpression) cons.getData()).getData());
+		Assert.assertEquals(NodeReader.read(new Lexer("(0 1 2 (3 4) 5)")
+				.getTokens()), cons);
+	}
+
+	@Test(timeout = 10000)
+	public void testListMetadata() {
+		StringBuilder program = new StringBuilder("(");
+		for (int i = 0; i < 20000; i++) {
+			program.append(i).append(' ');
+		}
+		String text = program.append("9)").toString();
+		SExpression list = (SExpression) NodeReader.read(new Lexer(text)
+				.getTokens());
+		Assert.assertTrue(list.isList());
+		Assert.assertEquals(20001, list.length());
+		Assert.assertEquals(20000, ((SExpression) list.getData()).length());
+		Assert.assertEquals(text, list.toString());
+		Assert.assertEquals(Fixnum.valueOf(20001), ListFuncs.length(list));
+
+		SExpression dotted = (SExpression) NodeReader.read(new Lexer(
+				"(1 2 . 3)").getTokens());
+		Assert.assertFalse(dotted.isList());
+		Assert.assertEquals(-1, dotted.length());
+		Assert.assertEquals("(1.(2.3))", dotted.toString());
+		Assert.assertTrue(new SExpression(Fixnum.valueOf(0), list).isList());
+	}
+
+	@Test
+	public void testCompactList() {
+		Node[] elements = new Node[1000];
+		Node chain = NodeFactory.FALSE;
+		for (int i = elements.length - 1; i >= 0; i--) {
+			elements[i] = Fixnum.valueOf(i);
+			chain = new SExpression(elements[i], chain);
+		}
+		SExpression list = (SExpression) NodeFactory.makeList(elements,
+				NodeFactory.FALSE);
+		Assert.assertTrue(list instanceof CompactList);
+		Assert.assertEquals(chain, list);
+		Assert.assertEquals(list, chain);
+		Assert.assertEquals(chain.hashCode(), list.hashCode());
+		Assert.assertEquals(chain.toString(), list.toString());
+		Assert.assertEquals(1000, list.length());
+		Assert.assertEquals(Fixnum.valueOf(999), list.nth(999));
+		Assert.assertEquals(NodeFactory.FALSE, list.nth(1000));
+		Assert.assertEquals(Fixnum.valueOf(999), ((SExpression) chain).nth(999));
+
+		SExpression rest = (SExpression) list.getData();
+		Assert.assertEquals(999, rest.length());
+		Assert.assertEquals(Fixnum.valueOf(1), rest.getAddr());
+		Assert.assertEquals(((SExpression) chain).getData(), rest);
+		Assert.assertEquals(rest, list.getData());
+
+		// every view down to the last answers like the matching cell.
+		Node view = list;
+		Node cell = chain;
+		while (view instanceof SExpression) {
+			SExpression v = (SExpression) view;
+			SExpression c = (SExpression) cell;
+			Assert.assertTrue(v instanceof CompactList);
+			Assert.assertSame(c.getAddr(), v.getAddr());
+			Assert.assertEquals(c.length(), v.length());
+			Assert.assertEquals(c.hashCode(), v.hashCode());
+			Assert.assertEquals(c.nth(c.length() - 1),
+					v.nth(v.length() - 1));
+			view = v.getData();
+			cell = c.getData();
+		}
+		Assert.assertSame(NodeFactory.FALSE, view);
+		Assert.assertSame(NodeFactory.FALSE, cell);
+		Assert.assertFalse(rest.equals(list));
+
+		SExpression extended = (SExpression) NodeFactory.makeNode(
+				Fixnum.valueOf(-1), list);
+		Assert.assertEquals(1001, extended.length());
+		Assert.assertSame(list, extended.getData());
+		Assert.assertEquals("(1.(2.3))", NodeFactory.makeList(new Node[] {
+				Fixnum.valueOf(1), Fixnum.valueOf(2) }, Fixnum.valueOf(3))
+				.toString());
+		Assert.assertSame(NodeFactory.FALSE,
+				NodeFactory.makeList(new Node[0], NodeFactory.FALSE));
+	}
+
+	@Test(timeout = 10000)
+	public void testPrinter() throws IOException {
+		Node node = NodeReader.read(new Lexer("(1 (2 (3 4) 5) (6 . 7) 8 9)")
+				.getTokens());
+		Assert.assertEquals("(1 (2 (3 4) 5) (6.7) 8 9)", node.toString());
+		Assert.assertEquals("(1 (2 (3 4) ...) ...)",
+				new Printer(2, Printer.UNLIMITED).toString(node));
+		Assert.assertEquals("(1 (2 # 5) (6.7) 8 9)",
+				new Printer(Printer.UNLIMITED, 2).toString(node));
+		Assert.assertEquals("#", new Printer(3, 0).toString(node));
+		Assert.assertEquals("(...)", new Printer(0, 1).toString(node));
+
+		Node nested = NodeFactory.FALSE;
+		for (int i = 0; i < 100000; i++) {
+			nested = new SExpression(nested, NodeFactory.FALSE);
+		}
+		StringBuilder output = new StringBuilder();
+		new Printer().print(nested, output);
+		Assert.assertEquals(100000 * 2 + 3, output.length());
+		Assert.assertTrue(output.toString().startsWith("((((("));
+
+		output = new StringBuilder();
+		Parser parser = new Parser(new Lexer(
+				"(quote (1 2 3)) (quote ((a (b)) c))").getTokens(), output);
+		parser.setPrinter(new Printer(2, 2));
+		parser.eval();
+		Assert.assertEquals("(1 2 ...)\n((a #) c)", output.toString());
+	}
+
+	@Test
+	public void testHashConsing() {
+		NodeFactory.setHashConsing(true);
+		try {
+			Node a = NodeReader.read(new Lexer("(k (1 2) \"s\" 123456)")
+					.getTokens());
+			Node b = NodeReader.read(new Lexer("(k (1 2) \"s\" 123456)")
+					.getTokens());
+			Assert.assertSame(a, b);
+			Assert.assertSame(((SExpression) ((SExpression) a).getData())
+					.getAddr(), NodeReader.read(new Lexer("(1 2)")
+					.getTokens()));
+			Assert.assertSame(NodeFactory.makeNode("123456"),
+					NodeFactory.makeNode(123456));
+		}
+		finally {
+			NodeFactory.setHashConsing(false);
+		}
+		Node c = NodeReader.read(new Lexer("(1 2)").getTokens());
+		Assert.assertNotSame(c, NodeReader.read(new Lexer("(1 2)")
+				.getTokens()));
+		Assert.assertEquals(c.hashCode(), NodeReader.read(new Lexer("(1 2)")
+				.getTokens()).hashCode());
+	}
+
+	@Test
+	public void testConsHeap() {
+		ConsHeap heap = new ConsHeap();
+		NodeFactory.setHeap(heap);
+		Node kept, dropped;
+		try {
+			kept = NodeReader.read(new Lexer(
+					"(1 (2 \"s\") 4611686018427387904 x . y)").getTokens());
+			dropped = NodeReader.read(new Lexer("(a b c d e)").getTokens());
+			dropped = ((SExpression) dropped).getData();
+		}
+		finally {
+			NodeFactory.setHeap(null);
+		}
+		Node onHeap = NodeReader.read(new Lexer(
+				"(1 (2 \"s\") 4611686018427387904 x . y)").getTokens());
+		Assert.assertEquals(onHeap, kept);
+		Assert.assertEquals(kept, onHeap);
+		Assert.assertEquals(onHeap.hashCode(), kept.hashCode());
+		Assert.assertEquals(onHeap.toString(), kept.toString());
+		Assert.assertEquals(-1, ((SExpression) kept).length());
+		Assert.assertEquals(4, ((SExpression) dropped).length());
+
+		heap.collect(Arrays.asList(new SExpression(Fixnum.valueOf(0), kept)));
+		Assert.assertEquals(6, heap.size());
+		Assert.assertEquals(onHeap, kept);
+		Assert.assertEquals(onHeap.toString(), kept.toString());
+		try {
+			dropped.toString();
+			Assert.fail("A collected cell was read");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPersistentVector() {
+		PersistentVector.Transient builder = PersistentVector.EMPTY
+				.asTransient();
+		for (int i = 0; i < 40000; i++) {
+			builder.conj(Fixnum.valueOf(i));
+		}
+		PersistentVector vector = builder.persistent();
+		Assert.assertEquals(40000, vector.count());
+		Assert.assertEquals(Fixnum.valueOf(31), vector.nth(31));
+		Assert.assertEquals(Fixnum.valueOf(39999), vector.nth(39999));
+		try {
+			builder.conj(Fixnum.valueOf(0));
+			Assert.fail("A persistent transient was updated");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+
+		PersistentVector updated = vector.assocN(1234, NodeFactory.TRUE);
+		Assert.assertEquals(NodeFactory.TRUE, updated.nth(1234));
+		Assert.assertEquals(Fixnum.valueOf(1234), vector.nth(1234));
+		Assert.assertNotEquals(vector, updated);
+		Assert.assertEquals(vector, updated.assocN(1234, Fixnum.valueOf(1234)));
+
+		PersistentVector grown = PersistentVector.EMPTY;
+		for (int i = 0; i < 40000; i++) {
+			grown = grown.conj(Fixnum.valueOf(i));
+		}
+		Assert.assertEquals(vector, grown);
+		Assert.assertEquals(vector.hashCode(), grown.hashCode());
+		long sum = 0;
+		for (Node element : grown) {
+			sum += ((Fixnum) element).longValue();
+		}
+		Assert.assertEquals(40000L * 39999 / 2, sum);
+		Assert.assertEquals(40000, ((SExpression) grown.seq()).length());
+		Assert.assertEquals("[1 (2 3) NIL]", PersistentVector.of(
+				Arrays.asList(Fixnum.valueOf(1), NodeReader.read(new Lexer(
+						"(2 3)").getTokens()), NodeFactory.FALSE)).toString());
+	}
+
+	@Test
+	public void testPersistentHashMap() {
+		PersistentHashMap.Transient builder = PersistentHashMap.EMPTY
+				.asTransient();
+		for (int i = 0; i < 20000; i++) {
+			builder.assoc(Fixnum.valueOf(i), Fixnum.valueOf(i * 2));
+		}
+		PersistentHashMap map = builder.persistent();
+		Assert.assertEquals(20000, map.count());
+		Assert.assertEquals(Fixnum.valueOf(8), map.get(Fixnum.valueOf(4)));
+		Assert.assertNull(map.get(Fixnum.valueOf(20000)));
+
+		PersistentHashMap smaller = map.without(Fixnum.valueOf(4));
+		Assert.assertEquals(19999, smaller.count());
+		Assert.assertNull(smaller.get(Fixnum.valueOf(4)));
+		Assert.assertEquals(Fixnum.valueOf(8), map.get(Fixnum.valueOf(4)));
+		Assert.assertSame(smaller, smaller.without(Fixnum.valueOf(4)));
+		Assert.assertEquals(map, smaller.assoc(Fixnum.valueOf(4),
+				Fixnum.valueOf(8)));
+
+		// keys with equal hashes share a collision node
+		Node a = Fixnum.valueOf(1L << 32), b = Fixnum.valueOf(1);
+		Assert.assertEquals(a.hashCode(), b.hashCode());
+		PersistentHashMap collided = PersistentHashMap.EMPTY.assoc(a,
+				NodeFactory.TRUE).assoc(b, NodeFactory.FALSE);
+		Assert.assertEquals(2, collided.count());
+		Assert.assertEquals(NodeFactory.TRUE, collided.get(a));
+		Assert.assertEquals(NodeFactory.FALSE, collided.get(b));
+		Assert.assertEquals(1, collided.without(a).count());
+		Assert.assertEquals(NodeFactory.FALSE, collided.without(a).get(b));
+
+		// a transient removes entries from its own nodes in place
+		PersistentHashMap.Transient shrinking = PersistentHashMap.EMPTY
+				.asTransient().assoc(Fixnum.valueOf(33), NodeFactory.TRUE)
+				.assoc(Fixnum.valueOf(18), NodeFactory.TRUE);
+		Assert.assertEquals(1, shrinking.without(Fixnum.valueOf(33)).count());
+		Assert.assertEquals(1, shrinking.without(Fixnum.valueOf(33)).count());
+		Assert.assertEquals(1, shrinking.persistent().count());
+		shrinking = map.asTransient();
+		for (int i = 0; i < 20000; i += 2) {
+			shrinking.without(Fixnum.valueOf(i));
+		}
+		shrinking.assoc(a, NodeFactory.TRUE).assoc(b, NodeFactory.FALSE)
+				.without(a);
+		PersistentHashMap odd = shrinking.persistent();
+		Assert.assertEquals(10000, odd.count());
+		Assert.assertNull(odd.get(Fixnum.valueOf(4)));
+		Assert.assertEquals(Fixnum.valueOf(6), odd.get(Fixnum.valueOf(3)));
+		Assert.assertEquals(NodeFactory.FALSE, odd.get(b));
+		Assert.assertEquals(20000, map.count());
+
+		Node key = NodeReader.read(new Lexer("(x y)").getTokens());
+		PersistentHashMap listed = PersistentHashMap.EMPTY.assoc(key,
+				NodeFactory.TRUE);
+		Assert.assertEquals(NodeFactory.TRUE, listed.get(NodeReader
+				.read(new Lexer("(x y)").getTokens())));
+		Assert.assertEquals("{(x y) T}", listed.toString());
+		Assert.assertEquals("(((x y).T))", listed.seq().toString());
+	}
+
+	@Test
+	public void testConsHeapAggregates() {
+		ConsHeap heap = new ConsHeap();
+		NodeFactory.setHeap(heap);
+		Node held, inner;
+		try {
+			inner = NodeReader.read(new Lexer("(a b)").getTokens());
+			held = NodeFactory.makeNode(PersistentVector.EMPTY.conj(inner),
+					NodeFactory.FALSE);
+		}
+		finally {
+			NodeFactory.setHeap(null);
+		}
+		heap.collect(Arrays.asList(new SExpression(held, NodeFactory.FALSE)));
+		Assert.assertEquals(3, heap.size());
+		Assert.assertEquals("([(a b)])", held.toString());
+		Assert.assertEquals("(a b)", inner.toString());
+	}
+
+	@Test
+	public void testAstCache() throws IOException {
+		File directory = Files.createTempDirectory("ast").toFile();
+		String program = "(defun f (x) (sum x 3 4))\n(f 2) (cons 1 2)"
+				+ " (quote (1 (2 3) NIL ())) (quote (\"b c\" . d)) x";
+		AstCache cache = new AstCache(directory, false, null);
+		String expected = new Parser(new Lexer(program).getTokens(),
+				new StringBuilder()).eval().toString();
+		Assert.assertEquals(expected, cache.parse(program, new StringBuilder())
+				.eval().toString());
+
+		File entry = new File(directory, AstCache.hash(program) + ".ast");
+		Assert.assertTrue(entry.isFile());
+		Assert.assertEquals(Parser.split(TokenBuffer.lex(program).slice())
+				.toString(), cache.read(entry).toString());
+		Assert.assertEquals(expected, cache.parse(program, new StringBuilder())
+				.eval().toString());
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testReadStream() throws IOException {
+		String program = "(a 12 \"s t\" [b . c] (' (1 2))) x y (4) 7";
+		File file = File.createTempFile("stream", ".lisp");
+		Files.write(file.toPath(), program.getBytes(StandardCharsets.UTF_8));
+		List<Node> read = new ArrayList<>();
+		try (TokenStream stream = TokenStream.map(new FileInputStream(file)
+				.getChannel())) {
+			for (Node node; (node = NodeReader.read(stream)) != null;) {
+				read.add(node);
+			}
+		}
+		finally {
+			file.delete();
+		}
+		// statements split and read as they are from a list of tokens.
+		List<Node> expected = new ArrayList<>();
+		TokenStream strings = new TokenStream(program);
+		for (List<String> form; (form = strings.nextForm()) != null;) {
+			expected.add(NodeReader.read(form));
+		}
+		Assert.assertEquals(4, read.size());
+		Assert.assertEquals(expected, read);
+		Assert.assertEquals(NodeFactory.makeNode(7), read.get(3));
+
+		try {
+			NodeReader.read(new TokenStream("(a 99999999999999999999)"));
+			Assert.fail("An integer literal out of range was read");
+		}
+		catch (NodeInitException e) {}
+		try {
+			NodeReader.read(new TokenStream("(a (b)"));
+			Assert.fail("An unclosed clause was read");
+		}
+		catch (IllegalArgumentException e) {}
+	}
+
+	@Test
+	public void testSymbolIntern() {
+		Symbol sum = Symbol.intern("sum");
+		Assert.assertSame(sum, Symbol.intern("SUM"));
+		Assert.assertSame(sum, Symbol.intern("Sum"));
+		Assert.assertEquals("SUM", sum.getName());
+		Assert.assertNotSame(sum, Symbol.intern("sums"));
+		Assert.assertTrue(sum.getId() < Symbol.count());
+		Assert.assertSame(Symbol.T, ((Atom) NodeFactory.TRUE).getSymbol());
+		Assert.assertSame(sum, ((Atom) NodeFactory.makeNode("sum"))
+				.getSymbol());
+		Assert.assertNull(((Atom) NodeFactory.makeNode(12)).getSymbol());
+	}
+
 	@Test
 	public void testIsList() {
 		Assert.assertTrue(NodeFactory.FALSE.isList());
@@ -0,0 +1,108 @@
+/**
+ * EvaluatorBenchmark.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.lexer.Lexer;
+import interpreter.parser.Parser;
+import interpreter.parser.StackEvaluator;
+
+import java.util.Arrays;
+
+/**
+ * Compares the time it takes to run recursive functions through the
+ * interpreter against the time it takes to run them compiled, to run them
+ * compiled to bytecode by the {@link Jit}, to run them on the
+ * {@link Machine}, and to run them on the {@link StackEvaluator}. In the
+ * manner of a JMH benchmark, each mode defines fib and ackermann once, calls
+ * them for a number of warmup iterations which are not measured, so that
+ * the JVM and the Jit settle, and then reports the median of the measured iterations.
+ * <p>
+ * Run with {@code java -Xss64m -cp target/classes:target/test-classes
+ * interpreter.parser.compile.EvaluatorBenchmark [fib n] [ack n] [rounds]
+ * [warmups]}.
+ * 
+ * @author Anand
+ *
+ */
+public class EvaluatorBenchmark {
+
+	private static final String[] MODES = { "interpreted", "compiled", "jit",
+			"vm", "stack" };
+
+	public static void main(String[] args) {
+		int fib = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+		int ack = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int warmups = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		String fibDefinition = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))";
+		String ackDefinition = "(defun ack (m n) (cond [(eq m 0) (+ n 1)] [(eq n 0) (ack (- m 1) 1)] [t (ack (- m 1) (ack m (- n 1)))]))";
+
+		System.out.printf(
+				"fib %d, ackermann 3 %d, %d warmups, %d rounds%n", fib,
+				ack, warmups, rounds);
+		try {
+			report("fib", fibDefinition, "(fib " + fib + ")", warmups,
+					rounds);
+			report("ackermann", ackDefinition, "(ack 3 " + ack + ")",
+					warmups, rounds);
+		}
+		finally {
+			Compiler.setEnabled(false);
+			Jit.setEnabled(false);
+			Machine.setEnabled(false);
+		}
+	}
+
+	private static void report(String name, String definition, String call,
+			int warmups, int rounds) {
+		double[] medians = new double[MODES.length];
+		String result = null;
+		for (int mode = 0; mode < MODES.length; mode++) {
+			Compiler.setEnabled(mode == 1 || mode == 2);
+			Jit.setEnabled(mode == 2);
+			Machine.setEnabled(mode == 3);
+			// define the function afresh, so nothing carries over from the
+			// previous mode.
+			StackEvaluator evaluator = mode == 4 ? new StackEvaluator() : null;
+			run(definition, evaluator);
+			for (int i = 0; i < warmups; i++) {
+				run(call, evaluator);
+			}
+			long[] samples = new long[rounds];
+			for (int i = 0; i < rounds; i++) {
+				long start = System.nanoTime();
+				String value = run(call, evaluator);
+				samples[i] = System.nanoTime() - start;
+				if (result == null) {
+					result = value;
+				} else if (!result.equals(value)) {
+					throw new AssertionError(MODES[mode] + " " + name
+							+ " gave a different result");
+				}
+			}
+			medians[mode] = median(samples);
+		}
+
+		for (int mode = 0; mode < MODES.length; mode++) {
+			System.out.printf("%-9s %-11s : %9.3f ms (%.1fx)%n", name,
+					MODES[mode], medians[mode] / 1e6, medians[0]
+							/ medians[mode]);
+		}
+		System.out.printf("(%s)%n", result.replace('\n', ' '));
+	}
+
+	private static String run(String program, StackEvaluator evaluator) {
+		Parser parser = new Parser(new Lexer(program).getTokens(),
+				new StringBuilder());
+		parser.setEvaluator(evaluator);
+		return parser.eval().toString();
+	}
+
+	private static double median(long[] samples) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * MachineTests.java is a part of Lispreter. 
+ */
+package interpreter.parser.compile;
+
+import interpreter.lexer.LexerParserTests;
+import interpreter.parser.prim.PrimitiveTests;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * Runs the lexer, parser and primitive tests again, with every statement and
+ * function run on the {@link Machine}.
+ * 
+ * @author Anand
+ *
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ LexerParserTests.class, PrimitiveTests.class })
+public class MachineTests {
+
+	@BeforeClass
+	public static void enable() {
+		Machine.setEnabled(true);
+	}
+
+	@AfterClass
+	public static void disable() {
+		Machine.setEnabled(false);
+	}
+}
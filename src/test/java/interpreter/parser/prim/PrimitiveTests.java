@@ -7,6 +7,7 @@ import interpreter.lexer.Lexer;
 import interpreter.parser.Node;
 import interpreter.parser.NodeFactory;
 import interpreter.parser.Parser;
+import interpreter.parser.Symbol;
 
 import java.util.Arrays;
 
@@ -83,6 +84,29 @@ public class PrimitiveTests {
 				NodeFactory.makeNode(true));
 	}
 
+	@Test
+	public void testPurePrecompute() {
+		PrimitiveHandler handler = new PrimitiveHandler();
+		Assert.assertTrue(handler.isPure(Symbol.intern("+")));
+		Assert.assertTrue(handler.isPure(Symbol.intern("not")));
+		Assert.assertFalse(handler.isPure(Symbol.intern("defun")));
+		Assert.assertFalse(handler.isPure(Symbol.intern("car")));
+
+		Node args = NodeFactory.makeNode(NodeFactory.makeNode(6),
+				NodeFactory.makeNode(NodeFactory.makeNode(3),
+						NodeFactory.FALSE));
+		Assert.assertEquals(NodeFactory.makeNode(9),
+				handler.precompute(Symbol.intern("+"), args));
+		Assert.assertEquals(NodeFactory.makeNode(2),
+				handler.precompute(Symbol.intern("/"), args));
+		Assert.assertNull(handler.precompute(Symbol.intern("car"), args));
+		// a failing call is left for the interpreter to report.
+		Node zero = NodeFactory.makeNode(NodeFactory.makeNode(6),
+				NodeFactory.makeNode(NodeFactory.makeNode(0),
+						NodeFactory.FALSE));
+		Assert.assertNull(handler.precompute(Symbol.intern("/"), zero));
+	}
+
 	private static Node eval(String... op) {
 		return NodeFactory.makeNode(Arrays.asList(op)).eval();
 	}